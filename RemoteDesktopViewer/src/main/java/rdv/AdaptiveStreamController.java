@@ -0,0 +1,139 @@
+package rdv;
+
+import java.util.concurrent.TimeUnit;
+
+// Per-viewer controller that adapts the stream to the measured link. The client acknowledges each
+// frame with its decode time; from that the controller tracks end-to-end frame latency, round-trip
+// time and the number of unacknowledged frames in flight. When latency exceeds the budget it backs
+// off the frame interval first, then JPEG quality, then resolution scale, and recovers in reverse
+// order once there is headroom again.
+//
+// Tunable with -Drdv.latencyBudgetMs=<ms> and -Drdv.maxFramesInFlight=<n>.
+public class AdaptiveStreamController {
+    public static final float DEFAULT_QUALITY = 0.75f;
+    public static final float MIN_QUALITY = 0.3f;
+    public static final float MAX_QUALITY = 0.9f;
+    public static final double MIN_SCALE = 0.25;
+    public static final double MAX_SCALE = 1.0;
+
+    private static final long MAX_INTERVAL_MS = 1000;
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long ACK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final double SMOOTHING = 0.2;
+
+    private final long latencyBudgetMillis = Long.getLong("rdv.latencyBudgetMs", 150);
+    private final int maxFramesInFlight = Integer.getInteger("rdv.maxFramesInFlight", 2);
+    private final long minIntervalMillis;
+
+    private volatile long frameIntervalMillis;
+    private volatile float quality = DEFAULT_QUALITY;
+    private volatile double scale = MAX_SCALE;
+
+    private double latencyMillis;
+    private double rttMillis;
+    private double decodeMillis;
+    private volatile double encodeMillis;
+    private int framesInFlight;
+    private long lastSendNanos;
+    private long lastAckNanos;
+    private long lastAdjustNanos;
+
+    public AdaptiveStreamController(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.frameIntervalMillis = minIntervalMillis;
+    }
+
+    public long frameIntervalMillis() {
+        return frameIntervalMillis;
+    }
+
+    public float quality() {
+        return quality;
+    }
+
+    public double scale() {
+        return scale;
+    }
+
+    public void encodeTime(double millis) {
+        encodeMillis = millis;
+    }
+
+    // Blocks until the frame interval has elapsed and the client has room for another frame.
+    public synchronized void awaitSendWindow() throws InterruptedException {
+        long delay;
+        while ((delay = sendDelayMillis()) > 0) {
+            wait(delay);
+        }
+    }
+
+    public synchronized boolean readyToSend() {
+        return sendDelayMillis() <= 0;
+    }
+
+    private long sendDelayMillis() {
+        long now = System.nanoTime();
+        if (framesInFlight > 0 && now - Math.max(lastSendNanos, lastAckNanos) > ACK_TIMEOUT_NANOS) {
+            // The client stopped acknowledging (e.g. it paused rendering); don't stall forever.
+            framesInFlight = 0;
+        }
+        long delay = frameIntervalMillis - TimeUnit.NANOSECONDS.toMillis(now - lastSendNanos);
+        return framesInFlight >= maxFramesInFlight ? Math.max(delay, 50) : delay;
+    }
+
+    public synchronized void frameSent() {
+        lastSendNanos = System.nanoTime();
+        framesInFlight++;
+    }
+
+    public synchronized void frameAcked(long sentAtNanos, long decodeMicros) {
+        long now = System.nanoTime();
+        lastAckNanos = now;
+        framesInFlight = Math.max(0, framesInFlight - 1);
+
+        double latency = (now - sentAtNanos) / 1e6;
+        double decode = decodeMicros / 1e3;
+        latencyMillis = smooth(latencyMillis, latency);
+        decodeMillis = smooth(decodeMillis, decode);
+        rttMillis = smooth(rttMillis, Math.max(0, latency - decode));
+
+        if (now - lastAdjustNanos >= ADJUST_INTERVAL_NANOS) {
+            lastAdjustNanos = now;
+            adjust();
+        }
+        notifyAll();
+    }
+
+    private void adjust() {
+        double frameCost = latencyMillis + encodeMillis;
+        if (frameCost > latencyBudgetMillis || framesInFlight >= maxFramesInFlight) {
+            if (frameIntervalMillis < MAX_INTERVAL_MS) {
+                frameIntervalMillis = Math.min(MAX_INTERVAL_MS, frameIntervalMillis * 3 / 2);
+            } else if (quality > MIN_QUALITY) {
+                quality = Math.max(MIN_QUALITY, quality - 0.1f);
+            } else if (scale > MIN_SCALE) {
+                scale = Math.max(MIN_SCALE, scale * 0.75);
+            }
+        } else if (frameCost < latencyBudgetMillis / 2.0 && framesInFlight <= 1) {
+            if (scale < MAX_SCALE) {
+                scale = Math.min(MAX_SCALE, scale / 0.75);
+            } else if (quality < DEFAULT_QUALITY) {
+                quality = Math.min(DEFAULT_QUALITY, quality + 0.1f);
+            } else if (frameIntervalMillis > minIntervalMillis) {
+                frameIntervalMillis = Math.max(minIntervalMillis, frameIntervalMillis * 4 / 5);
+            }
+        }
+    }
+
+    private static double smooth(double current, double sample) {
+        return current == 0 ? sample : current + SMOOTHING * (sample - current);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("interval=%d ms, quality=%.2f, scale=%.2f | latency=%.1f ms (budget %d), "
+                        + "rtt=%.1f ms, decode=%.1f ms, encode=%.1f ms, in flight=%d",
+                frameIntervalMillis, quality, scale, latencyMillis, latencyBudgetMillis,
+                rttMillis, decodeMillis, encodeMillis, framesInFlight);
+    }
+}
@@ -0,0 +1,136 @@
+package rdv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Thread-per-connection engine: a blocking ServerSocket whose connections are each served by a
+// thread from a cached pool reading messages in a loop. Every connection also has a writer thread
+// draining its OutboundQueue, so no caller ever writes to the socket itself.
+public class BlockingServer implements ServerEngine {
+    private final int port;
+    private final SessionFactory sessions;
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private volatile ServerSocket serverSocket;
+
+    public BlockingServer(int port, SessionFactory sessions) {
+        this.port = port;
+        this.sessions = sessions;
+    }
+
+    @Override
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            this.serverSocket = serverSocket;
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                SocketConnection connection = new SocketConnection(socket);
+                if (connection.open()) {
+                    executorService.submit(connection);
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        executorService.shutdownNow();
+    }
+
+    private class SocketConnection implements Connection, Runnable {
+        private final Socket socket;
+        private final OutboundQueue outbound = new OutboundQueue();
+        private final MessageWriter writer = new MessageWriter(outbound);
+        private MessageReader reader;
+        private Session session;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        boolean open() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSendBufferSize(OutboundQueue.SEND_BUFFER_SIZE);
+                outbound.start(new BufferedOutputStream(socket.getOutputStream()), "socket-writer-" + socket.getInetAddress());
+                reader = new MessageReader(new BufferedInputStream(socket.getInputStream()), false);
+                session = sessions.open(this);
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!socket.isClosed()) {
+                    byte opcode = reader.next();
+                    session.onMessage(opcode, reader.payload());
+                }
+            } catch (EOFException e) {
+                session.onDisconnect(null);
+            } catch (IOException e) {
+                session.onDisconnect(socket.isClosed() ? null : e);
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public InetAddress address() {
+            return socket.getInetAddress();
+        }
+
+        @Override
+        public MessageWriter writer() {
+            return writer;
+        }
+
+        @Override
+        public boolean sharedEngineThreads() {
+            return false;
+        }
+
+        @Override
+        public void authenticated() {
+            reader.authenticated();
+        }
+
+        @Override
+        public int pendingWrites() {
+            return outbound.size();
+        }
+
+        @Override
+        public void close() {
+            outbound.closeAndDrain();
+            try {
+                socket.close();
+            } catch (IOException e) {
+
+            }
+        }
+    }
+}
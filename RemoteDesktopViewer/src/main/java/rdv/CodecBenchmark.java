@@ -0,0 +1,138 @@
+package rdv;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares the frame codecs over a corpus of frames: compressed size of full keyframes and of the
+// changed tiles between consecutive frames, encode and decode throughput, and the largest per-channel
+// error after a round trip (0 for the lossless codecs).
+//
+// The corpus is every image in the given directory, sorted by name (e.g. a recorded session dumped
+// as PNGs); without one, the SyntheticFrameSource desktop, text and noise profiles are used.
+//
+//   java -Djava.awt.headless=true -cp target/classes rdv.CodecBenchmark [corpusDir] [iterations]
+public class CodecBenchmark {
+    private static final int[] CODECS = {Protocol.CODEC_JPEG, Protocol.CODEC_DEFLATE, Protocol.CODEC_PALETTE};
+    private static final float QUALITY = AdaptiveStreamController.DEFAULT_QUALITY;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        List<String> names = new ArrayList<>();
+        List<List<BufferedImage>> corpora = new ArrayList<>();
+        if (args.length > 0) {
+            Path directory = Paths.get(args[0]);
+            names.add(directory.getFileName().toString());
+            corpora.add(ReplayFrameSource.loadFrames(directory));
+        } else {
+            for (String profile : new String[]{"desktop", "text", "noise"}) {
+                names.add(profile);
+                corpora.add(synthetic(profile, 1280, 720, 20));
+            }
+        }
+
+        System.out.printf("%-10s %-8s %11s %7s %13s %12s %12s %8s%n", "corpus", "codec",
+                "key KB/frm", "ratio", "delta KB/frm", "enc MPix/s", "dec MPix/s", "max err");
+        for (int c = 0; c < corpora.size(); c++) {
+            for (int codec : CODECS) {
+                System.out.println(run(names.get(c), corpora.get(c), codec, iterations));
+            }
+        }
+    }
+
+    private static String run(String name, List<BufferedImage> frames, int codecId, int iterations) throws IOException {
+        FrameCodec codec = FrameCodec.create(codecId);
+        int width = frames.get(0).getWidth();
+        int height = frames.get(0).getHeight();
+        int tile = TileEncoder.TILE_SIZE;
+        int columns = (width + tile - 1) / tile;
+        int rows = (height + tile - 1) / tile;
+        byte[][] encoded = new byte[columns * rows][];
+        BufferedImage decoded = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        long keyBytes = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        long pixels = 0;
+        int maxError = 0;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (BufferedImage frame : frames) {
+                long start = System.nanoTime();
+                for (int i = 0; i < encoded.length; i++) {
+                    int x = (i % columns) * tile;
+                    int y = (i / columns) * tile;
+                    encoded[i] = codec.encode(frame, x, y, Math.min(tile, width - x), Math.min(tile, height - y), QUALITY);
+                }
+                long mid = System.nanoTime();
+                for (int i = 0; i < encoded.length; i++) {
+                    int x = (i % columns) * tile;
+                    int y = (i / columns) * tile;
+                    codec.decode(encoded[i], 0, encoded[i].length, decoded, x, y,
+                            Math.min(tile, width - x), Math.min(tile, height - y));
+                }
+                long end = System.nanoTime();
+                // The first pass warms up the JIT and is not counted.
+                if (iteration > 0 || iterations == 1) {
+                    encodeNanos += mid - start;
+                    decodeNanos += end - mid;
+                    pixels += (long) width * height;
+                }
+                if (iteration == 0) {
+                    for (byte[] bytes : encoded) {
+                        keyBytes += bytes.length;
+                    }
+                    maxError = Math.max(maxError, maxError(frame, decoded));
+                }
+            }
+        }
+
+        TileEncoder encoder = new TileEncoder(codec.id());
+        long deltaBytes = 0;
+        for (BufferedImage frame : frames) {
+            TileEncoder.Frame result = encoder.encode(frame, QUALITY, 1.0);
+            for (int i = 0; i < result.tileCount(); i++) {
+                if (result.seq > 1 && result.versions[i] == result.seq) {
+                    deltaBytes += result.tiles[i].length;
+                }
+            }
+        }
+
+        codec.close();
+
+        double rawBytes = width * height * 3.0;
+        return String.format("%-10s %-8s %11.1f %7.1f %13.1f %12.1f %12.1f %8d", name, codec.name(),
+                keyBytes / 1024.0 / frames.size(), rawBytes * frames.size() / keyBytes,
+                frames.size() > 1 ? deltaBytes / 1024.0 / (frames.size() - 1) : 0.0,
+                pixels / (encodeNanos / 1e3), pixels / (decodeNanos / 1e3), maxError);
+    }
+
+    private static int maxError(BufferedImage expected, BufferedImage actual) {
+        int max = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    max = Math.max(max, Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+
+    // Copies count frames out of a synthetic source, which reuses its buffers.
+    private static List<BufferedImage> synthetic(String profile, int width, int height, int count) {
+        SyntheticFrameSource source = new SyntheticFrameSource(profile, width, height);
+        List<BufferedImage> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BufferedImage frame = source.capture();
+            BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            System.arraycopy(FrameCodec.pixels(frame), 0, FrameCodec.pixels(copy), 0, width * height);
+            frames.add(copy);
+        }
+        return frames;
+    }
+}
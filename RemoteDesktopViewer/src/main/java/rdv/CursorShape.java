@@ -0,0 +1,128 @@
+package rdv;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A pointer image and its hotspot, the pixel that sits on the pointer position. A shape is known by
+// an id derived from its content, so the server sends each shape at most once per connection and
+// the client caches them by id; CURSOR_POSITION then refers to a shape by id alone. Id 0 is never
+// used, it stands for a hidden pointer on the wire.
+public final class CursorShape {
+    // Large enough for any system cursor, small enough that a bogus header can't allocate much
+    public static final int MAX_SIZE = 128;
+
+    public static final CursorShape ARROW = arrow();
+    public static final CursorShape TEXT = textBeam();
+
+    public final int id;
+    public final int hotspotX;
+    public final int hotspotY;
+    public final int width;
+    public final int height;
+    private final int[] argb;
+    private BufferedImage image;
+
+    private CursorShape(int id, int hotspotX, int hotspotY, int width, int height, int[] argb) {
+        this.id = id;
+        this.hotspotX = hotspotX;
+        this.hotspotY = hotspotY;
+        this.width = width;
+        this.height = height;
+        this.argb = argb;
+    }
+
+    // A shape from a TYPE_INT_ARGB image.
+    public static CursorShape of(BufferedImage image, int hotspotX, int hotspotY) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("Cursor larger than " + MAX_SIZE + " pixels: " + width + "x" + height);
+        }
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        int id = 31 * (31 * (31 * (31 * Arrays.hashCode(argb) + width) + height) + hotspotX) + hotspotY;
+        return new CursorShape(id == 0 ? 1 : id, hotspotX, hotspotY, width, height, argb);
+    }
+
+    // Writes the CURSOR_SHAPE payload.
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(id);
+        out.writeShort(hotspotX);
+        out.writeShort(hotspotY);
+        out.writeShort(width);
+        out.writeShort(height);
+        for (int pixel : argb) {
+            out.writeInt(pixel);
+        }
+    }
+
+    // Reads a CURSOR_SHAPE payload. The id is taken as sent, the client only uses it as a cache key.
+    public static CursorShape read(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        int hotspotX = in.readUnsignedShort();
+        int hotspotY = in.readUnsignedShort();
+        int width = in.readUnsignedShort();
+        int height = in.readUnsignedShort();
+        if (width == 0 || height == 0 || width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IOException("Invalid cursor size " + width + "x" + height);
+        }
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = in.readInt();
+        }
+        return new CursorShape(id, hotspotX, hotspotY, width, height, argb);
+    }
+
+    // The shape as a translucent image, created on first use.
+    public synchronized BufferedImage toImage() {
+        if (image == null) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, argb, 0, width);
+        }
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cursor %08x %dx%d hotspot %d,%d", id, width, height, hotspotX, hotspotY);
+    }
+
+    // Java can't read the system's cursor images, so sources that know the pointer but not its shape
+    // report one of these.
+    private static CursorShape arrow() {
+        BufferedImage image = new BufferedImage(13, 21, BufferedImage.TYPE_INT_ARGB);
+        Polygon outline = new Polygon(new int[]{1, 1, 5, 8, 10, 7, 12}, new int[]{1, 17, 13, 19, 18, 12, 12}, 7);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillPolygon(outline);
+        g.setColor(Color.WHITE);
+        g.drawPolygon(outline);
+        g.dispose();
+        return of(image, 1, 1);
+    }
+
+    private static CursorShape textBeam() {
+        BufferedImage image = new BufferedImage(9, 19, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setStroke(new BasicStroke(3));
+        g.setColor(Color.WHITE);
+        drawBeam(g);
+        g.setStroke(new BasicStroke(1));
+        g.setColor(Color.BLACK);
+        drawBeam(g);
+        g.dispose();
+        return of(image, 4, 9);
+    }
+
+    private static void drawBeam(Graphics2D g) {
+        g.drawLine(1, 1, 7, 1);
+        g.drawLine(4, 1, 4, 17);
+        g.drawLine(1, 17, 7, 17);
+    }
+}
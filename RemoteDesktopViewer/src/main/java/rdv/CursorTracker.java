@@ -0,0 +1,110 @@
+package rdv;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+// Follows the pointer of the broadcaster's FrameSource for the viewers that want it. One thread
+// polls the source every intervalMillis while anyone is subscribed and tells every listener when the
+// pointer moved, changed shape or was hidden. A new listener is told where the pointer is right
+// away. Input that moves the pointer wakes the thread early, so the viewers see the move as soon as
+// it has been applied rather than on the next poll.
+//
+// Listeners are only ever called from the tracker thread, one at a time.
+public class CursorTracker {
+    public interface Listener {
+        // location is null while the pointer is hidden; shape is then null too.
+        void cursorChanged(Point location, CursorShape shape);
+    }
+
+    private final ScreenBroadcaster broadcaster;
+    private final long intervalMillis;
+    private final Set<Listener> listeners = new LinkedHashSet<>();
+    private final Set<Listener> joined = new LinkedHashSet<>();
+    private FrameSource source;
+    private Thread trackerThread;
+    private boolean woken;
+
+    public CursorTracker(ScreenBroadcaster broadcaster, long intervalMillis) {
+        this.broadcaster = broadcaster;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public synchronized void subscribe(Listener listener) throws IOException {
+        source = broadcaster.source();
+        if (listeners.add(listener)) {
+            joined.add(listener);
+        }
+        if (trackerThread == null) {
+            trackerThread = new Thread(this::trackLoop, "cursor-tracker");
+            trackerThread.setDaemon(true);
+            trackerThread.start();
+        }
+        woken = true;
+        notifyAll();
+    }
+
+    public synchronized void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+        joined.remove(listener);
+        if (listeners.isEmpty() && trackerThread != null) {
+            trackerThread.interrupt();
+            trackerThread = null;
+        }
+    }
+
+    // Called after input moved the pointer to x, y.
+    public void pointerMoved(int x, int y) {
+        FrameSource target;
+        synchronized (this) {
+            target = source;
+        }
+        if (target == null) {
+            return;
+        }
+        target.pointerMoved(x, y);
+        synchronized (this) {
+            woken = true;
+            notifyAll();
+        }
+    }
+
+    private void trackLoop() {
+        Point lastLocation = null;
+        int lastShape = 0;
+        List<Listener> all = new ArrayList<>();
+        List<Listener> newcomers = new ArrayList<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                FrameSource tracked;
+                synchronized (this) {
+                    if (!woken) {
+                        wait(intervalMillis);
+                    }
+                    woken = false;
+                    all.clear();
+                    all.addAll(listeners);
+                    newcomers.clear();
+                    newcomers.addAll(joined);
+                    joined.clear();
+                    tracked = source;
+                }
+                Point location = tracked.pointerLocation();
+                CursorShape shape = location != null ? tracked.pointerShape() : null;
+                int shapeId = shape != null ? shape.id : 0;
+                boolean changed = !Objects.equals(location, lastLocation) || shapeId != lastShape;
+                lastLocation = location;
+                lastShape = shapeId;
+                for (Listener listener : changed ? all : newcomers) {
+                    listener.cursorChanged(location, shape);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
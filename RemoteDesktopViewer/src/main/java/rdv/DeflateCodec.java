@@ -0,0 +1,101 @@
+package rdv;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Lossless: the tile's pixels as packed 24-bit RGB, compressed with raw Deflate. The Deflater,
+// Inflater and scratch buffers are reused, so the only allocation per tile is the encoded result.
+// The Deflater and Inflater hold native zlib memory until close().
+//
+// The compression level is tunable with -Drdv.deflateLevel=<0-9> (default 1, fastest).
+public class DeflateCodec implements FrameCodec {
+    private static final int LEVEL = Integer.getInteger("rdv.deflateLevel", Deflater.BEST_SPEED);
+
+    private final Deflater deflater = new Deflater(LEVEL, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] raw = new byte[TileEncoder.TILE_SIZE * TileEncoder.TILE_SIZE * 3];
+    private byte[] compressed = new byte[raw.length + 64];
+
+    @Override
+    public int id() {
+        return Protocol.CODEC_DEFLATE;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image, int x, int y, int width, int height, float quality) {
+        int[] pixels = FrameCodec.pixels(image);
+        int stride = image.getWidth();
+        int size = width * height * 3;
+        if (raw.length < size) {
+            raw = new byte[size];
+            compressed = new byte[size + 64];
+        }
+        int n = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int i = row * stride + x, end = i + width; i < end; i++) {
+                int rgb = pixels[i];
+                raw[n++] = (byte) (rgb >> 16);
+                raw[n++] = (byte) (rgb >> 8);
+                raw[n++] = (byte) rgb;
+            }
+        }
+        deflater.reset();
+        deflater.setInput(raw, 0, size);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return Arrays.copyOf(compressed, length);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BufferedImage target, int x, int y, int width, int height)
+            throws IOException {
+        int size = width * height * 3;
+        if (raw.length < size) {
+            raw = new byte[size];
+        }
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            int n = 0;
+            while (n < size) {
+                int inflated = inflater.inflate(raw, n, size - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated deflate tile at " + x + "," + y);
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate tile at " + x + "," + y, e);
+        }
+        int[] pixels = FrameCodec.pixels(target);
+        int stride = target.getWidth();
+        int n = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int i = row * stride + x, end = i + width; i < end; i++) {
+                pixels[i] = (raw[n] & 0xFF) << 16 | (raw[n + 1] & 0xFF) << 8 | (raw[n + 2] & 0xFF);
+                n += 3;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
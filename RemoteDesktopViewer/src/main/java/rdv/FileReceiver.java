@@ -0,0 +1,265 @@
+package rdv;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Server side of the chunked file transfer. Data is appended to "Received_<name>.<digest>.part" and
+// moved into place once complete, so a transfer interrupted by a disconnect resumes from whatever
+// already reached the disk the next time the same file is offered. The part file is named after the
+// SHA-256 in the offer, so a different file of the same name never resumes from it; the digest of
+// the received data is checked once the last chunk is in, and a part that doesn't match (damaged,
+// or left by a sender whose file changed) is started over from scratch.
+//
+// Each chunk is read from the message payload into one reused buffer, checksummed there and only
+// then written at its offset; a chunk that fails its CRC never reaches the file, and the sender is
+// asked to rewind to the last good offset.
+public class FileReceiver {
+    private static final Metrics.Counter BYTES_RECEIVED = Metrics.global().counter("rdv_file_received_bytes_total",
+            "File transfer bytes written to disk");
+    private static final int DIGEST_LENGTH = 32;
+
+    private final MessageWriter writer;
+    private final Consumer<String> log;
+    private final String peer;
+    private final Path directory;
+    private final Map<Integer, IncomingFile> transfers = new HashMap<>();
+    private final byte[] chunk = new byte[FileSender.CHUNK_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private static class IncomingFile {
+        final String name;
+        final long size;
+        final byte[] expectedDigest;
+        final Path partPath;
+        final FileChannel channel;
+        // Digest of the data up to offset
+        final MessageDigest digest = newDigest();
+        long offset;
+        long resumedFrom;
+        boolean rewinding;
+
+        IncomingFile(String name, long size, byte[] expectedDigest, Path partPath, FileChannel channel) {
+            this.name = name;
+            this.size = size;
+            this.expectedDigest = expectedDigest;
+            this.partPath = partPath;
+            this.channel = channel;
+        }
+    }
+
+    // Receives into the working directory.
+    public FileReceiver(MessageWriter writer, Consumer<String> log, String peer) {
+        this(writer, log, peer, Paths.get(""));
+    }
+
+    public FileReceiver(MessageWriter writer, Consumer<String> log, String peer, Path directory) {
+        this.writer = writer;
+        this.log = log;
+        this.peer = peer;
+        this.directory = directory;
+    }
+
+    public synchronized void offer(DataInputStream payload) throws IOException {
+        int id = payload.readInt();
+        String name = safeName(payload.readUTF());
+        long size = payload.readLong();
+        byte[] expectedDigest = new byte[DIGEST_LENGTH];
+        payload.readFully(expectedDigest);
+        if (size < 0) {
+            throw new IOException("Invalid size " + size + " for " + name);
+        }
+
+        IncomingFile previous = transfers.remove(id);
+        if (previous != null) {
+            previous.channel.close();
+        }
+
+        Path partPath = directory.resolve("Received_" + name + "." + hex(expectedDigest, 8) + ".part");
+        FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        IncomingFile file = new IncomingFile(name, size, expectedDigest, partPath, channel);
+        long offset = Math.min(channel.size(), size);
+        channel.truncate(offset);
+        digestPrefix(file, offset);
+        if (offset == size && !Arrays.equals(file.digest.digest(), expectedDigest)) {
+            // A complete part that isn't this file; no chunk will arrive to catch it later
+            channel.truncate(0);
+            offset = 0;
+        }
+        file.offset = offset;
+        file.resumedFrom = offset;
+        transfers.put(id, file);
+
+        sendAck(id, offset, false);
+        log.accept("Receiving file: " + name + " (" + size + " bytes"
+                + (offset > 0 ? ", resuming at " + offset : "") + ") from " + peer);
+    }
+
+    public synchronized void chunk(DataInputStream payload) throws IOException {
+        int id = payload.readInt();
+        long offset = payload.readLong();
+        int expectedCrc = payload.readInt();
+        int length = payload.available();
+
+        IncomingFile file = transfers.get(id);
+        if (file == null) {
+            return;
+        }
+        if (offset != file.offset) {
+            // Stale chunk sent before the sender saw our rewind request; drop it.
+            if (!file.rewinding) {
+                file.rewinding = true;
+                sendAck(id, file.offset, true);
+            }
+            return;
+        }
+        if (offset + length > file.size) {
+            throw new IOException("Chunk past end of " + file.name);
+        }
+        if (length > chunk.length) {
+            throw new IOException("Chunk of " + length + " bytes in " + file.name + " exceeds " + chunk.length);
+        }
+
+        payload.readFully(chunk, 0, length);
+        crc.reset();
+        crc.update(chunk, 0, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            file.rewinding = true;
+            sendAck(id, file.offset, true);
+            log.accept("Checksum mismatch in " + file.name + " at offset " + offset + " from " + peer + ", rewinding");
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(chunk, 0, length);
+        while (data.hasRemaining()) {
+            file.channel.write(data, offset + data.position());
+        }
+        file.digest.update(chunk, 0, length);
+        file.offset += length;
+        file.rewinding = false;
+        BYTES_RECEIVED.add(length);
+        if (file.offset == file.size && !Arrays.equals(file.digest.digest(), file.expectedDigest)) {
+            rejectContent(id, file);
+            return;
+        }
+        sendAck(id, file.offset, false);
+    }
+
+    // The received data doesn't hash to the offered digest. If part of it came from an earlier
+    // transfer, that part is suspect and the sender starts over; if all of it came now, the sender's
+    // file changed while it was sent and the transfer is dropped.
+    private void rejectContent(int id, IncomingFile file) throws IOException {
+        file.channel.truncate(0);
+        if (file.resumedFrom > 0) {
+            log.accept("Resumed " + file.name + " from " + peer + " doesn't match its digest, starting over");
+            file.digest.reset();
+            file.offset = 0;
+            file.resumedFrom = 0;
+            file.rewinding = true;
+            sendAck(id, 0, true);
+            return;
+        }
+        log.accept("Received " + file.name + " from " + peer + " doesn't match its digest, discarded");
+        transfers.remove(id);
+        file.channel.close();
+        Files.deleteIfExists(file.partPath);
+        // Let the sender finish; without the file in place, its FILE_COMPLETE is ignored.
+        sendAck(id, file.size, false);
+    }
+
+    // Returns the name of the completed file, or null if the transfer isn't finished.
+    public synchronized String complete(DataInputStream payload) throws IOException {
+        int id = payload.readInt();
+        IncomingFile file = transfers.get(id);
+        if (file == null || file.offset != file.size) {
+            return null;
+        }
+        transfers.remove(id);
+        file.channel.force(false);
+        file.channel.close();
+        Files.move(file.partPath, directory.resolve("Received_" + file.name), StandardCopyOption.REPLACE_EXISTING);
+        reply(Protocol.FILE_RECEIVED, p -> p.writeUTF(file.name));
+        return file.name;
+    }
+
+    // Closes any open transfers; their .part files stay on disk for a later resume.
+    public synchronized void close() {
+        for (IncomingFile file : transfers.values()) {
+            try {
+                file.channel.close();
+            } catch (IOException e) {
+
+            }
+        }
+        transfers.clear();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Hashes the length bytes already in the part file, which a resumed transfer continues from.
+    private void digestPrefix(IncomingFile file, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(chunk.length, length - position));
+            int read = file.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Part file of " + file.name + " shrank");
+            }
+            file.digest.update(chunk, 0, read);
+            position += read;
+        }
+    }
+
+    private static String hex(byte[] bytes, int count) {
+        StringBuilder text = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            text.append(String.format("%02x", bytes[i]));
+        }
+        return text.toString();
+    }
+
+    private void sendAck(int id, long offset, boolean rewind) throws IOException {
+        reply(Protocol.FILE_ACK, out -> {
+            out.writeInt(id);
+            out.writeLong(offset);
+            out.writeBoolean(rewind);
+        });
+    }
+
+    // Runs on the engine's threads, so it never waits for queue room: the sender waits for every ack, and a
+    // peer that lets its control queue fill up is not reading them anyway.
+    private void reply(byte opcode, MessageWriter.Payload body) throws IOException {
+        if (!writer.trySend(opcode, body)) {
+            throw new IOException("Write queue to " + peer + " is full");
+        }
+    }
+
+    private static String safeName(String name) throws IOException {
+        Path fileName = Paths.get(name).getFileName();
+        if (fileName == null || fileName.toString().isEmpty() || fileName.toString().equals("..")) {
+            throw new IOException("Invalid file name: " + name);
+        }
+        return fileName.toString();
+    }
+}
@@ -0,0 +1,154 @@
+package rdv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+// Client side of the chunked file transfer. The file is streamed in fixed-size chunks through a
+// single reused buffer, each with its own CRC32. The server acknowledges every chunk; keeping at
+// most WINDOW_BYTES unacknowledged stops a large file from filling the socket ahead of input and
+// screen traffic. The server's first acknowledgement tells us where to resume. The offer carries the
+// file's SHA-256, read in one pass before sending, so the server only resumes from data of this
+// very file.
+public class FileSender {
+    public static final int CHUNK_SIZE = 64 * 1024;
+    private static final long WINDOW_BYTES = 8L * CHUNK_SIZE;
+    private static final long ACK_TIMEOUT_MS = 30_000;
+
+    static final Metrics.Counter BYTES_SENT = Metrics.global().counter("rdv_file_sent_bytes_total",
+            "File transfer bytes sent, including resent chunks");
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    private static final Map<Integer, FileSender> active = new ConcurrentHashMap<>();
+
+    private final int id = nextId.getAndIncrement();
+    private final MessageWriter writer;
+    private final Path path;
+    private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+    private long acked = -1;
+    private long rewindTo = -1;
+
+    public FileSender(MessageWriter writer, Path path) {
+        this.writer = writer;
+        this.path = path;
+    }
+
+    // Called from the receive thread for every FILE_ACK.
+    public static void acknowledge(int id, long offset, boolean rewind) {
+        FileSender sender = active.get(id);
+        if (sender != null) {
+            sender.onAck(offset, rewind);
+        }
+    }
+
+    // Sends the file, blocking until the server has acknowledged all of it. Returns the offset the
+    // transfer resumed from.
+    public long send() throws IOException, InterruptedException {
+        active.put(id, this);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[] digest = digest(channel, size);
+            writer.send(Protocol.FILE_OFFER, out -> {
+                out.writeInt(id);
+                out.writeUTF(path.getFileName().toString());
+                out.writeLong(size);
+                out.write(digest);
+            });
+            long resumedFrom = awaitAck(0);
+            long position = resumedFrom;
+
+            while (true) {
+                while (position < size) {
+                    long rewind = takeRewind();
+                    if (rewind >= 0) {
+                        position = rewind;
+                        continue;
+                    }
+                    awaitAck(position + CHUNK_SIZE - WINDOW_BYTES);
+                    position += sendChunk(channel, position, (int) Math.min(CHUNK_SIZE, size - position));
+                }
+                awaitAck(size);
+                long rewind = takeRewind();
+                if (rewind < 0) {
+                    break;
+                }
+                position = rewind;
+            }
+
+            writer.send(Protocol.FILE_COMPLETE, id);
+            return resumedFrom;
+        } finally {
+            active.remove(id);
+        }
+    }
+
+    private byte[] digest(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = FileReceiver.newDigest();
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File shrank while sending: " + path);
+            }
+            digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return digest.digest();
+    }
+
+    private int sendChunk(FileChannel channel, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File shrank while sending: " + path);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        writer.send(Protocol.FILE_CHUNK, out -> {
+            out.writeInt(id);
+            out.writeLong(position);
+            out.writeInt((int) crc.getValue());
+            out.write(buffer.array(), 0, length);
+        });
+        BYTES_SENT.add(length);
+        return length;
+    }
+
+    private synchronized void onAck(long offset, boolean rewind) {
+        acked = offset;
+        if (rewind) {
+            rewindTo = offset;
+        }
+        notifyAll();
+    }
+
+    private synchronized long takeRewind() {
+        long rewind = rewindTo;
+        rewindTo = -1;
+        return rewind;
+    }
+
+    // Waits until the server has acknowledged at least the given offset, or a rewind is requested.
+    private synchronized long awaitAck(long offset) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACK_TIMEOUT_MS);
+        while ((acked < 0 || acked < offset) && rewindTo < 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new IOException("Timed out waiting for the server to acknowledge " + path.getFileName());
+            }
+            wait(remaining);
+        }
+        return acked;
+    }
+}
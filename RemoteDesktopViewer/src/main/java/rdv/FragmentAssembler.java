@@ -0,0 +1,76 @@
+package rdv;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Joins FRAGMENT messages back into the messages OutboundQueue split up. Each priority class has
+// at most one message in fragments at a time, so fragments are appended per class until the last.
+//
+// A fragmented message must belong to the class it arrives in and stay within what that class
+// carries: control messages up to a tile cache index, a chat line, a frame of up to
+// Protocol.MAX_PAYLOAD, a file chunk. Engines only accept FRAGMENT from authenticated peers.
+public class FragmentAssembler {
+    private static final int RETAINED_CAPACITY = 1 << 20;
+    private static final int[] MAX_MESSAGE_BYTES = {1 << 20, 128 * 1024, Protocol.MAX_PAYLOAD, 1 << 20};
+
+    private final byte[][] buffers = new byte[OutboundQueue.CLASSES][];
+    private final int[] lengths = new int[OutboundQueue.CLASSES];
+    private byte opcode;
+    private byte[] payload;
+    private int length;
+
+    public FragmentAssembler() {
+        Arrays.fill(buffers, new byte[0]);
+    }
+
+    // Adds the payload of one FRAGMENT message. Returns true once it completes a message, whose
+    // opcode and payload are then available until the next call.
+    public boolean add(byte[] fragment, int fragmentLength) throws IOException {
+        if (fragmentLength < 3) {
+            throw new IOException("Truncated fragment");
+        }
+        int cls = fragment[0] & 0xFF;
+        if (cls >= OutboundQueue.CLASSES) {
+            throw new IOException("Invalid fragment class " + cls);
+        }
+        if (OutboundQueue.classOf(fragment[1]) != cls) {
+            throw new IOException("Opcode " + fragment[1] + " fragmented in class " + cls);
+        }
+        int count = fragmentLength - 3;
+        int total = lengths[cls] + count;
+        if (total > MAX_MESSAGE_BYTES[cls]) {
+            throw new IOException("Fragmented payload too large for opcode " + fragment[1]);
+        }
+        byte[] buffer = buffers[cls];
+        if (buffer.length < total) {
+            buffer = Arrays.copyOf(buffer, Math.max(total, buffer.length * 2));
+            buffers[cls] = buffer;
+        }
+        System.arraycopy(fragment, 3, buffer, lengths[cls], count);
+        lengths[cls] = total;
+        if (fragment[2] == 0) {
+            return false;
+        }
+        opcode = fragment[1];
+        payload = buffer;
+        length = total;
+        lengths[cls] = 0;
+        if (buffer.length > RETAINED_CAPACITY) {
+            // Don't hold on to the buffer of a one-off huge message
+            buffers[cls] = new byte[0];
+        }
+        return true;
+    }
+
+    public byte opcode() {
+        return opcode;
+    }
+
+    public byte[] payload() {
+        return payload;
+    }
+
+    public int length() {
+        return length;
+    }
+}
@@ -0,0 +1,82 @@
+package rdv;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+
+// Encodes and decodes one rectangular tile of a TYPE_INT_RGB frame. The codec is agreed on during
+// the handshake: the client lists the codecs it accepts in order of preference and the server picks
+// the first one it also supports. Instances keep reusable scratch state and are not thread-safe;
+// every encoder and decoder creates its own.
+//
+// Both sides read their codec list from -Drdv.codecs=<name,...> (default jpeg,palette,deflate).
+public interface FrameCodec {
+    int id();
+
+    String name();
+
+    // Encodes the given region of image. quality is only used by lossy codecs.
+    byte[] encode(BufferedImage image, int x, int y, int width, int height, float quality) throws IOException;
+
+    // Decodes data[offset, offset + length) into the given region of target.
+    void decode(byte[] data, int offset, int length, BufferedImage target, int x, int y, int width, int height)
+            throws IOException;
+
+    // Frees native resources; the codec can't be used afterwards. Called by whoever discards it.
+    default void close() {
+    }
+
+    String[] NAMES = {null, "jpeg", "deflate", "palette"};
+
+    static FrameCodec create(int id) {
+        switch (id) {
+            case Protocol.CODEC_JPEG:
+                return new JpegCodec();
+            case Protocol.CODEC_DEFLATE:
+                return new DeflateCodec();
+            case Protocol.CODEC_PALETTE:
+                return new PaletteCodec();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + id);
+        }
+    }
+
+    static String name(int id) {
+        return id > 0 && id < NAMES.length ? NAMES[id] : "codec " + id;
+    }
+
+    // Codec ids from -Drdv.codecs, in order of preference.
+    static int[] configured() {
+        String[] names = System.getProperty("rdv.codecs", "jpeg,palette,deflate").split(",");
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = idOf(names[i].trim());
+        }
+        return ids;
+    }
+
+    static int idOf(String name) {
+        for (int id = 1; id < NAMES.length; id++) {
+            if (NAMES[id].equalsIgnoreCase(name)) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    // The first offered codec that is also supported, or JPEG if there is none in common.
+    static int negotiate(int[] offered, int[] supported) {
+        for (int candidate : offered) {
+            for (int id : supported) {
+                if (candidate == id) {
+                    return id;
+                }
+            }
+        }
+        return Protocol.CODEC_JPEG;
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
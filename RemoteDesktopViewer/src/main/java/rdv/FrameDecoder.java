@@ -0,0 +1,311 @@
+package rdv;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Client-side decode stage between the socket reader and the ScreenCanvas. The reader only copies
+// a SCREEN_TILES payload into a pooled buffer, filling in tiles sent as TileCache references from
+// the cache, and queues it; a dedicated thread decodes the tiles
+// with the negotiated FrameCodec straight into the canvas's back buffer and publishes the finished
+// frame. Tiles are deltas, so every queued frame is decoded in order; the queue is short, so a slow
+// decoder pushes back on the socket and, through the delayed acknowledgements, on the server's
+// frame rate. Within a frame, the tiles are decoded in parallel on the shared TileWorkers pool, after
+// any moves have been copied inside the back buffer, which holds the previous frame.
+//
+// A frame that fails to decode leaves the back buffer half updated, so the canvas drops it and waits
+// for a keyframe. The frame is not acknowledged; the listener is told instead, to ask for the keyframe.
+public class FrameDecoder {
+    private static final int QUEUE_CAPACITY = 3;
+    // x, y, width, height, dx, dy
+    private static final int MOVE_FIELDS = 6;
+
+    public interface Listener {
+        void frameDecoded(long seq, long sentAt, int decodeMicros);
+
+        // Deltas are skipped from now on until a keyframe arrives.
+        default void frameFailed(long seq) {
+        }
+    }
+
+    // Raw SCREEN_TILES payload, reused across frames.
+    public static class EncodedFrame {
+        long seq;
+        long sentAt;
+        int screenWidth;
+        int screenHeight;
+        final Rectangle region = new Rectangle();
+        int width;
+        int height;
+        boolean keyframe;
+        int moveCount;
+        int[] moves = new int[0];
+        int tileCount;
+        // Referenced tiles that were not in the tile cache and are left out
+        int missingTiles;
+        int[] xs = new int[0];
+        int[] ys = new int[0];
+        int[] offsets = new int[0];
+        int[] lengths = new int[0];
+        byte[] data = new byte[64 * 1024];
+        long receivedAt;
+
+        // Reads the moves and the tile table after the header fields, which the caller has already read.
+        // Tiles sent in full go into cache and referenced tiles come out of it; cache may be null.
+        void readTiles(DataInputStream payload, TileCache cache) throws IOException {
+            moveCount = payload.readUnsignedByte();
+            if (moves.length < moveCount * MOVE_FIELDS) {
+                moves = new int[moveCount * MOVE_FIELDS];
+            }
+            for (int i = 0; i < moveCount * MOVE_FIELDS; i += MOVE_FIELDS) {
+                moves[i] = payload.readUnsignedShort();
+                moves[i + 1] = payload.readUnsignedShort();
+                moves[i + 2] = payload.readUnsignedShort();
+                moves[i + 3] = payload.readUnsignedShort();
+                moves[i + 4] = payload.readShort();
+                moves[i + 5] = payload.readShort();
+            }
+            tileCount = payload.readInt();
+            if (xs.length < tileCount) {
+                xs = new int[tileCount];
+                ys = new int[tileCount];
+                offsets = new int[tileCount];
+                lengths = new int[tileCount];
+            }
+            int count = tileCount;
+            int used = 0;
+            tileCount = 0;
+            missingTiles = 0;
+            for (int i = 0; i < count; i++) {
+                int x = payload.readUnsignedShort();
+                int y = payload.readUnsignedShort();
+                int length = payload.readInt();
+                byte[] cached = null;
+                if (length == -1) {
+                    long hash = payload.readLong();
+                    cached = cache != null ? cache.get(hash) : null;
+                    if (cached == null) {
+                        missingTiles++;
+                        continue;
+                    }
+                    length = cached.length;
+                } else if (length < 0) {
+                    throw new IOException("Invalid tile length " + length);
+                }
+                if (used + length > data.length) {
+                    byte[] grown = new byte[Math.max(data.length * 2, used + length)];
+                    System.arraycopy(data, 0, grown, 0, used);
+                    data = grown;
+                }
+                if (cached != null) {
+                    System.arraycopy(cached, 0, data, used, length);
+                } else {
+                    payload.readFully(data, used, length);
+                    if (cache != null) {
+                        cache.put(TileCache.hash(data, used, length), length,
+                                Arrays.copyOfRange(data, used, used + length));
+                    }
+                }
+                xs[tileCount] = x;
+                ys[tileCount] = y;
+                offsets[tileCount] = used;
+                lengths[tileCount] = length;
+                tileCount++;
+                used += length;
+            }
+        }
+
+        // Reads a whole SCREEN_TILES payload, header included, e.g. from a session recording.
+        void read(ByteBuffer payload) {
+            seq = payload.getLong();
+            sentAt = payload.getLong();
+            screenWidth = payload.getInt();
+            screenHeight = payload.getInt();
+            region.setBounds(payload.getInt(), payload.getInt(), payload.getInt(), payload.getInt());
+            width = payload.getInt();
+            height = payload.getInt();
+            keyframe = (payload.get() & Protocol.FRAME_KEYFRAME) != 0;
+            moveCount = payload.get() & 0xFF;
+            if (moves.length < moveCount * MOVE_FIELDS) {
+                moves = new int[moveCount * MOVE_FIELDS];
+            }
+            for (int i = 0; i < moveCount * MOVE_FIELDS; i++) {
+                moves[i] = i % MOVE_FIELDS < 4 ? payload.getShort() & 0xFFFF : payload.getShort();
+            }
+            tileCount = payload.getInt();
+            if (xs.length < tileCount) {
+                xs = new int[tileCount];
+                ys = new int[tileCount];
+                offsets = new int[tileCount];
+                lengths = new int[tileCount];
+            }
+            int used = 0;
+            for (int i = 0; i < tileCount; i++) {
+                xs[i] = payload.getShort() & 0xFFFF;
+                ys[i] = payload.getShort() & 0xFFFF;
+                int length = payload.getInt();
+                if (used + length > data.length) {
+                    byte[] grown = new byte[Math.max(data.length * 2, used + length)];
+                    System.arraycopy(data, 0, grown, 0, used);
+                    data = grown;
+                }
+                payload.get(data, used, length);
+                offsets[i] = used;
+                lengths[i] = length;
+                used += length;
+            }
+        }
+    }
+
+    private final ScreenCanvas canvas;
+    private final Listener listener;
+    private final Thread thread;
+    private final BlockingQueue<EncodedFrame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<EncodedFrame> free = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+    private final TileWorkers workers = TileWorkers.shared();
+    private volatile int codec = Protocol.CODEC_JPEG;
+    private Rectangle[] dirty = new Rectangle[0];
+
+    private final LongAdder framesDecoded = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final Metrics.Histogram decodeTime = Metrics.global().histogram("rdv_client_decode_seconds",
+            "Time to decode a frame", Metrics.LATENCY_SECONDS, Metrics.NANOS);
+    private final Metrics.Histogram queueTime = Metrics.global().histogram("rdv_client_decode_queue_seconds",
+            "Time a received frame waits for the decoder", Metrics.LATENCY_SECONDS, Metrics.NANOS);
+    private long statsFrames;
+    private long statsDecodeNanos;
+    private long statsQueueNanos;
+    private long statsRendered;
+    private long statsDropped;
+    private long statsStart = System.nanoTime();
+
+    public FrameDecoder(ScreenCanvas canvas, Listener listener) {
+        this.canvas = canvas;
+        this.listener = listener;
+        thread = new Thread(this::decodeLoop, "frame-decoder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Switches to the codec negotiated for a new connection.
+    public void setCodec(int id) {
+        codec = id;
+    }
+
+    public EncodedFrame acquire() {
+        EncodedFrame frame = free.poll();
+        return frame != null ? frame : new EncodedFrame();
+    }
+
+    // Hands back a frame that was acquired but won't be decoded.
+    public void release(EncodedFrame frame) {
+        free.offer(frame);
+    }
+
+    // Queues a frame for decoding, waiting if the decoder is behind.
+    public void submit(EncodedFrame frame) throws InterruptedException {
+        frame.receivedAt = System.nanoTime();
+        queue.put(frame);
+    }
+
+    // Drops frames that are queued but not decoded yet, without reporting them to the listener.
+    public void discardQueued() {
+        EncodedFrame frame;
+        while ((frame = queue.poll()) != null) {
+            free.offer(frame);
+        }
+    }
+
+    // Stops the decode thread; frames still queued are dropped.
+    public void close() {
+        thread.interrupt();
+    }
+
+    // Frame rate, decode time and render counters since the previous call.
+    public synchronized String statistics() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - statsStart) / 1e9);
+        long frames = framesDecoded.sum() - statsFrames;
+        long decode = decodeNanos.sum() - statsDecodeNanos;
+        long waited = queueNanos.sum() - statsQueueNanos;
+        long rendered = canvas.framesRendered() - statsRendered;
+        long dropped = canvas.framesDropped() - statsDropped;
+        statsFrames += frames;
+        statsDecodeNanos += decode;
+        statsQueueNanos += waited;
+        statsRendered += rendered;
+        statsDropped += dropped;
+        statsStart = now;
+        return String.format("%.0f fps decoded, %.0f fps rendered, %d dropped, decode %.1f ms, queued %.1f ms",
+                frames / seconds, rendered / seconds, dropped,
+                frames == 0 ? 0.0 : decode / 1e6 / frames, frames == 0 ? 0.0 : waited / 1e6 / frames);
+    }
+
+    private void decodeLoop() {
+        while (true) {
+            EncodedFrame frame;
+            try {
+                frame = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            queueNanos.add(start - frame.receivedAt);
+            queueTime.record(start - frame.receivedAt);
+            try {
+                decode(frame);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                canvas.abortFrame();
+                listener.frameFailed(frame.seq);
+                free.offer(frame);
+                continue;
+            }
+            long elapsed = System.nanoTime() - start;
+            decodeNanos.add(elapsed);
+            decodeTime.record(elapsed);
+            framesDecoded.increment();
+            listener.frameDecoded(frame.seq, frame.sentAt, (int) TimeUnit.NANOSECONDS.toMicros(elapsed));
+            free.offer(frame);
+        }
+    }
+
+    private void decode(EncodedFrame frame) throws IOException {
+        BufferedImage target = canvas.beginFrame(frame.width, frame.height, frame.keyframe);
+        if (target == null) {
+            return; // Still waiting for a keyframe
+        }
+        int dirtyCount = frame.moveCount + frame.tileCount;
+        if (dirty.length < dirtyCount) {
+            dirty = new Rectangle[dirtyCount];
+            for (int i = 0; i < dirty.length; i++) {
+                dirty[i] = new Rectangle();
+            }
+        }
+        Rectangle[] dirty = this.dirty;
+        int[] pixels = FrameCodec.pixels(target);
+        for (int i = 0; i < frame.moveCount; i++) {
+            int[] m = frame.moves;
+            int at = i * MOVE_FIELDS;
+            MoveDetector.Move.apply(pixels, frame.width, m[at], m[at + 1], m[at + 2], m[at + 3], m[at + 4], m[at + 5]);
+            dirty[frame.tileCount + i].setBounds(m[at], m[at + 1], m[at + 2], m[at + 3]);
+        }
+        workers.forEach(codec, frame.tileCount, (tileCodec, i) -> {
+            int x = frame.xs[i];
+            int y = frame.ys[i];
+            int width = Math.min(TileEncoder.TILE_SIZE, frame.width - x);
+            int height = Math.min(TileEncoder.TILE_SIZE, frame.height - y);
+            tileCodec.decode(frame.data, frame.offsets[i], frame.lengths[i], target, x, y, width, height);
+            dirty[i].setBounds(x, y, width, height);
+        });
+        canvas.publish(dirty, dirtyCount, frame.screenWidth, frame.screenHeight, frame.region);
+    }
+}
@@ -0,0 +1,88 @@
+package rdv;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Where the screen broadcaster gets its frames from. Besides the real screen there are synthetic
+// and replay sources, so the capture, encode and transport path can run on a headless machine with
+// a reproducible workload.
+//
+// Frames never show the pointer: viewers get its position and shape separately and draw it
+// themselves, so pointer motion doesn't change a single tile.
+//
+// Selected with -Drdv.source=<spec>:
+//   robot                      the local screen through java.awt.Robot (default)
+//   synthetic:<profile>[:WxH]  generated frames, profile desktop, text, editor or noise (default 1280x720)
+//   replay:<dir>[:fps]         the images in <dir>, in name order, looped at fps (default 10)
+public interface FrameSource extends AutoCloseable {
+    // Returns the next frame as TYPE_INT_RGB. The image stays unchanged until the next-but-one call,
+    // so a consumer may compare it with the previous frame.
+    BufferedImage capture() throws IOException;
+
+    // Size of the screen that capture() returns.
+    Dimension screenSize();
+
+    // Captures only region of the screen; pixel (0, 0) of the result is region's top-left corner.
+    // Sources that can't capture a region directly copy it out of a full capture.
+    default BufferedImage capture(Rectangle region) throws IOException {
+        BufferedImage screen = capture();
+        if (region.x == 0 && region.y == 0 && region.width == screen.getWidth() && region.height == screen.getHeight()) {
+            return screen;
+        }
+        BufferedImage copy = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(screen, -region.x, -region.y, null);
+        g.dispose();
+        return copy;
+    }
+
+    // Where the pointer is, in screen pixels, or null if it is hidden or the source has none.
+    // Called from the cursor tracker's thread, concurrently with capture().
+    default Point pointerLocation() {
+        return null;
+    }
+
+    // The pointer's current shape; only asked for while pointerLocation() is not null.
+    default CursorShape pointerShape() {
+        return CursorShape.ARROW;
+    }
+
+    // Tells the source a viewer moved the pointer to x, y. The real screen's pointer already moved
+    // through the Robot; generated sources put their pointer there.
+    default void pointerMoved(int x, int y) {
+    }
+
+    @Override
+    default void close() {
+    }
+
+    static FrameSource create(String spec) throws IOException {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "robot":
+                return new RobotFrameSource();
+            case "synthetic":
+                int width = 1280;
+                int height = 720;
+                if (parts.length > 2) {
+                    String[] size = parts[2].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                }
+                return new SyntheticFrameSource(parts.length > 1 ? parts[1] : "desktop", width, height);
+            case "replay":
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("Usage: replay:<dir>[:fps]");
+                }
+                return ReplayFrameSource.load(Paths.get(parts[1]),
+                        parts.length > 2 ? Double.parseDouble(parts[2]) : 10);
+            default:
+                throw new IllegalArgumentException("Unknown frame source: " + spec);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package rdv;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Client-side input coalescing. Mouse motion only keeps the latest pending position; button
+// presses/releases and keys are queued in order with their timestamps. flush() is called at a
+// bounded rate and sends everything pending as a single INPUT_BATCH. A pending move is slotted in
+// ahead of the next discrete event so clicks and drags still land where the pointer was.
+public class InputBatcher {
+    private static final int MAX_BATCH = 0xFFFF;
+    static final Metrics.Counter EVENTS_OBSERVED = Metrics.global().counter("rdv_client_input_events_total",
+            "Input events captured by the client, before coalescing");
+
+    private final MessageWriter writer;
+
+    private int[] types = new int[16];
+    private int[] firstArgs = new int[16];
+    private int[] secondArgs = new int[16];
+    private long[] times = new long[16];
+    private int count;
+
+    private boolean movePending;
+    private int moveX;
+    private int moveY;
+    private long moveTime;
+
+    private final LongAdder eventsObserved = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+
+    public InputBatcher(MessageWriter writer) {
+        this.writer = writer;
+    }
+
+    public synchronized void mouseMoved(int x, int y) {
+        eventsObserved.increment();
+        EVENTS_OBSERVED.increment();
+        movePending = true;
+        moveX = x;
+        moveY = y;
+        moveTime = System.nanoTime();
+    }
+
+    public synchronized void mousePressed(int button) {
+        append(Protocol.INPUT_MOUSE_PRESS, button, 0);
+    }
+
+    public synchronized void mouseReleased(int button) {
+        append(Protocol.INPUT_MOUSE_RELEASE, button, 0);
+    }
+
+    public synchronized void keyPressed(int keyCode) {
+        append(Protocol.INPUT_KEY, keyCode, 0);
+    }
+
+    public long eventsObserved() {
+        return eventsObserved.sum();
+    }
+
+    public long batchesSent() {
+        return batchesSent.sum();
+    }
+
+    public void flush() throws IOException {
+        int[] batchTypes;
+        int[] batchFirst;
+        int[] batchSecond;
+        long[] batchTimes;
+        int batchCount;
+        synchronized (this) {
+            takePendingMove();
+            if (count == 0) {
+                return;
+            }
+            batchTypes = Arrays.copyOf(types, count);
+            batchFirst = Arrays.copyOf(firstArgs, count);
+            batchSecond = Arrays.copyOf(secondArgs, count);
+            batchTimes = Arrays.copyOf(times, count);
+            batchCount = count;
+            count = 0;
+        }
+
+        writer.send(Protocol.INPUT_BATCH, out -> {
+            long now = System.nanoTime();
+            out.writeShort(batchCount);
+            for (int i = 0; i < batchCount; i++) {
+                out.writeByte(batchTypes[i]);
+                out.writeInt((int) Math.min(Integer.MAX_VALUE, (now - batchTimes[i]) / 1000));
+                out.writeInt(batchFirst[i]);
+                if (batchTypes[i] == Protocol.INPUT_MOUSE_MOVE) {
+                    out.writeInt(batchSecond[i]);
+                }
+            }
+        });
+        batchesSent.increment();
+    }
+
+    private void append(int type, int first, int second) {
+        eventsObserved.increment();
+        EVENTS_OBSERVED.increment();
+        takePendingMove();
+        add(type, first, second, System.nanoTime());
+    }
+
+    private void takePendingMove() {
+        if (movePending) {
+            movePending = false;
+            add(Protocol.INPUT_MOUSE_MOVE, moveX, moveY, moveTime);
+        }
+    }
+
+    private void add(int type, int first, int second, long time) {
+        if (count == MAX_BATCH) {
+            return;
+        }
+        if (count == types.length) {
+            int capacity = Math.min(MAX_BATCH, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            firstArgs = Arrays.copyOf(firstArgs, capacity);
+            secondArgs = Arrays.copyOf(secondArgs, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        types[count] = type;
+        firstArgs[count] = first;
+        secondArgs[count] = second;
+        times[count] = time;
+        count++;
+    }
+}
@@ -0,0 +1,143 @@
+package rdv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Compares the old one-message-per-AWT-event input path (with a synchronous log line per event on
+// the server) against coalesced INPUT_BATCH messages replayed by InputReplayer, for a simulated fast
+// mouse sweep with occasional clicks and key presses over a loopback socket. Reports messages per
+// second and input-to-apply latency measured on a single clock. No Robot is used.
+//
+//   java -Djava.awt.headless=true -cp target/classes rdv.InputBenchmark [seconds] [eventsPerSecond]
+public class InputBenchmark {
+    private static final long FLUSH_INTERVAL_MS = 15;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        System.out.printf("%-8s %10s %12s %14s %10s %10s%n",
+                "mode", "events", "messages/s", "applied", "p50 ms", "p99 ms");
+        for (boolean batched : new boolean[]{false, true}) {
+            System.out.println(run(batched, seconds, rate));
+        }
+    }
+
+    private static String run(boolean batched, int seconds, int rate) throws Exception {
+        int total = seconds * rate;
+        long[] eventTimes = new long[total];
+        long[] latencies = new long[total];
+        int[] applied = new int[1];
+        int[] messages = new int[1];
+
+        File logFile = File.createTempFile("input-benchmark", ".log");
+        logFile.deleteOnExit();
+        PrintWriter logWriter = new PrintWriter(new FileWriter(logFile), true);
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread receiver = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    MessageReader reader = new MessageReader(new BufferedInputStream(socket.getInputStream()));
+                    InputReplayer replayer = new InputReplayer(null, msg -> logWriter.println(new Date() + ": " + msg), "benchmark") {
+                        @Override
+                        protected void apply(int type, int first, int second) {
+                            super.apply(type, first, second);
+                            latencies[applied[0]++] = System.nanoTime() - eventTimes[first];
+                        }
+                    };
+                    while (true) {
+                        byte opcode = reader.next();
+                        messages[0]++;
+                        switch (opcode) {
+                            case Protocol.INPUT_BATCH:
+                                replayer.replay(reader.payload());
+                                break;
+                            case Protocol.MOUSE_MOVE:
+                            case Protocol.MOUSE_CLICK:
+                            case Protocol.KEY_PRESS:
+                                int index = reader.payload().readInt();
+                                logWriter.println(new Date() + ": Input " + opcode + " at " + index + " by benchmark");
+                                latencies[applied[0]++] = System.nanoTime() - eventTimes[index];
+                                break;
+                            case Protocol.DISCONNECT:
+                                return;
+                            default:
+                                break;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Sender closed
+                }
+            });
+            receiver.start();
+
+            long start;
+            try (Socket socket = new Socket("localhost", serverSocket.getLocalPort())) {
+                socket.setTcpNoDelay(true);
+                MessageWriter writer = new MessageWriter(new BufferedOutputStream(socket.getOutputStream()));
+                InputBatcher batcher = new InputBatcher(writer);
+                ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+                if (batched) {
+                    flusher.scheduleAtFixedRate(() -> {
+                        try {
+                            batcher.flush();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+
+                start = System.nanoTime();
+                long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                for (int i = 0; i < total; i++) {
+                    while (System.nanoTime() - start < i * intervalNanos) {
+                        Thread.yield();
+                    }
+                    eventTimes[i] = System.nanoTime();
+                    if (i % 200 == 199) {
+                        if (batched) {
+                            batcher.mousePressed(i);
+                        } else {
+                            writer.send(Protocol.MOUSE_CLICK, i);
+                        }
+                    } else if (i % 500 == 499) {
+                        if (batched) {
+                            batcher.keyPressed(i);
+                        } else {
+                            writer.send(Protocol.KEY_PRESS, i);
+                        }
+                    } else if (batched) {
+                        batcher.mouseMoved(i, 0);
+                    } else {
+                        writer.send(Protocol.MOUSE_MOVE, i, 0);
+                    }
+                }
+
+                flusher.shutdown();
+                flusher.awaitTermination(1, TimeUnit.SECONDS);
+                batcher.flush();
+                writer.send(Protocol.DISCONNECT);
+                receiver.join();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies, 0, applied[0]);
+            return String.format("%-8s %10d %12.0f %14d %10.2f %10.2f", batched ? "batched" : "legacy",
+                    total, messages[0] / elapsed, applied[0],
+                    latencies[applied[0] / 2] / 1e6, latencies[Math.min(applied[0] - 1, applied[0] * 99 / 100)] / 1e6);
+        } finally {
+            logWriter.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package rdv;
+
+import java.awt.Robot;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Server-side replay of INPUT_BATCH messages. A batch is applied in one go; discrete events are
+// still logged one by one, but mouse motion is only summarised in a once-per-second line together
+// with message rate and input-to-apply latency (the event's age when the client flushed it plus the
+// time from receiving the batch to applying the event; network transit is not included).
+public class InputReplayer {
+    private static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final Metrics.Counter EVENTS_APPLIED = Metrics.global().counter("rdv_input_events_total",
+            "Input events applied on the server");
+    private static final Metrics.Histogram APPLY_LATENCY = Metrics.global().histogram(
+            "rdv_input_apply_latency_seconds", "Age of an input event when it is applied, excluding network transit",
+            Metrics.LATENCY_SECONDS, 1e-6);
+
+    private final Robot robot;
+    private final Consumer<String> log;
+    private final String peer;
+
+    private long windowStart = System.nanoTime();
+    private int batches;
+    private int events;
+    private int moves;
+    private long latencyMicros;
+    private long maxLatencyMicros;
+
+    public InputReplayer(Robot robot, Consumer<String> log, String peer) {
+        this.robot = robot;
+        this.log = log;
+        this.peer = peer;
+    }
+
+    public synchronized void replay(DataInputStream payload) throws IOException {
+        long received = System.nanoTime();
+        int count = payload.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int type = payload.readUnsignedByte();
+            int ageMicros = payload.readInt();
+            int first = payload.readInt();
+            int second = type == Protocol.INPUT_MOUSE_MOVE ? payload.readInt() : 0;
+
+            apply(type, first, second);
+
+            long latency = ageMicros + (System.nanoTime() - received) / 1000;
+            latencyMicros += latency;
+            maxLatencyMicros = Math.max(maxLatencyMicros, latency);
+            APPLY_LATENCY.record(latency);
+            events++;
+            if (type == Protocol.INPUT_MOUSE_MOVE) {
+                moves++;
+            }
+        }
+        EVENTS_APPLIED.add(count);
+        batches++;
+        summarize();
+    }
+
+    protected void apply(int type, int first, int second) {
+        switch (type) {
+            case Protocol.INPUT_MOUSE_MOVE:
+                if (robot != null) robot.mouseMove(first, second);
+                break;
+            case Protocol.INPUT_MOUSE_PRESS:
+                if (robot != null) robot.mousePress(InputEvent.getMaskForButton(first));
+                log.accept("Mouse press (Button " + first + ") by " + peer);
+                break;
+            case Protocol.INPUT_MOUSE_RELEASE:
+                if (robot != null) robot.mouseRelease(InputEvent.getMaskForButton(first));
+                log.accept("Mouse release (Button " + first + ") by " + peer);
+                break;
+            case Protocol.INPUT_KEY:
+                if (robot != null) {
+                    robot.keyPress(first);
+                    robot.keyRelease(first);
+                }
+                log.accept("Key press: " + KeyEvent.getKeyText(first) + " by " + peer);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void summarize() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < SUMMARY_INTERVAL_NANOS) {
+            return;
+        }
+        if (moves > 0) {
+            double seconds = elapsed / 1e9;
+            log.accept(String.format("Input from %s: %.0f msgs/s, %.0f events/s (%d moves), "
+                            + "input-to-apply %.1f ms avg / %.1f ms max",
+                    peer, batches / seconds, events / seconds, moves,
+                    latencyMicros / 1000.0 / events, maxLatencyMicros / 1000.0));
+        }
+        windowStart = now;
+        batches = 0;
+        events = 0;
+        moves = 0;
+        latencyMicros = 0;
+        maxLatencyMicros = 0;
+    }
+}
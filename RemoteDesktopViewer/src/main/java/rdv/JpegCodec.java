@@ -0,0 +1,84 @@
+package rdv;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// Lossy baseline JPEG through a reused ImageIO writer and reader. Decoding writes straight into the
+// target image at the tile's position rather than allocating an image per tile. The writer and reader
+// keep native codec state until close() disposes them.
+public class JpegCodec implements FrameCodec {
+    private ImageWriter writer;
+    private ImageWriteParam writeParam;
+    private ImageReader reader;
+    private ImageReadParam readParam;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final Point offset = new Point();
+    private float quality = -1;
+
+    @Override
+    public int id() {
+        return Protocol.CODEC_JPEG;
+    }
+
+    @Override
+    public String name() {
+        return "jpeg";
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image, int x, int y, int width, int height, float quality) throws IOException {
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            writeParam = writer.getDefaultWriteParam();
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        }
+        if (quality != this.quality) {
+            writeParam.setCompressionQuality(quality);
+            this.quality = quality;
+        }
+        buffer.reset();
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image.getSubimage(x, y, width, height), null, null), writeParam);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BufferedImage target, int x, int y, int width, int height)
+            throws IOException {
+        if (reader == null) {
+            reader = ImageIO.getImageReadersByFormatName("jpg").next();
+            readParam = reader.getDefaultReadParam();
+        }
+        reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(data, offset, length)), true, true);
+        this.offset.setLocation(x, y);
+        readParam.setDestination(target);
+        readParam.setDestinationOffset(this.offset);
+        reader.read(0, readParam);
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.dispose();
+            writer = null;
+        }
+        if (reader != null) {
+            reader.dispose();
+            reader = null;
+        }
+    }
+}
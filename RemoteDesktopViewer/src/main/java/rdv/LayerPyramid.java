@@ -0,0 +1,82 @@
+package rdv;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+// The resolution layers of one capture: layer 0 is the capture itself and each further layer halves
+// the one above it with a 2x2 box filter, rounding odd sizes up. Layers are built once per capture
+// and shared by every view encoded from them, instead of each view scaling the full capture itself.
+//
+// Layers are drawn into two alternating sets of buffers, so a layer stays unchanged until the
+// next-but-one build and an encoder may compare it with the previous one, as with a FrameSource.
+public class LayerPyramid {
+    private final BufferedImage[][] buffers = new BufferedImage[2][StreamView.LAYERS];
+    private int current;
+
+    // Returns the capture and the layers below it down to depth. The capture may be of any type;
+    // the layers built from it are TYPE_INT_RGB.
+    public BufferedImage[] build(BufferedImage capture, int depth) {
+        BufferedImage[] layers = new BufferedImage[depth + 1];
+        layers[0] = capture;
+        if (depth == 0) {
+            return layers;
+        }
+        current ^= 1;
+        BufferedImage[] set = buffers[current];
+        BufferedImage source = capture;
+        if (capture.getType() != BufferedImage.TYPE_INT_RGB) {
+            source = buffer(set, 0, capture.getWidth(), capture.getHeight());
+            Graphics2D g = source.createGraphics();
+            g.drawImage(capture, 0, 0, null);
+            g.dispose();
+        }
+        for (int layer = 1; layer <= depth; layer++) {
+            BufferedImage target = buffer(set, layer, (source.getWidth() + 1) / 2, (source.getHeight() + 1) / 2);
+            halve(FrameCodec.pixels(source), source.getWidth(), source.getHeight(), FrameCodec.pixels(target));
+            layers[layer] = target;
+            source = target;
+        }
+        return layers;
+    }
+
+    // Pixel size of a length at the given layer.
+    public static int size(int length, int layer) {
+        for (int i = 0; i < layer; i++) {
+            length = (length + 1) / 2;
+        }
+        return length;
+    }
+
+    private static BufferedImage buffer(BufferedImage[] set, int index, int width, int height) {
+        BufferedImage image = set[index];
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            set[index] = image;
+        }
+        return image;
+    }
+
+    // Averages each 2x2 block of from into one pixel of to, per channel and rounded. A block past the
+    // right or bottom edge repeats the edge pixels.
+    private static void halve(int[] from, int width, int height, int[] to) {
+        int halfWidth = (width + 1) / 2;
+        int halfHeight = (height + 1) / 2;
+        for (int y = 0; y < halfHeight; y++) {
+            int top = 2 * y * width;
+            int bottom = Math.min(2 * y + 1, height - 1) * width;
+            int out = y * halfWidth;
+            for (int x = 0; x < halfWidth; x++) {
+                int left = 2 * x;
+                int right = Math.min(left + 1, width - 1);
+                int a = from[top + left];
+                int b = from[top + right];
+                int c = from[bottom + left];
+                int d = from[bottom + right];
+                // Red and blue, and green, are summed in separate words; four 8-bit values fit in 10 bits.
+                int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF) + 0x020002;
+                int green = (a & 0x00FF00) + (b & 0x00FF00) + (c & 0x00FF00) + (d & 0x00FF00) + 0x000200;
+                to[out + x] = (redBlue >>> 2 & 0xFF00FF) | (green >>> 2 & 0x00FF00);
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package rdv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Opens hundreds of simulated clients against an in-process server, once per engine, and reports
+// the server's thread count, heap use and PING round-trip latency. All simulated clients are driven
+// from a single selector thread so they don't skew the thread count.
+//
+// Given a frame source (see FrameSource, e.g. synthetic:text), every client also streams the screen,
+// acknowledging each frame as soon as it arrives, and the received frame rate and bandwidth are
+// reported too. The codec follows -Drdv.codecs. Given a zoom as well, the clients report the whole
+// screen at that zoom with VIEWPORT, like a wall of thumbnail viewers.
+//
+// With every PING the server also broadcasts a chat line carrying the time it was sent, and the chat
+// latency is reported beside the PING round trip, so the control and chat classes can be watched while
+// frames compete for the same sockets. Given a link rate in bytes per second as well, every client reads
+// at most that fast through a small receive buffer, like a viewer whose slow link the stream saturates.
+//
+//   java -Djava.awt.headless=true -cp target/classes rdv.LoadTest [clients] [seconds] [port] [source] [zoom]
+//        [bytesPerSecond]
+public class LoadTest {
+    private static final long PING_INTERVAL_MS = 100;
+    private static final long REFILL_INTERVAL_MS = 5;
+    // The most a throttled client may read at once after idling, as seconds of its link rate
+    private static final double BURST_SECONDS = 0.01;
+    private static final int THROTTLED_RECEIVE_BUFFER = 64 * 1024;
+    private static final String PASSWORD = "admin123";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5099;
+        boolean streaming = args.length > 3;
+        if (streaming) {
+            System.setProperty("rdv.source", args[3]);
+        }
+        double zoom = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+        double bytesPerSecond = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+        List<String> results = new ArrayList<>();
+        for (String engine : new String[]{"blocking", "nio"}) {
+            results.add(run(engine, clients, seconds, port, streaming, zoom, bytesPerSecond));
+        }
+
+        System.out.printf("%-9s %8s %15s %10s %8s %9s %9s %9s %12s %12s %10s %8s%n", "engine", "clients",
+                "server threads", "heap MB", "pings", "p50 ms", "p99 ms", "max ms", "chat p50 ms", "chat p99 ms",
+                "frames/s", "MB/s");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private static String run(String engineName, int clientCount, int seconds, int port, boolean streaming,
+                              double zoom, double bytesPerSecond) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        try {
+            int baselineThreads = awaitQuiescentThreads(threads);
+            System.gc();
+            long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+
+            ServerEngine engine = RemoteDesktopServer.createEngine(engineName, port);
+            Thread serverThread = new Thread(() -> {
+                try {
+                    engine.serve();
+                } catch (IOException e) {
+                    console.println(engineName + " engine stopped: " + e.getMessage());
+                }
+            }, "load-test-server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            Selector selector = Selector.open();
+            List<SimulatedClient> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                SimulatedClient client = new SimulatedClient(connect(port, bytesPerSecond > 0), streaming, zoom,
+                        bytesPerSecond);
+                client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+                client.sendAuth();
+                clients.add(client);
+            }
+
+            int capacity = clientCount * (int) (seconds * 1000 / PING_INTERVAL_MS + 1);
+            Samples pings = new Samples(capacity);
+            Samples chats = new Samples(capacity);
+            int peakThreads = 0;
+            long peakHeap = 0;
+            long end = System.currentTimeMillis() + seconds * 1000L;
+            long nextPing = 0;
+            long nextRefill = 0;
+            long nextSample = System.currentTimeMillis() + 1000;
+            long started = System.nanoTime();
+            while (System.currentTimeMillis() < end) {
+                long now = System.currentTimeMillis();
+                if (now >= nextPing) {
+                    for (SimulatedClient client : clients) {
+                        if (client.authenticated) {
+                            client.sendPing();
+                        }
+                    }
+                    // The server runs in this process, so the clients can compare its clock with theirs.
+                    RemoteDesktopServer.broadcastChat(Long.toString(System.nanoTime()));
+                    nextPing = now + PING_INTERVAL_MS;
+                }
+                if (bytesPerSecond > 0 && now >= nextRefill) {
+                    for (SimulatedClient client : clients) {
+                        client.refill();
+                    }
+                    nextRefill = now + REFILL_INTERVAL_MS;
+                }
+                if (now >= nextSample) {
+                    peakThreads = Math.max(peakThreads, threads.getThreadCount() - baselineThreads);
+                    peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed() - baselineHeap);
+                    nextSample = now + 1000;
+                }
+                long wake = bytesPerSecond > 0 ? Math.min(nextPing, nextRefill) : nextPing;
+                selector.select(Math.max(1, wake - System.currentTimeMillis()));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((SimulatedClient) key.attachment()).read(pings, chats);
+                }
+                selector.selectedKeys().clear();
+            }
+
+            double elapsed = (System.nanoTime() - started) / 1e9;
+            long frames = 0;
+            long bytes = 0;
+            for (SimulatedClient client : clients) {
+                frames += client.frames;
+                bytes += client.frameBytes;
+                client.close();
+            }
+            selector.close();
+            engine.close();
+            serverThread.join(5000);
+
+            pings.sort();
+            chats.sort();
+            return String.format("%-9s %8d %15d %10.1f %8d %9.2f %9.2f %9.2f %12.2f %12.2f %10.1f %8.2f",
+                    engineName, clientCount, peakThreads, peakHeap / (1024.0 * 1024.0), pings.count,
+                    pings.percentile(0.50), pings.percentile(0.99), pings.percentile(1.0),
+                    chats.percentile(0.50), chats.percentile(0.99), frames / elapsed, bytes / elapsed / (1024 * 1024));
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Waits for threads left over from a previous run to exit so they don't count against this one.
+    private static int awaitQuiescentThreads(ThreadMXBean threads) throws InterruptedException {
+        int previous = -1;
+        for (int i = 0; i < 50; i++) {
+            int current = threads.getThreadCount();
+            if (current == previous) {
+                return current;
+            }
+            previous = current;
+            Thread.sleep(200);
+        }
+        return previous;
+    }
+
+    private static SocketChannel connect(int port, boolean throttled) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                if (throttled) {
+                    // Set before connecting so the window stays small: what the client hasn't read yet should
+                    // back up in the server's queues, as behind a slow link, not in a large loopback buffer.
+                    channel.socket().setReceiveBufferSize(THROTTLED_RECEIVE_BUFFER);
+                }
+                channel.connect(new InetSocketAddress("localhost", port));
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    // Latencies in nanoseconds, as many as fit; reported in milliseconds.
+    private static class Samples {
+        private final long[] values;
+        private int count;
+
+        Samples(int capacity) {
+            values = new long[capacity];
+        }
+
+        void add(long latency) {
+            if (count < values.length) {
+                values[count++] = latency;
+            }
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, count);
+        }
+
+        double percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            return values[Math.min(count - 1, (int) (count * p))] / 1e6;
+        }
+    }
+
+    private static class SimulatedClient {
+        private final SocketChannel channel;
+        private final boolean streaming;
+        private final double zoom;
+        // 0 when unthrottled
+        private final double bytesPerSecond;
+        private SelectionKey key;
+        // Bytes the client may read before the next refill
+        private double allowance;
+        private long lastRefill = System.nanoTime();
+        private ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+        private final ByteBuffer out = ByteBuffer.allocate(256);
+        private boolean authenticated;
+        private long frames;
+        private long frameBytes;
+        // seq and sentAt of a frame arriving in fragments, or -1 between frames
+        private long fragmentedSeq = -1;
+        private long fragmentedSentAt;
+
+        SimulatedClient(SocketChannel channel, boolean streaming, double zoom, double bytesPerSecond) {
+            this.channel = channel;
+            this.streaming = streaming;
+            this.zoom = zoom;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        // Credits what the link carried since the last refill and resumes reading if that is at least a byte.
+        void refill() {
+            long now = System.nanoTime();
+            allowance = Math.min(allowance + bytesPerSecond * (now - lastRefill) / 1e9,
+                    bytesPerSecond * BURST_SECONDS);
+            lastRefill = now;
+            if (allowance >= 1 && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void sendAuth() throws IOException {
+            byte[] password = PASSWORD.getBytes(StandardCharsets.UTF_8);
+            out.clear();
+            int[] codecs = FrameCodec.configured();
+            out.put(Protocol.AUTH).putInt(1 + 2 + password.length + 1 + codecs.length);
+            out.put((byte) Protocol.VERSION).putShort((short) password.length).put(password);
+            out.put((byte) codecs.length);
+            for (int codec : codecs) {
+                out.put((byte) codec);
+            }
+            flush();
+        }
+
+        void sendPing() throws IOException {
+            out.clear();
+            out.put(Protocol.PING).putInt(8).putLong(System.nanoTime());
+            flush();
+        }
+
+        private void send(byte opcode) {
+            out.clear();
+            out.put(opcode).putInt(0);
+            try {
+                flush();
+            } catch (IOException e) {
+                // Noticed on the next read
+            }
+        }
+
+        // Reports the whole screen as visible at zoom; the server clips the region to its screen.
+        private void sendViewport() {
+            out.clear();
+            out.put(Protocol.VIEWPORT).putInt(20).putInt(0).putInt(0).putInt(1 << 20).putInt(1 << 20)
+                    .putFloat((float) zoom);
+            try {
+                flush();
+            } catch (IOException e) {
+                // Noticed on the next read
+            }
+        }
+
+        private void acknowledge(long seq, long sentAt) {
+            out.clear();
+            out.put(Protocol.FRAME_ACK).putInt(20).putLong(seq).putLong(sentAt).putInt(0);
+            try {
+                flush();
+            } catch (IOException e) {
+                // Noticed on the next read
+            }
+        }
+
+        void close() throws IOException {
+            out.clear();
+            out.put(Protocol.DISCONNECT).putInt(0);
+            try {
+                flush();
+            } catch (IOException e) {
+                // Server already gone
+            }
+            channel.close();
+        }
+
+        // Adds the round-trip latencies of any PONGs, and the delivery latencies of any timestamped chat
+        // lines from the server, that arrived.
+        void read(Samples pings, Samples chats) {
+            int read;
+            try {
+                if (bytesPerSecond > 0) {
+                    in.limit(Math.min(in.capacity(), in.position() + (int) allowance));
+                }
+                read = channel.read(in);
+                in.limit(in.capacity());
+                if (read < 0) {
+                    channel.close();
+                    return;
+                }
+            } catch (IOException e) {
+                return;
+            }
+            if (bytesPerSecond > 0) {
+                allowance -= read;
+                if (allowance < 1) {
+                    key.interestOps(0);
+                }
+            }
+            in.flip();
+            while (in.remaining() >= 5) {
+                int start = in.position();
+                byte opcode = in.get();
+                int length = in.getInt();
+                if (in.remaining() < length) {
+                    in.position(start);
+                    if (5 + length > in.capacity()) {
+                        // Frames can be far bigger than the initial buffer.
+                        ByteBuffer grown = ByteBuffer.allocate(5 + length);
+                        grown.put(in);
+                        in = grown;
+                        return;
+                    }
+                    break;
+                }
+                if (opcode == Protocol.AUTH_SUCCESS) {
+                    authenticated = true;
+                    if (streaming && zoom != 1.0) {
+                        sendViewport();
+                    }
+                    if (streaming) {
+                        send(Protocol.START_SCREEN_STREAM);
+                    }
+                } else if (opcode == Protocol.PONG) {
+                    pings.add(System.nanoTime() - in.getLong(in.position()));
+                } else if (opcode == Protocol.CHAT_MESSAGE) {
+                    String line = new String(in.array(), in.position() + 2, length - 2, StandardCharsets.UTF_8);
+                    if (line.startsWith("Server: ")) {
+                        chats.add(System.nanoTime() - Long.parseLong(line.substring("Server: ".length())));
+                    }
+                } else if (opcode == Protocol.SCREEN_TILES) {
+                    frames++;
+                    frameBytes += 5 + length;
+                    acknowledge(in.getLong(in.position()), in.getLong(in.position() + 8));
+                } else if (opcode == Protocol.FRAGMENT && in.get(in.position() + 1) == Protocol.SCREEN_TILES) {
+                    if (fragmentedSeq < 0) {
+                        fragmentedSeq = in.getLong(in.position() + 3);
+                        fragmentedSentAt = in.getLong(in.position() + 11);
+                    }
+                    frameBytes += 5 + length;
+                    if (in.get(in.position() + 2) != 0) {
+                        frames++;
+                        acknowledge(fragmentedSeq, fragmentedSentAt);
+                        fragmentedSeq = -1;
+                    }
+                }
+                in.position(in.position() + length);
+            }
+            in.compact();
+        }
+
+        private void flush() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+}
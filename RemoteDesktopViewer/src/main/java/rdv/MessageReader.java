@@ -0,0 +1,113 @@
+package rdv;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Reads framed protocol messages. next() blocks for the following message and returns its opcode;
+// the payload is then available through payload(), backed by a buffer reused between messages.
+// FRAGMENT messages are joined up here, so callers only ever see whole messages.
+//
+// A server's reader starts out unauthenticated: it only takes messages up to
+// Protocol.MAX_AUTH_PAYLOAD, and no FRAGMENTs, until authenticated() is called. Payloads are read
+// into a buffer that grows as their bytes arrive, so a length prefix alone never makes the reader
+// allocate.
+public class MessageReader implements Closeable {
+    private static final int RETAINED_CAPACITY = 1 << 20;
+
+    private final DataInputStream in;
+    private final PayloadInput buffer = new PayloadInput();
+    private final DataInputStream payload = new DataInputStream(buffer);
+    private final FragmentAssembler fragments = new FragmentAssembler();
+    private byte[] data = new byte[256];
+    private int length;
+    private volatile boolean authenticated;
+
+    // A reader of messages from a trusted peer, e.g. a client reading the server it authenticated to.
+    public MessageReader(InputStream in) {
+        this(in, true);
+    }
+
+    public MessageReader(InputStream in, boolean authenticated) {
+        this.in = new DataInputStream(in);
+        this.authenticated = authenticated;
+    }
+
+    // Lifts the limit on the size of messages from now on.
+    public void authenticated() {
+        authenticated = true;
+    }
+
+    public byte next() throws IOException {
+        byte opcode = read();
+        while (opcode == Protocol.FRAGMENT) {
+            if (!authenticated) {
+                throw new IOException("Fragment before authentication");
+            }
+            if (fragments.add(buffer.bytes(), length)) {
+                length = fragments.length();
+                buffer.reset(fragments.payload(), length);
+                return fragments.opcode();
+            }
+            opcode = read();
+        }
+        return opcode;
+    }
+
+    private byte read() throws IOException {
+        byte opcode = in.readByte();
+        length = in.readInt();
+        int limit = authenticated ? Protocol.MAX_PAYLOAD : Protocol.MAX_AUTH_PAYLOAD;
+        if (length < 0 || length > limit) {
+            throw new IOException("Invalid payload length " + length + " for opcode " + opcode);
+        }
+        byte[] target = data;
+        int received = 0;
+        while (received < length) {
+            if (received == target.length) {
+                target = Arrays.copyOf(target, Math.min(length, target.length * 2));
+            }
+            int count = Math.min(length, target.length) - received;
+            in.readFully(target, received, count);
+            received += count;
+        }
+        if (target.length <= RETAINED_CAPACITY) {
+            data = target;
+        }
+        buffer.reset(target, length);
+        return opcode;
+    }
+
+    public DataInputStream payload() {
+        return payload;
+    }
+
+    public int payloadLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static class PayloadInput extends ByteArrayInputStream {
+        PayloadInput() {
+            super(new byte[0]);
+        }
+
+        void reset(byte[] bytes, int length) {
+            buf = bytes;
+            pos = 0;
+            mark = 0;
+            count = length;
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
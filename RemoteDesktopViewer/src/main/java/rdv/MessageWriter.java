@@ -0,0 +1,165 @@
+package rdv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Writes framed protocol messages. Payloads are assembled in a reused buffer so the length prefix
+// can be written up front. A writer over an OutputStream writes and flushes every message on the
+// caller's thread; a writer over an OutboundQueue only serializes the message and queues it, and
+// the connection's single writer puts it on the wire in priority order.
+public class MessageWriter implements Closeable {
+    private static final byte[] EMPTY = new byte[0];
+
+    public interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    private final DataOutputStream out;
+    private final OutboundQueue queue;
+    private final PayloadBuffer buffer = new PayloadBuffer();
+    private final DataOutputStream payload = new DataOutputStream(buffer);
+
+    public MessageWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+        this.queue = null;
+    }
+
+    public MessageWriter(OutboundQueue queue) {
+        this.out = null;
+        this.queue = queue;
+    }
+
+    public void send(byte opcode) throws IOException {
+        if (queue != null) {
+            queue.add(opcode, EMPTY);
+            return;
+        }
+        synchronized (this) {
+            out.writeByte(opcode);
+            out.writeInt(0);
+            out.flush();
+        }
+    }
+
+    public void send(byte opcode, int value) throws IOException {
+        if (queue != null) {
+            queue.add(opcode, ByteBuffer.allocate(4).putInt(value).array());
+            return;
+        }
+        synchronized (this) {
+            out.writeByte(opcode);
+            out.writeInt(4);
+            out.writeInt(value);
+            out.flush();
+        }
+    }
+
+    public void send(byte opcode, int first, int second) throws IOException {
+        if (queue != null) {
+            queue.add(opcode, ByteBuffer.allocate(8).putInt(first).putInt(second).array());
+            return;
+        }
+        synchronized (this) {
+            out.writeByte(opcode);
+            out.writeInt(8);
+            out.writeInt(first);
+            out.writeInt(second);
+            out.flush();
+        }
+    }
+
+    public void send(byte opcode, String text) throws IOException {
+        send(opcode, p -> p.writeUTF(text));
+    }
+
+    public void send(byte opcode, Payload body) throws IOException {
+        if (queue != null) {
+            byte[] data;
+            synchronized (this) {
+                buffer.reset();
+                body.writeTo(payload);
+                payload.flush();
+                data = buffer.toByteArray();
+                buffer.trim();
+            }
+            // Outside the lock: a full frame queue must not hold up a chat line or an acknowledgement.
+            queue.add(opcode, data);
+            return;
+        }
+        synchronized (this) {
+            buffer.reset();
+            body.writeTo(payload);
+            payload.flush();
+            out.writeByte(opcode);
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            out.flush();
+            buffer.trim();
+        }
+    }
+
+    // Whether send() would have to wait for the queue to make room for a message with opcode. A writer
+    // over an OutputStream never reports this; it blocks on the socket instead.
+    public boolean isFull(byte opcode) {
+        return queue != null && queue.isFull(opcode);
+    }
+
+    public boolean trySend(byte opcode) throws IOException {
+        return trySend(opcode, p -> { });
+    }
+
+    public boolean trySend(byte opcode, String text) throws IOException {
+        return trySend(opcode, p -> p.writeUTF(text));
+    }
+
+    // Like send(), but a queued writer gives up instead of waiting when the message's class is full.
+    // Returns whether the message was sent.
+    public boolean trySend(byte opcode, Payload body) throws IOException {
+        if (queue == null) {
+            send(opcode, body);
+            return true;
+        }
+        if (queue.isFull(opcode)) {
+            return false;
+        }
+        byte[] data;
+        synchronized (this) {
+            buffer.reset();
+            body.writeTo(payload);
+            payload.flush();
+            data = buffer.toByteArray();
+            buffer.trim();
+        }
+        return queue.offer(opcode, data);
+    }
+
+    // For a queued writer, stops accepting messages and gives the writer a moment to send what is
+    // already queued.
+    @Override
+    public void close() throws IOException {
+        if (queue != null) {
+            queue.closeAndDrain();
+        } else {
+            out.close();
+        }
+    }
+
+    private static class PayloadBuffer extends ByteArrayOutputStream {
+        private static final int RETAINED_CAPACITY = 1 << 20;
+
+        PayloadBuffer() {
+            super(256);
+        }
+
+        // Don't keep a huge backing array around after a one-off large message (e.g. a file).
+        void trim() {
+            if (buf.length > RETAINED_CAPACITY) {
+                buf = new byte[256];
+            }
+        }
+    }
+}
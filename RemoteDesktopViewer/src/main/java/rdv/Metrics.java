@@ -0,0 +1,389 @@
+package rdv;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// Process-wide counters, gauges and histograms. Recording is a LongAdder increment (plus a binary
+// search over the bucket bounds for histograms), so hot paths never take a lock; instruments are
+// looked up once and kept in fields. Values are read by MetricsServer in the Prometheus text format,
+// over JMX once registerMBean() is called, and by the client's statistics overlay.
+//
+// Histograms record raw longs (nanoseconds, bytes) and are exposed in the base unit given by their
+// scale, so timings show up in seconds as Prometheus expects. Instruments may carry one label, e.g.
+// client="10.0.0.5-3"; remove() drops the labelled series of a client that has gone away.
+public final class Metrics {
+    public static final double NANOS = 1e-9;
+    public static final double[] LATENCY_SECONDS =
+            {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5};
+    public static final double[] SIZE_BYTES =
+            {1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216};
+
+    private static final Metrics global = new Metrics();
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static Metrics global() {
+        return global;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public Counter counter(String name, String help, String label, String value) {
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(key(label, value), k -> new Counter());
+    }
+
+    // A counter kept elsewhere, read when the metrics are collected.
+    public void counter(String name, String help, LongSupplier supplier) {
+        family(name, help, "counter").series.put("", new Gauge(supplier::getAsLong));
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds, double scale) {
+        return histogram(name, help, bounds, scale, null, null);
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds, double scale, String label, String value) {
+        return (Histogram) family(name, help, "histogram").series.computeIfAbsent(key(label, value),
+                k -> new Histogram(bounds, scale));
+    }
+
+    // A value read when the metrics are collected; replaces any earlier gauge of the same series.
+    public void gauge(String name, String help, DoubleSupplier supplier) {
+        gauge(name, help, null, null, supplier);
+    }
+
+    public void gauge(String name, String help, String label, String value, DoubleSupplier supplier) {
+        family(name, help, "gauge").series.put(key(label, value), new Gauge(supplier));
+    }
+
+    // Drops every series carrying this label value, in all families.
+    public void remove(String label, String value) {
+        String key = key(label, value);
+        for (Family family : families.values()) {
+            family.series.remove(key);
+        }
+    }
+
+    public void writePrometheus(Appendable out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Instrument> series : family.series.entrySet()) {
+                series.getValue().writePrometheus(out, name, series.getKey());
+            }
+        }
+    }
+
+    // Registers every current and future metric as a read-only attribute of one MBean.
+    public void registerMBean(String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + objectName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, n -> new Family(help, type));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static String key(String label, String value) {
+        if (label == null) {
+            return "";
+        }
+        return label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.toString(value);
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static class Family {
+        final String help;
+        final String type;
+        final Map<String, Instrument> series = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Instrument {
+        void writePrometheus(Appendable out, String name, String labels) throws IOException;
+
+        // Adds the JMX attributes of this series, named after prefix.
+        void collect(String prefix, Map<String, Object> into);
+    }
+
+    public static final class Counter implements Instrument {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+
+        @Override
+        public void writePrometheus(Appendable out, String name, String labels) throws IOException {
+            out.append(name).append(labels.isEmpty() ? "" : "{" + labels + "}")
+                    .append(' ').append(Long.toString(value.sum())).append('\n');
+        }
+
+        @Override
+        public void collect(String prefix, Map<String, Object> into) {
+            into.put(prefix, value.sum());
+        }
+    }
+
+    private static final class Gauge implements Instrument {
+        private final DoubleSupplier supplier;
+
+        Gauge(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void writePrometheus(Appendable out, String name, String labels) throws IOException {
+            out.append(name).append(labels.isEmpty() ? "" : "{" + labels + "}")
+                    .append(' ').append(format(supplier.getAsDouble())).append('\n');
+        }
+
+        @Override
+        public void collect(String prefix, Map<String, Object> into) {
+            into.put(prefix, supplier.getAsDouble());
+        }
+    }
+
+    public static final class Histogram implements Instrument {
+        private final double[] bounds;
+        private final long[] rawBounds;
+        private final double scale;
+        private final LongAdder[] buckets;
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(double[] bounds, double scale) {
+            this.bounds = bounds.clone();
+            this.scale = scale;
+            rawBounds = new long[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                rawBounds[i] = Math.round(bounds[i] / scale);
+            }
+            buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Records one raw value, e.g. a duration in nanoseconds for a histogram with scale NANOS.
+        public void record(long value) {
+            int index = Arrays.binarySearch(rawBounds, value);
+            buckets[index >= 0 ? index : -index - 1].increment();
+            sum.add(value);
+        }
+
+        public Snapshot snapshot() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return new Snapshot(bounds, counts, sum.sum() * scale);
+        }
+
+        @Override
+        public void writePrometheus(Appendable out, String name, String labels) throws IOException {
+            Snapshot snapshot = snapshot();
+            String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < snapshot.counts.length; i++) {
+                cumulative += snapshot.counts[i];
+                String le = i < bounds.length ? format(bounds[i]) : "+Inf";
+                out.append(name).append("_bucket").append(prefix).append("le=\"").append(le).append("\"} ")
+                        .append(Long.toString(cumulative)).append('\n');
+            }
+            String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(suffix).append(' ').append(format(snapshot.sum)).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(Long.toString(cumulative)).append('\n');
+        }
+
+        @Override
+        public void collect(String prefix, Map<String, Object> into) {
+            Snapshot snapshot = snapshot();
+            into.put(prefix + "_count", snapshot.count());
+            into.put(prefix + "_sum", snapshot.sum);
+            into.put(prefix + "_p50", snapshot.quantile(0.5));
+            into.put(prefix + "_p99", snapshot.quantile(0.99));
+        }
+    }
+
+    // Bucket counts at one point in time; the difference of two snapshots covers the time between them.
+    public static final class Snapshot {
+        private final double[] bounds;
+        private final long[] counts;
+        private final double sum;
+
+        Snapshot(double[] bounds, long[] counts, double sum) {
+            this.bounds = bounds;
+            this.counts = counts;
+            this.sum = sum;
+        }
+
+        public long count() {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            return count;
+        }
+
+        public double sum() {
+            return sum;
+        }
+
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = counts.clone();
+            for (int i = 0; i < difference.length; i++) {
+                difference[i] -= earlier.counts[i];
+            }
+            return new Snapshot(bounds, difference, sum - earlier.sum);
+        }
+
+        // Estimates the q-quantile by interpolating within its bucket; values past the last bound
+        // are reported as the last bound.
+        public double quantile(double q) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            double rank = q * count;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 && seen + counts[i] >= rank) {
+                    if (i == bounds.length) {
+                        return bounds[bounds.length - 1];
+                    }
+                    double lower = i == 0 ? 0 : bounds[i - 1];
+                    return lower + (bounds[i] - lower) * (rank - seen) / counts[i];
+                }
+                seen += counts[i];
+            }
+            return bounds[bounds.length - 1];
+        }
+    }
+
+    // Exposes every series as an attribute named after it, e.g. rdv_frames_sent_total{client="..."}.
+    private class MetricsMBean implements DynamicMBean {
+        private Map<String, Object> values() {
+            Map<String, Object> values = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Family> family : families.entrySet()) {
+                for (Map.Entry<String, Instrument> series : family.getValue().series.entrySet()) {
+                    String labels = series.getKey();
+                    series.getValue().collect(family.getKey() + (labels.isEmpty() ? "" : "{" + labels + "}"), values);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Object value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> value : new ConcurrentSkipListMap<>(values()).entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Remote desktop metrics", attributes.toArray(
+                    new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
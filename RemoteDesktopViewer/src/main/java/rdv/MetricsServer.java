@@ -0,0 +1,78 @@
+package rdv;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Embedded HTTP endpoint serving Metrics at /metrics in the Prometheus text format. Off unless
+// -Drdv.metrics.port=<port> is set; -Drdv.metrics.bind=<address> picks the interface (loopback by
+// default, since the metrics name connected clients). Served by a single daemon thread, so a
+// scrape never competes with the streams for more than one core.
+public class MetricsServer implements AutoCloseable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+    private final HttpServer server;
+
+    public MetricsServer(Metrics metrics, InetSocketAddress address) throws IOException {
+        this.metrics = metrics;
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    // Returns null when no port is configured.
+    public static MetricsServer fromSystemProperties(Metrics metrics, Consumer<String> log) throws IOException {
+        Integer port = Integer.getInteger("rdv.metrics.port");
+        if (port == null) {
+            return null;
+        }
+        InetSocketAddress address = new InetSocketAddress(System.getProperty("rdv.metrics.bind", "127.0.0.1"), port);
+        MetricsServer server = new MetricsServer(metrics, address);
+        log.accept("Serving metrics at http://" + address.getHostString() + ":" + server.port() + "/metrics");
+        return server;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder body = new StringBuilder(8192);
+            metrics.writePrometheus(body);
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package rdv;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Finds a block of pixels that moved between two captures, as when a document scrolls or a window
+// is dragged, so the client can copy it inside its own framebuffer instead of receiving it again.
+//
+// The screen is cut into bands one tile wide (for vertical moves) or one tile tall (for horizontal
+// moves), and every row of a band is hashed, or every column respectively. Each changed row whose
+// hash occurs exactly once in the same band of the previous capture votes for the offset between
+// the two; rows of a single colour, like blank lines, match everywhere and don't vote. The winning
+// offset is then checked band by band, and of the rectangles of bands and rows that match the
+// previous capture at that offset, the one covering the most changed rows becomes the move (plain
+// area would favour a tall strip of background), after comparing its pixels one by one.
+//
+// Only the bounding box of the changed tiles is searched, since a move elsewhere would save nothing.
+// Hashing still reads every pixel in it twice, so after a capture without a move (video, say) the
+// next few are not searched, up to MAX_BACKOFF of them while moves keep failing to turn up.
+public class MoveDetector {
+    static final int BAND = TileEncoder.TILE_SIZE;
+    // Don't bother unless a scroll could plausibly be behind the change
+    public static final int MIN_CHANGED_TILES = 4;
+    private static final int MIN_VOTES = BAND;
+    private static final long MIN_AREA = (long) BAND * BAND;
+    private static final int MAX_BACKOFF = 8;
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    // The width x height block at (x, y) holds the pixels that were at (x - dx, y - dy) in the
+    // previous capture.
+    public static final class Move {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+        public final int dx;
+        public final int dy;
+
+        Move(int x, int y, int width, int height, int dx, int dy) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeShort(x);
+            out.writeShort(y);
+            out.writeShort(width);
+            out.writeShort(height);
+            out.writeShort(dx);
+            out.writeShort(dy);
+        }
+
+        // Applies the move to a framebuffer that holds the previous capture. The rows are copied in
+        // the order that never overwrites a row before it has been read.
+        public static void apply(int[] pixels, int stride, int x, int y, int width, int height, int dx, int dy) {
+            if (dy > 0) {
+                for (int row = y + height - 1; row >= y; row--) {
+                    System.arraycopy(pixels, (row - dy) * stride + x - dx, pixels, row * stride + x, width);
+                }
+            } else {
+                for (int row = y; row < y + height; row++) {
+                    System.arraycopy(pixels, (row - dy) * stride + x - dx, pixels, row * stride + x, width);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%dx%d+%d+%d by (%d, %d)", width, height, x, y, dx, dy);
+        }
+    }
+
+    private long[] previousHashes = new long[0];
+    private long[] currentHashes = new long[0];
+    private boolean[] uniform = new boolean[0];
+    private int[] votes = new int[0];
+    private int[] first = new int[0];
+    private int[] changedRows = new int[0];
+    private long score;
+    // Open-addressing map from a row hash to the row it was seen at in the previous capture, or -1
+    // if it was seen more than once. Slots whose stamp is stale are empty.
+    private long[] slotHashes = new long[0];
+    private int[] slotRows = new int[0];
+    private int[] slotStamps = new int[0];
+    private int stamp;
+    private int misses;
+    private int backoff;
+
+    // The largest block that moved from previous to current, both width x height pixels, or null.
+    // changed flags the tiles that differ, row by row with columns tiles per row.
+    public Move detect(int[] previous, int[] current, int width, int height, boolean[] changed, int columns) {
+        if (backoff > 0) {
+            backoff--;
+            return null;
+        }
+        int left = columns;
+        int right = -1;
+        int top = Integer.MAX_VALUE;
+        int bottom = -1;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                left = Math.min(left, i % columns);
+                right = Math.max(right, i % columns);
+                top = Math.min(top, i / columns);
+                bottom = Math.max(bottom, i / columns);
+            }
+        }
+        Move move = null;
+        if (right >= 0) {
+            int x = left * BAND;
+            int y = top * BAND;
+            move = search(new Area(previous, current, width, x, y,
+                    Math.min(width, (right + 1) * BAND) - x, Math.min(height, (bottom + 1) * BAND) - y));
+        }
+        if (move == null) {
+            misses++;
+            backoff = Math.min(misses, MAX_BACKOFF);
+        } else {
+            misses = 0;
+        }
+        return move;
+    }
+
+    // The part of both captures being searched; bands start at its top left corner.
+    private static final class Area {
+        final int[] previous;
+        final int[] current;
+        final int stride;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Area(int[] previous, int[] current, int stride, int x, int y, int width, int height) {
+            this.previous = previous;
+            this.current = current;
+            this.stride = stride;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private Move search(Area area) {
+        Move vertical = null;
+        long verticalScore = 0;
+        int columnBands = (area.width + BAND - 1) / BAND;
+        hashRows(area);
+        int offset = vote(columnBands, area.height);
+        if (offset != 0) {
+            vertical = bestMatch(area, columnBands, area.height, offset, true);
+            verticalScore = score;
+        }
+
+        Move horizontal = null;
+        int rowBands = (area.height + BAND - 1) / BAND;
+        hashColumns(area);
+        offset = vote(rowBands, area.width);
+        if (offset != 0) {
+            horizontal = bestMatch(area, rowBands, area.width, offset, false);
+        }
+
+        // A column of a row band is as wide as a row of a column band is tall, so scores compare
+        Move best = horizontal != null && (vertical == null || score > verticalScore) ? horizontal : vertical;
+        if (best != null && !verify(area, best)) {
+            best = null;
+        }
+        return best;
+    }
+
+    // Hashes every row of every column band into the hash arrays, indexed band * height + row.
+    private void hashRows(Area area) {
+        int bands = (area.width + BAND - 1) / BAND;
+        ensureCapacity(bands * area.height);
+        for (int band = 0; band < bands; band++) {
+            int x0 = area.x + band * BAND;
+            int x1 = Math.min(area.x + area.width, x0 + BAND);
+            for (int y = 0; y < area.height; y++) {
+                int offset = (area.y + y) * area.stride;
+                long prev = FNV_OFFSET;
+                long cur = FNV_OFFSET;
+                boolean flat = true;
+                int colour = area.current[offset + x0];
+                for (int i = offset + x0; i < offset + x1; i++) {
+                    prev = (prev ^ area.previous[i]) * FNV_PRIME;
+                    cur = (cur ^ area.current[i]) * FNV_PRIME;
+                    flat &= area.current[i] == colour;
+                }
+                previousHashes[band * area.height + y] = prev;
+                currentHashes[band * area.height + y] = cur;
+                uniform[band * area.height + y] = flat;
+            }
+        }
+    }
+
+    // Hashes every column of every row band, indexed band * width + column. The band is walked row
+    // by row so the pixels are read in memory order.
+    private void hashColumns(Area area) {
+        int bands = (area.height + BAND - 1) / BAND;
+        int width = area.width;
+        ensureCapacity(bands * width);
+        if (first.length < width) {
+            first = new int[width];
+        }
+        for (int band = 0; band < bands; band++) {
+            int base = band * width;
+            int y0 = area.y + band * BAND;
+            int y1 = Math.min(area.y + area.height, y0 + BAND);
+            System.arraycopy(area.current, y0 * area.stride + area.x, first, 0, width);
+            Arrays.fill(previousHashes, base, base + width, FNV_OFFSET);
+            Arrays.fill(currentHashes, base, base + width, FNV_OFFSET);
+            Arrays.fill(uniform, base, base + width, true);
+            for (int y = y0; y < y1; y++) {
+                int offset = y * area.stride + area.x;
+                for (int x = 0; x < width; x++) {
+                    previousHashes[base + x] = (previousHashes[base + x] ^ area.previous[offset + x]) * FNV_PRIME;
+                    currentHashes[base + x] = (currentHashes[base + x] ^ area.current[offset + x]) * FNV_PRIME;
+                    uniform[base + x] &= area.current[offset + x] == first[x];
+                }
+            }
+        }
+    }
+
+    // Counts votes for each offset into votes[offset + length] and returns the winner, or 0 if no
+    // offset has enough of them.
+    private int vote(int bands, int length) {
+        if (votes.length < 2 * length) {
+            votes = new int[2 * length];
+        } else {
+            Arrays.fill(votes, 0, 2 * length, 0);
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, length) * 4);
+        if (slotHashes.length != capacity) {
+            slotHashes = new long[capacity];
+            slotRows = new int[capacity];
+            slotStamps = new int[capacity];
+        }
+        for (int band = 0; band < bands; band++) {
+            int base = band * length;
+            stamp++;
+            for (int p = 0; p < length; p++) {
+                int slot = slot(previousHashes[base + p]);
+                if (slotStamps[slot] == stamp) {
+                    slotRows[slot] = -1;
+                } else {
+                    slotStamps[slot] = stamp;
+                    slotHashes[slot] = previousHashes[base + p];
+                    slotRows[slot] = p;
+                }
+            }
+            for (int p = 0; p < length; p++) {
+                long hash = currentHashes[base + p];
+                if (uniform[base + p] || hash == previousHashes[base + p]) {
+                    continue;
+                }
+                int slot = slot(hash);
+                if (slotStamps[slot] == stamp && slotRows[slot] >= 0) {
+                    votes[p - slotRows[slot] + length]++;
+                }
+            }
+        }
+        int best = 0;
+        for (int i = 0; i < 2 * length; i++) {
+            if (votes[i] > votes[best]) {
+                best = i;
+            }
+        }
+        return votes[best] >= MIN_VOTES ? best - length : 0;
+    }
+
+    // The block of whole bands by consecutive positions whose hashes match the previous capture at
+    // offset and that covers the most changed rows, leaving its score in score. The candidates are
+    // the maximal blocks found row by row with the largest-rectangle-in-a-histogram stack.
+    private Move bestMatch(Area area, int bands, int length, int offset, boolean vertical) {
+        if (changedRows.length < bands * (length + 1)) {
+            changedRows = new int[bands * (length + 1)];
+        }
+        // Running count of changed rows per band, so a block's score is a difference per band
+        for (int band = 0; band < bands; band++) {
+            int base = band * length;
+            int counts = band * (length + 1);
+            changedRows[counts] = 0;
+            for (int p = 0; p < length; p++) {
+                boolean changed = currentHashes[base + p] != previousHashes[base + p];
+                changedRows[counts + p + 1] = changedRows[counts + p] + (changed ? 1 : 0);
+            }
+        }
+        int[] runs = new int[bands + 1];
+        int[] stack = new int[bands + 1];
+        long bestScore = 0;
+        long bestArea = 0;
+        int bestBand0 = 0;
+        int bestBand1 = 0;
+        int bestStart = 0;
+        int bestEnd = 0;
+        for (int p = Math.max(0, offset); p < Math.min(length, length + offset); p++) {
+            for (int band = 0; band < bands; band++) {
+                int i = band * length + p;
+                runs[band] = currentHashes[i] == previousHashes[i - offset] ? runs[band] + 1 : 0;
+            }
+            int top = 0;
+            for (int band = 0; band <= bands; band++) {
+                int run = band < bands ? runs[band] : 0;
+                while (top > 0 && runs[stack[top - 1]] >= run) {
+                    int tallest = runs[stack[--top]];
+                    int left = top == 0 ? 0 : stack[top - 1] + 1;
+                    long size = (long) tallest * (band - left);
+                    if (size * BAND < MIN_AREA) {
+                        continue;
+                    }
+                    long changed = 0;
+                    for (int b = left; b < band; b++) {
+                        int counts = b * (length + 1);
+                        changed += changedRows[counts + p + 1] - changedRows[counts + p + 1 - tallest];
+                    }
+                    if (changed > bestScore || changed == bestScore && size > bestArea) {
+                        bestScore = changed;
+                        bestArea = size;
+                        bestBand0 = left;
+                        bestBand1 = band;
+                        bestStart = p - tallest + 1;
+                        bestEnd = p + 1;
+                    }
+                }
+                stack[top++] = band;
+            }
+        }
+        score = bestScore;
+        if (bestScore == 0) {
+            return null;
+        }
+        int across = vertical ? area.width : area.height;
+        int from = bestBand0 * BAND;
+        int to = Math.min(across, bestBand1 * BAND);
+        return vertical
+                ? new Move(area.x + from, area.y + bestStart, to - from, bestEnd - bestStart, 0, offset)
+                : new Move(area.x + bestStart, area.y + from, bestEnd - bestStart, to - from, offset, 0);
+    }
+
+    // The slot holding hash in the current band, or the empty slot where it would go.
+    private int slot(long hash) {
+        int mask = slotHashes.length - 1;
+        int slot = (int) (hash ^ hash >>> 32) & mask;
+        while (slotStamps[slot] == stamp && slotHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean verify(Area area, Move move) {
+        for (int y = move.y; y < move.y + move.height; y++) {
+            int to = y * area.stride + move.x;
+            int from = (y - move.dy) * area.stride + move.x - move.dx;
+            for (int i = 0; i < move.width; i++) {
+                if (area.current[to + i] != area.previous[from + i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int size) {
+        if (previousHashes.length < size) {
+            previousHashes = new long[size];
+            currentHashes = new long[size];
+            uniform = new boolean[size];
+        }
+    }
+}
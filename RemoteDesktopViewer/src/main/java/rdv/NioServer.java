@@ -0,0 +1,401 @@
+package rdv;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking engine: one selector thread does all socket I/O and a fixed worker pool runs the
+// sessions, so the thread count no longer grows with the number of clients.
+//
+// Each connection decodes frames out of a direct read buffer and hands complete messages to its
+// session on the worker pool, one message at a time and in order. Reading pauses while too many
+// messages are waiting for a worker. Outbound messages go through the connection's OutboundQueue,
+// which the selector drains in priority order when the socket is writable. Nothing running on the
+// worker pool waits for room in that queue, since a worker stuck on one slow peer stalls every other
+// session: replies are offered and a peer whose queue is full is disconnected, and frames are
+// skipped and caught up later.
+public class NioServer implements ServerEngine {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_MESSAGES = 64;
+
+    private static final int POOLED_BUFFER_SIZE = OutboundQueue.FRAGMENT_SIZE;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private final int port;
+    private final SessionFactory sessions;
+    private final ExecutorService workers;
+    private final Queue<NioConnection> interestChanges = new ConcurrentLinkedQueue<>();
+    private volatile Selector selector;
+    private volatile boolean running = true;
+
+    public NioServer(int port, SessionFactory sessions) {
+        this.port = port;
+        this.sessions = sessions;
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "nio-worker-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void serve() throws IOException {
+        try (Selector selector = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.selector = selector;
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (running) {
+                selector.select();
+                NioConnection changed;
+                while ((changed = interestChanges.poll()) != null) {
+                    changed.updateInterest();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException e) {
+                        connection.fail(e);
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection) {
+                    ((NioConnection) key.attachment()).closeChannel();
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSendBufferSize(OutboundQueue.SEND_BUFFER_SIZE);
+        NioConnection connection = new NioConnection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.session = sessions.open(connection);
+    }
+
+    // Chunks are never larger than a fragment, so they always fit a pooled buffer.
+    private static ByteBuffer outboundBuffer(OutboundQueue.Chunk chunk) {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(POOLED_BUFFER_SIZE);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+        buffer.clear();
+        buffer.put(chunk.header);
+        buffer.put(chunk.data, chunk.offset, chunk.length);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void recycle(ByteBuffer buffer) {
+        if (buffer.isDirect() && pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        } else if (buffer.isDirect()) {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    // A message for the session, or the notice that the connection went away. The notice is a flag
+    // rather than a reserved opcode, since a peer can put any byte in the opcode.
+    private static class Inbound {
+        final byte opcode;
+        final byte[] payload;
+        final boolean disconnected;
+        final IOException cause;
+
+        Inbound(byte opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+            this.disconnected = false;
+            this.cause = null;
+        }
+
+        Inbound(IOException cause) {
+            this.opcode = 0;
+            this.payload = null;
+            this.disconnected = true;
+            this.cause = cause;
+        }
+    }
+
+    private class NioConnection implements Connection {
+        private final SocketChannel channel;
+        private final InetAddress address;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final OutboundQueue outbound = new OutboundQueue(this::requestInterestUpdate);
+        private final FragmentAssembler fragments = new FragmentAssembler();
+        private final Queue<Inbound> inbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingMessages = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean disconnected = new AtomicBoolean();
+        private final MessageWriter writer = new MessageWriter(outbound);
+        private SelectionKey key;
+        private Session session;
+        private ByteBuffer writing;
+        private volatile boolean readPaused;
+        private volatile boolean closing;
+        private volatile boolean authenticated;
+
+        // Decoder state for the message currently being read
+        private byte opcode;
+        private int length = -1;
+        private byte[] payload;
+        private int received;
+
+        NioConnection(SocketChannel channel) {
+            this.channel = channel;
+            this.address = channel.socket().getInetAddress();
+        }
+
+        @Override
+        public InetAddress address() {
+            return address;
+        }
+
+        @Override
+        public MessageWriter writer() {
+            return writer;
+        }
+
+        @Override
+        public boolean sharedEngineThreads() {
+            return true;
+        }
+
+        @Override
+        public void authenticated() {
+            authenticated = true;
+        }
+
+        @Override
+        public int pendingWrites() {
+            return outbound.size();
+        }
+
+        @Override
+        public void close() {
+            closing = true;
+            outbound.close();
+            requestInterestUpdate();
+        }
+
+        void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                disconnect(null);
+                return;
+            }
+            readBuffer.flip();
+            while (true) {
+                if (length < 0) {
+                    if (readBuffer.remaining() < 5) {
+                        break;
+                    }
+                    opcode = readBuffer.get();
+                    length = readBuffer.getInt();
+                    int limit = authenticated ? Protocol.MAX_PAYLOAD : Protocol.MAX_AUTH_PAYLOAD;
+                    if (length < 0 || length > limit) {
+                        throw new IOException("Invalid payload length " + length + " for opcode " + opcode);
+                    }
+                    if (opcode == Protocol.FRAGMENT && !authenticated) {
+                        throw new IOException("Fragment before authentication");
+                    }
+                    // The length is only the peer's word; the payload grows as its bytes arrive.
+                    payload = new byte[Math.min(length, READ_BUFFER_SIZE)];
+                    received = 0;
+                }
+                int chunk = Math.min(readBuffer.remaining(), length - received);
+                if (received + chunk > payload.length) {
+                    payload = Arrays.copyOf(payload, Math.min(length, Math.max(received + chunk, payload.length * 2)));
+                }
+                readBuffer.get(payload, received, chunk);
+                received += chunk;
+                if (received < length) {
+                    break;
+                }
+                if (opcode != Protocol.FRAGMENT) {
+                    dispatch(new Inbound(opcode, payload));
+                } else if (fragments.add(payload, length)) {
+                    dispatch(new Inbound(fragments.opcode(), Arrays.copyOf(fragments.payload(), fragments.length())));
+                }
+                length = -1;
+                payload = null;
+            }
+            readBuffer.compact();
+        }
+
+        void write() throws IOException {
+            while (true) {
+                if (writing == null) {
+                    OutboundQueue.Chunk chunk = outbound.poll();
+                    if (chunk == null) {
+                        break;
+                    }
+                    writing = outboundBuffer(chunk);
+                }
+                channel.write(writing);
+                if (writing.hasRemaining()) {
+                    return;
+                }
+                recycle(writing);
+                writing = null;
+            }
+            if (closing) {
+                closeChannel();
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        // Runs on the selector thread
+        void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = key.interestOps();
+            if (writing != null || !outbound.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            } else if (closing) {
+                closeChannel();
+                return;
+            }
+            if (readPaused && pendingMessages.get() < MAX_PENDING_MESSAGES / 2) {
+                readPaused = false;
+            }
+            ops = readPaused || closing ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void fail(IOException cause) {
+            closeChannel();
+            disconnect(cause);
+        }
+
+        void closeChannel() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+
+            }
+            outbound.fail(new IOException("Connection closed"));
+        }
+
+        private void disconnect(IOException cause) {
+            closeChannel();
+            if (disconnected.compareAndSet(false, true)) {
+                dispatch(new Inbound(cause));
+            }
+        }
+
+        private void dispatch(Inbound message) {
+            inbound.add(message);
+            if (pendingMessages.incrementAndGet() >= MAX_PENDING_MESSAGES && key.isValid()) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (draining.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        // Runs on a worker; the draining flag guarantees one worker per connection at a time.
+        private void drain() {
+            while (true) {
+                Inbound message;
+                while ((message = inbound.poll()) != null) {
+                    pendingMessages.decrementAndGet();
+                    deliver(message);
+                    if (readPaused) {
+                        requestInterestUpdate();
+                    }
+                }
+                draining.set(false);
+                if (inbound.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void deliver(Inbound message) {
+            if (message.disconnected) {
+                session.onDisconnect(message.cause);
+                return;
+            }
+            if (closing) {
+                return;
+            }
+            try {
+                session.onMessage(message.opcode, new DataInputStream(new ByteArrayInputStream(message.payload)));
+            } catch (IOException e) {
+                // Claims the one onDisconnect call, so a read failure racing the close can't report again.
+                if (disconnected.compareAndSet(false, true)) {
+                    session.onDisconnect(e);
+                }
+                close();
+            }
+        }
+
+        private void requestInterestUpdate() {
+            interestChanges.add(this);
+            Selector current = selector;
+            if (current != null) {
+                current.wakeup();
+            }
+        }
+    }
+}
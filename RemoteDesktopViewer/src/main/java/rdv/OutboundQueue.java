@@ -0,0 +1,300 @@
+package rdv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-connection outbound scheduler. Messages from any thread are queued by priority class and a
+// single writer takes them off in order: control and input first, then chat, then screen frames,
+// then bulk file data. A message whose frame would exceed FRAGMENT_SIZE is split into FRAGMENT
+// messages, one per take, so a control message or chat line queued behind a large frame waits for
+// at most one fragment instead of the whole frame. Within a class messages keep their order, and a
+// class has at most one message in fragments at a time, so the receiver reassembles per class.
+//
+// Every class is bounded by bytes; a producer that finds its class full waits, which keeps the
+// backpressure on the stream or file transfer without ever holding up control messages, and a peer
+// that stops reading fails the connection instead of growing the queue without limit. A producer
+// that serves many connections from one thread must not wait on any of them; it checks isFull()
+// or uses offer(), and skips the message when the class is full.
+//
+// The writer is either a thread started with start() (blocking sockets) or the NIO selector, which
+// calls poll() when the socket is writable and is told about new messages through the listener.
+//
+// Bytes already handed to the kernel can't be overtaken, and an auto-tuned send buffer holds
+// megabytes of frame data on a slow link. Connections therefore cap it at SEND_BUFFER_SIZE
+// (-Drdv.sendBuffer=<bytes>, default 128 KB), trading some throughput on long fat links for
+// chat and control latency.
+public class OutboundQueue {
+    public static final int CONTROL = 0;
+    public static final int CHAT = 1;
+    public static final int FRAMES = 2;
+    public static final int BULK = 3;
+    public static final int CLASSES = 4;
+
+    // Largest frame put on the wire in one piece, header included
+    public static final int FRAGMENT_SIZE = 16 * 1024;
+    public static final int SEND_BUFFER_SIZE = Integer.getInteger("rdv.sendBuffer", 128 * 1024);
+    static final int HEADER = 5;
+    static final int FRAGMENT_HEADER = HEADER + 3;
+
+    private static final long[] MAX_QUEUED_BYTES = {1L << 20, 1L << 20, 16L << 20, 4L << 20};
+    private static final long QUEUE_TIMEOUT_MS = 10_000;
+    private static final long CLOSE_TIMEOUT_MS = 2_000;
+
+    // One frame ready for the socket: a header followed by length bytes of data starting at offset.
+    public static final class Chunk {
+        public final byte[] header;
+        public final byte[] data;
+        public final int offset;
+        public final int length;
+
+        Chunk(byte[] header, byte[] data, int offset, int length) {
+            this.header = header;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int size() {
+            return header.length + length;
+        }
+    }
+
+    private static final class Message {
+        final byte opcode;
+        final byte[] data;
+        int sent;
+
+        Message(byte opcode, byte[] data) {
+            this.opcode = opcode;
+            this.data = data;
+        }
+    }
+
+    private final List<ArrayDeque<Message>> queues = new ArrayList<>(CLASSES);
+    private final long[] queuedBytes = new long[CLASSES];
+    private final Runnable listener;
+    private int queued;
+    private boolean closing;
+    private IOException failure;
+    private Thread writerThread;
+
+    public OutboundQueue() {
+        this(null);
+    }
+
+    // listener runs after every add, e.g. to have the selector wait for the socket to become writable.
+    public OutboundQueue(Runnable listener) {
+        this.listener = listener;
+        for (int i = 0; i < CLASSES; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    public static int classOf(byte opcode) {
+        switch (opcode) {
+            case Protocol.CHAT_MESSAGE:
+                return CHAT;
+            case Protocol.SCREEN_TILES:
+                return FRAMES;
+            case Protocol.FILE_CHUNK:
+                return BULK;
+            default:
+                return CONTROL;
+        }
+    }
+
+    // Queues a message; data is owned by the queue from now on.
+    public void add(byte opcode, byte[] data) throws IOException {
+        int cls = classOf(opcode);
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MS);
+            while (failure == null && !closing && queuedBytes[cls] > 0
+                    && queuedBytes[cls] + data.length > MAX_QUEUED_BYTES[cls]) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IOException("Write queue full");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while queueing a write");
+                }
+            }
+            enqueue(cls, opcode, data);
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    // Queues a message unless its class is full, without waiting; data is owned by the queue if
+    // this returns true. The message may take the class past its bound, by at most its own size.
+    public boolean offer(byte opcode, byte[] data) throws IOException {
+        int cls = classOf(opcode);
+        synchronized (this) {
+            if (failure == null && !closing && queuedBytes[cls] >= MAX_QUEUED_BYTES[cls]) {
+                return false;
+            }
+            enqueue(cls, opcode, data);
+        }
+        if (listener != null) {
+            listener.run();
+        }
+        return true;
+    }
+
+    // Whether the class of opcode has reached its bound, so offer() would refuse any more.
+    public synchronized boolean isFull(byte opcode) {
+        int cls = classOf(opcode);
+        return queuedBytes[cls] >= MAX_QUEUED_BYTES[cls];
+    }
+
+    // The next frame to write, or null if nothing is queued.
+    public synchronized Chunk poll() {
+        for (int cls = 0; cls < CLASSES; cls++) {
+            Message message = queues.get(cls).peek();
+            if (message == null) {
+                continue;
+            }
+            int length = message.data.length;
+            if (message.sent == 0 && HEADER + length <= FRAGMENT_SIZE) {
+                remove(cls, message);
+                byte[] header = new byte[HEADER];
+                writeHeader(header, message.opcode, length);
+                return new Chunk(header, message.data, 0, length);
+            }
+            int offset = message.sent;
+            int count = Math.min(FRAGMENT_SIZE - FRAGMENT_HEADER, length - offset);
+            message.sent += count;
+            boolean last = message.sent == length;
+            if (last) {
+                remove(cls, message);
+            }
+            byte[] header = new byte[FRAGMENT_HEADER];
+            writeHeader(header, Protocol.FRAGMENT, FRAGMENT_HEADER - HEADER + count);
+            header[HEADER] = (byte) cls;
+            header[HEADER + 1] = message.opcode;
+            header[HEADER + 2] = (byte) (last ? 1 : 0);
+            return new Chunk(header, message.data, offset, count);
+        }
+        return null;
+    }
+
+    public synchronized boolean isEmpty() {
+        return queued == 0;
+    }
+
+    // Messages queued and not completely taken yet.
+    public synchronized int size() {
+        return queued;
+    }
+
+    // Stops accepting messages; whatever is queued is still handed to the writer.
+    public synchronized void close() {
+        closing = true;
+        notifyAll();
+    }
+
+    // Drops everything queued and makes producers fail with cause.
+    public synchronized void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        for (int cls = 0; cls < CLASSES; cls++) {
+            queues.get(cls).clear();
+            queuedBytes[cls] = 0;
+        }
+        queued = 0;
+        notifyAll();
+    }
+
+    // Starts a thread that writes everything queued to out, flushing whenever the queue runs dry.
+    // It closes out once the queue is closed and drained, or when a write fails.
+    public synchronized void start(OutputStream out, String name) {
+        writerThread = new Thread(() -> writeLoop(out), name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Closes the queue and waits a little for the writer thread to drain it.
+    public void closeAndDrain() {
+        close();
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop(OutputStream out) {
+        try {
+            while (true) {
+                Chunk chunk = poll();
+                if (chunk == null) {
+                    out.flush();
+                    synchronized (this) {
+                        while ((chunk = poll()) == null && !closing && failure == null) {
+                            wait();
+                        }
+                    }
+                    if (chunk == null) {
+                        break;
+                    }
+                }
+                out.write(chunk.header);
+                out.write(chunk.data, chunk.offset, chunk.length);
+            }
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Writer interrupted"));
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Already failing or closing
+            }
+        }
+    }
+
+    private void enqueue(int cls, byte opcode, byte[] data) throws IOException {
+        if (failure != null) {
+            throw new IOException("Connection closed: " + failure.getMessage(), failure);
+        }
+        if (closing) {
+            throw new IOException("Connection closed");
+        }
+        queues.get(cls).add(new Message(opcode, data));
+        queuedBytes[cls] += data.length;
+        queued++;
+        notifyAll();
+    }
+
+    private void remove(int cls, Message message) {
+        queues.get(cls).remove();
+        queuedBytes[cls] -= message.data.length;
+        queued--;
+        notifyAll();
+    }
+
+    private static void writeHeader(byte[] header, byte opcode, int length) {
+        header[0] = opcode;
+        header[1] = (byte) (length >>> 24);
+        header[2] = (byte) (length >>> 16);
+        header[3] = (byte) (length >>> 8);
+        header[4] = (byte) length;
+    }
+}
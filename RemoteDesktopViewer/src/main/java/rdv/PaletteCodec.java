@@ -0,0 +1,228 @@
+package rdv;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Lossless palette + run-length coding for desktop content: flat backgrounds, window chrome and
+// text usually need only a handful of colours per tile and long runs of the same pixel. A tile with
+// at most 256 colours is sent as its palette followed by (index, run) pairs; anything busier falls
+// back to (run, rgb) runs. Runs are in row order and may continue onto the next row.
+//
+//   palette tile: mode:u8 = 0, colours-1:u8, {r, g, b}*, {index:u8, run-1:u8}* (no runs if one colour)
+//   rgb tile:     mode:u8 = 1, {run-1:u8, r, g, b}*
+public class PaletteCodec implements FrameCodec {
+    private static final int MODE_PALETTE = 0;
+    private static final int MODE_RGB = 1;
+    private static final int MAX_COLOURS = 256;
+    private static final int MAX_RUN = 256;
+    private static final int TABLE_SIZE = 1024;
+
+    // Open-addressing colour -> palette index table; entries are valid only when their stamp
+    // matches the current tile, so it never needs clearing.
+    private final int[] tableColours = new int[TABLE_SIZE];
+    private final int[] tableIndexes = new int[TABLE_SIZE];
+    private final int[] tableStamps = new int[TABLE_SIZE];
+    private int stamp;
+    private final int[] palette = new int[MAX_COLOURS];
+    private byte[] out = new byte[1 + TileEncoder.TILE_SIZE * TileEncoder.TILE_SIZE * 4];
+
+    @Override
+    public int id() {
+        return Protocol.CODEC_PALETTE;
+    }
+
+    @Override
+    public String name() {
+        return "palette";
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image, int x, int y, int width, int height, float quality) {
+        int[] pixels = FrameCodec.pixels(image);
+        int stride = image.getWidth();
+        int worst = 2 + MAX_COLOURS * 3 + width * height * 4;
+        if (out.length < worst) {
+            out = new byte[worst];
+        }
+        int colours = buildPalette(pixels, stride, x, y, width, height);
+        int n;
+        if (colours <= MAX_COLOURS) {
+            n = 0;
+            out[n++] = MODE_PALETTE;
+            out[n++] = (byte) (colours - 1);
+            for (int i = 0; i < colours; i++) {
+                n = putRgb(palette[i], n);
+            }
+            if (colours > 1) {
+                n = encodeIndexRuns(pixels, stride, x, y, width, height, n);
+            }
+        } else {
+            n = encodeRgbRuns(pixels, stride, x, y, width, height);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Returns the number of distinct colours, or MAX_COLOURS + 1 as soon as there are too many.
+    private int buildPalette(int[] pixels, int stride, int x, int y, int width, int height) {
+        stamp++;
+        int colours = 0;
+        int last = -1;
+        for (int row = y; row < y + height; row++) {
+            for (int i = row * stride + x, end = i + width; i < end; i++) {
+                int rgb = pixels[i] & 0xFFFFFF;
+                if (rgb == last) {
+                    continue;
+                }
+                last = rgb;
+                if (indexOf(rgb) < 0) {
+                    if (colours == MAX_COLOURS) {
+                        return MAX_COLOURS + 1;
+                    }
+                    insert(rgb, colours);
+                    palette[colours++] = rgb;
+                }
+            }
+        }
+        return colours;
+    }
+
+    private int encodeIndexRuns(int[] pixels, int stride, int x, int y, int width, int height, int n) {
+        int current = -1;
+        int run = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int i = row * stride + x, end = i + width; i < end; i++) {
+                int rgb = pixels[i] & 0xFFFFFF;
+                if (rgb == current && run < MAX_RUN) {
+                    run++;
+                    continue;
+                }
+                if (run > 0) {
+                    out[n++] = (byte) indexOf(current);
+                    out[n++] = (byte) (run - 1);
+                }
+                current = rgb;
+                run = 1;
+            }
+        }
+        out[n++] = (byte) indexOf(current);
+        out[n++] = (byte) (run - 1);
+        return n;
+    }
+
+    private int encodeRgbRuns(int[] pixels, int stride, int x, int y, int width, int height) {
+        int n = 0;
+        out[n++] = MODE_RGB;
+        int current = -1;
+        int run = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int i = row * stride + x, end = i + width; i < end; i++) {
+                int rgb = pixels[i] & 0xFFFFFF;
+                if (rgb == current && run < MAX_RUN) {
+                    run++;
+                    continue;
+                }
+                if (run > 0) {
+                    out[n++] = (byte) (run - 1);
+                    n = putRgb(current, n);
+                }
+                current = rgb;
+                run = 1;
+            }
+        }
+        out[n++] = (byte) (run - 1);
+        return putRgb(current, n);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BufferedImage target, int x, int y, int width, int height)
+            throws IOException {
+        int[] pixels = FrameCodec.pixels(target);
+        int stride = target.getWidth();
+        int end = offset + length;
+        int p = offset;
+        int mode = data[p++];
+        int colours = 0;
+        if (mode == MODE_PALETTE) {
+            colours = (data[p++] & 0xFF) + 1;
+            for (int i = 0; i < colours; i++, p += 3) {
+                palette[i] = rgbAt(data, p);
+            }
+        } else if (mode != MODE_RGB) {
+            throw new IOException("Unknown palette tile mode " + mode);
+        }
+
+        int column = 0;
+        int row = y;
+        int i = row * stride + x;
+        int remaining = width * height;
+        while (remaining > 0) {
+            int rgb;
+            int run;
+            if (mode == MODE_PALETTE && colours == 1) {
+                rgb = palette[0];
+                run = remaining;
+            } else if (p >= end) {
+                throw new IOException("Truncated palette tile at " + x + "," + y);
+            } else if (mode == MODE_PALETTE) {
+                rgb = palette[data[p] & 0xFF];
+                run = (data[p + 1] & 0xFF) + 1;
+                p += 2;
+            } else {
+                run = (data[p] & 0xFF) + 1;
+                rgb = rgbAt(data, p + 1);
+                p += 4;
+            }
+            run = Math.min(run, remaining);
+            remaining -= run;
+            while (run > 0) {
+                int span = Math.min(run, width - column);
+                Arrays.fill(pixels, i, i + span, rgb);
+                run -= span;
+                column += span;
+                i += span;
+                if (column == width) {
+                    column = 0;
+                    row++;
+                    i = row * stride + x;
+                }
+            }
+        }
+    }
+
+    private int indexOf(int rgb) {
+        int slot = hash(rgb);
+        while (tableStamps[slot] == stamp) {
+            if (tableColours[slot] == rgb) {
+                return tableIndexes[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return -1;
+    }
+
+    private void insert(int rgb, int index) {
+        int slot = hash(rgb);
+        while (tableStamps[slot] == stamp) {
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        tableStamps[slot] = stamp;
+        tableColours[slot] = rgb;
+        tableIndexes[slot] = index;
+    }
+
+    private static int hash(int rgb) {
+        return (rgb * 0x9E3779B1 >>> 22) & (TABLE_SIZE - 1);
+    }
+
+    private int putRgb(int rgb, int n) {
+        out[n] = (byte) (rgb >> 16);
+        out[n + 1] = (byte) (rgb >> 8);
+        out[n + 2] = (byte) rgb;
+        return n + 3;
+    }
+
+    private static int rgbAt(byte[] data, int p) {
+        return (data[p] & 0xFF) << 16 | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF);
+    }
+}
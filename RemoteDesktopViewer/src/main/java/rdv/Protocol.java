@@ -0,0 +1,84 @@
+package rdv;
+
+// Wire format shared by client and server. Every message is framed as
+//   [opcode: 1 byte][payload length: 4 bytes][payload]
+// with primitive payload fields written through DataOutputStream. The first message on a
+// connection is AUTH, which carries the protocol version so either side can reject a mismatch.
+// Messages too large for one frame of OutboundQueue.FRAGMENT_SIZE travel as a run of FRAGMENT
+// messages that the receiver joins back into the original message before handing it on.
+public final class Protocol {
+    public static final int VERSION = 11;
+    public static final int PORT = 5000;
+    public static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+    // Largest message a server takes from a peer that has not authenticated yet: an AUTH with room
+    // for a long password and every codec
+    public static final int MAX_AUTH_PAYLOAD = 1024;
+
+    // Handshake
+    public static final byte AUTH = 0x01;                // version:u8, password:utf, count:u8, {codec:u8}* (preferred first)
+    public static final byte AUTH_SUCCESS = 0x02;        // codec:u8 (chosen for SCREEN_TILES)
+    public static final byte AUTH_FAILED = 0x03;         // reason:utf
+
+    // Screen
+    public static final byte START_SCREEN_STREAM = 0x10;
+    public static final byte STOP_SCREEN_STREAM = 0x11;
+    public static final byte GET_SCREEN = 0x12;
+    public static final byte SCREEN_TILES = 0x13;        // seq:i64, sentAt:i64, screenWidth:i32, screenHeight:i32,
+                                                         // regionX:i32, regionY:i32, regionWidth:i32, regionHeight:i32,
+                                                         // width:i32, height:i32, flags:u8 (FRAME_*),
+                                                         // moves:u8, {x:u16, y:u16, width:u16, height:u16, dx:i16, dy:i16}*,
+                                                         // count:i32, {x:u16, y:u16, len:i32, tile}*
+                                                         // A len of -1 is followed by hash:i64 instead of the tile
+                                                         // Moves are applied to the previous frame before the tiles; a
+                                                         // hash stands for a tile in the client's TileCache
+    public static final byte FRAME_ACK = 0x14;           // seq:i64, sentAt:i64 (echoed), decodeMicros:i32
+    public static final byte VIEWPORT = 0x15;            // x:i32, y:i32, width:i32, height:i32 (screen pixels), zoom:f32
+    public static final byte CURSOR_SHAPE = 0x16;        // id:i32, hotspotX:u16, hotspotY:u16, width:u16, height:u16,
+                                                         // {argb:i32}* (sent once per id per connection)
+    public static final byte CURSOR_POSITION = 0x17;     // x:i32, y:i32 (screen pixels), shape:i32 (0: pointer hidden)
+    public static final byte TILE_CACHE = 0x18;          // capacity:i32 (bytes), count:i32, {hash:i64, len:i32}*
+                                                         // (least recently used first)
+    public static final byte TILE_CACHE_MISS = 0x19;     // a tile reference was not in the cache, or a frame failed to
+                                                         // decode (the server resets both caches and sends a keyframe)
+
+    // SCREEN_TILES flags
+    public static final int FRAME_KEYFRAME = 1;
+    public static final int FRAME_CACHE_RESET = 2;       // empty the tile cache before reading the tiles
+
+    // SCREEN_TILES tile codecs, see FrameCodec
+    public static final int CODEC_JPEG = 1;
+    public static final int CODEC_DEFLATE = 2;           // lossless
+    public static final int CODEC_PALETTE = 3;           // lossless
+
+    // Chat
+    public static final byte CHAT_MESSAGE = 0x20;        // text:utf
+
+    // Input
+    public static final byte MOUSE_MOVE = 0x30;          // x:i32, y:i32
+    public static final byte MOUSE_CLICK = 0x31;         // button:i32
+    public static final byte KEY_PRESS = 0x32;           // keyCode:i32
+    public static final byte INPUT_BATCH = 0x33;         // count:u16, {type:u8, ageMicros:i32, args}*
+
+    // INPUT_BATCH event types and their args
+    public static final int INPUT_MOUSE_MOVE = 1;        // x:i32, y:i32
+    public static final int INPUT_MOUSE_PRESS = 2;       // button:i32
+    public static final int INPUT_MOUSE_RELEASE = 3;     // button:i32
+    public static final int INPUT_KEY = 4;               // keyCode:i32 (press and release)
+
+    // File transfer
+    public static final byte FILE_OFFER = 0x40;          // id:i32, name:utf, size:i64, sha256:32 bytes
+    public static final byte FILE_RECEIVED = 0x41;       // name:utf
+    public static final byte FILE_ACK = 0x42;            // id:i32, offset:i64, rewind:bool
+    public static final byte FILE_CHUNK = 0x43;          // id:i32, offset:i64, crc32:i32, data:remaining bytes
+    public static final byte FILE_COMPLETE = 0x44;       // id:i32
+
+    // Connection
+    public static final byte PING = 0x70;                // timestamp:i64
+    public static final byte PONG = 0x71;                // timestamp:i64 (echoed)
+    public static final byte FRAGMENT = 0x72;            // class:u8, opcode:u8, last:bool, data:remaining bytes
+    public static final byte SERVER_CLOSED = 0x7E;
+    public static final byte DISCONNECT = 0x7F;
+
+    private Protocol() {
+    }
+}
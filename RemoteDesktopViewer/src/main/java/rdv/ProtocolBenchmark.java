@@ -0,0 +1,146 @@
+package rdv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// Side-by-side comparison of the legacy ObjectOutputStream message format and the framed binary
+// protocol: bytes per event plus encode/decode events per second for typical control messages.
+//
+//   java -cp target/classes rdv.ProtocolBenchmark [events]
+public class ProtocolBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        System.out.printf("%-14s %-8s %12s %16s %16s%n", "event", "format", "bytes/event", "encode ev/s", "decode ev/s");
+        for (String event : new String[]{"MOUSE_MOVE", "KEY_PRESS", "CHAT_MESSAGE"}) {
+            report(event, "object", events, new LegacyFormat(event));
+            report(event, "binary", events, new BinaryFormat(event));
+        }
+    }
+
+    private interface Format {
+        byte[] encode(int events) throws IOException;
+
+        void decode(byte[] data, int events) throws IOException;
+    }
+
+    private static void report(String event, String name, int events, Format format) throws IOException {
+        byte[] data = format.encode(events);
+        format.decode(data, events); // warm-up
+
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            data = format.encode(events);
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            format.decode(data, events);
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+        }
+
+        System.out.printf("%-14s %-8s %12.2f %16.0f %16.0f%n", event, name,
+                (double) data.length / events,
+                events / (encodeNanos / 1e9),
+                events / (decodeNanos / 1e9));
+    }
+
+    private static class LegacyFormat implements Format {
+        private final String event;
+
+        LegacyFormat(String event) {
+            this.event = event;
+        }
+
+        @Override
+        public byte[] encode(int events) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            for (int i = 0; i < events; i++) {
+                oos.writeObject(event);
+                switch (event) {
+                    case "MOUSE_MOVE":
+                        oos.writeObject(i % 1920);
+                        oos.writeObject(i % 1080);
+                        break;
+                    case "KEY_PRESS":
+                        oos.writeObject(65 + i % 26);
+                        break;
+                    default:
+                        oos.writeObject("message " + i);
+                        break;
+                }
+            }
+            oos.flush();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public void decode(byte[] data, int events) throws IOException {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                for (int i = 0; i < events; i++) {
+                    String command = (String) ois.readObject();
+                    if ("MOUSE_MOVE".equals(command)) {
+                        ois.readObject();
+                    }
+                    ois.readObject();
+                }
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class BinaryFormat implements Format {
+        private final String event;
+
+        BinaryFormat(String event) {
+            this.event = event;
+        }
+
+        @Override
+        public byte[] encode(int events) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            MessageWriter writer = new MessageWriter(bytes);
+            for (int i = 0; i < events; i++) {
+                switch (event) {
+                    case "MOUSE_MOVE":
+                        writer.send(Protocol.MOUSE_MOVE, i % 1920, i % 1080);
+                        break;
+                    case "KEY_PRESS":
+                        writer.send(Protocol.KEY_PRESS, 65 + i % 26);
+                        break;
+                    default:
+                        writer.send(Protocol.CHAT_MESSAGE, "message " + i);
+                        break;
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public void decode(byte[] data, int events) throws IOException {
+            MessageReader reader = new MessageReader(new ByteArrayInputStream(data));
+            for (int i = 0; i < events; i++) {
+                switch (reader.next()) {
+                    case Protocol.MOUSE_MOVE:
+                        reader.payload().readInt();
+                        reader.payload().readInt();
+                        break;
+                    case Protocol.KEY_PRESS:
+                        reader.payload().readInt();
+                        break;
+                    default:
+                        reader.payload().readUTF();
+                        break;
+                }
+            }
+        }
+    }
+}
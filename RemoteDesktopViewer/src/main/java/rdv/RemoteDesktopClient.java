@@ -0,0 +1,598 @@
+// RemoteDesktopClient.java
+package rdv;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteDesktopClient extends JFrame implements MouseListener, MouseMotionListener, KeyListener {
+    private static MessageWriter writer;
+    private static MessageReader reader;
+    private static Socket socket;
+    private static ScreenCanvas screenCanvas;
+    private static JTextArea chatArea;
+    private static JTextField chatInput;
+    private static final long INPUT_FLUSH_INTERVAL_MS = 15;
+    private static final int STATS_INTERVAL_MS = 1000;
+    private static final int[] ZOOM_PERCENTS = {25, 50, 75, 100, 150, 200};
+    private static final ExecutorService fileTransfers = Executors.newSingleThreadExecutor();
+    private static final ScheduledExecutorService inputFlusher = Executors.newSingleThreadScheduledExecutor();
+    private volatile InputBatcher inputBatcher; // Coalesces mouse motion and batches input events
+    private ScheduledFuture<?> inputFlush;
+    private volatile boolean receivingScreen = false; // Flag to control screen updates
+    private final FrameDecoder frameDecoder;
+    private Rectangle reportedViewport; // Last VIEWPORT sent, in remote screen pixels
+    private double reportedZoom;
+    // Tiles kept across frames and sessions, -Drdv.tileCache=<dir> (off to disable), -Drdv.tileCacheBytes=<n>
+    private static final String TILE_CACHE_DIR = System.getProperty("rdv.tileCache",
+            System.getProperty("user.home") + File.separator + ".rdv" + File.separator + "tile-cache");
+    private static final int TILE_CACHE_BYTES = Integer.getInteger("rdv.tileCacheBytes", 32 << 20);
+    private TileCache tileCache; // Loaded on the first connect, null if disabled
+    private volatile boolean tileCacheMissReported;
+    private static final long LOCAL_POINTER_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private final Map<Integer, CursorShape> cursorShapes = new HashMap<>(); // By id, receive thread only
+    private volatile Point localPointer; // Last position the user moved the remote pointer to
+    private volatile long localPointerNanos;
+
+    private static final Metrics metrics = Metrics.global();
+    private static final Metrics.Histogram frameBytes = metrics.histogram("rdv_client_frame_bytes",
+            "Bytes per screen frame received", Metrics.SIZE_BYTES, 1);
+    private static final Metrics.Histogram decodeTime = metrics.histogram("rdv_client_decode_seconds",
+            "Time to decode a frame", Metrics.LATENCY_SECONDS, Metrics.NANOS);
+    private final StatsOverlay statsOverlay = new StatsOverlay();
+    // Values at the previous overlay update, for per-second rates
+    private Metrics.Snapshot lastFrameBytes = frameBytes.snapshot();
+    private Metrics.Snapshot lastDecodeTime = decodeTime.snapshot();
+    private long lastInputEvents;
+    private long lastFileBytes;
+    private long lastStatsNanos = System.nanoTime();
+
+    public RemoteDesktopClient() {
+        setTitle("Remote Desktop Client");
+        setSize(1000, 700);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setLayout(new BorderLayout());
+
+        screenCanvas = new ScreenCanvas();
+        screenCanvas.addMouseListener(this);
+        screenCanvas.addMouseMotionListener(this);
+        JScrollPane screenScroll = new JScrollPane(screenCanvas);
+        // Fires on scrolling, window resizes and zoom changes alike.
+        screenScroll.getViewport().addChangeListener(e -> reportViewport());
+        add(new JLayer<JComponent>(screenScroll, statsOverlay), BorderLayout.CENTER);
+        frameDecoder = new FrameDecoder(screenCanvas, new FrameDecoder.Listener() {
+            @Override
+            public void frameDecoded(long seq, long sentAt, int decodeMicros) {
+                acknowledgeFrame(seq, sentAt, decodeMicros);
+            }
+
+            @Override
+            public void frameFailed(long seq) {
+                requestKeyframe(seq);
+            }
+        });
+        metrics.counter("rdv_client_frames_rendered_total", "Frames painted", screenCanvas::framesRendered);
+        metrics.counter("rdv_client_frames_dropped_total", "Decoded frames replaced before they were painted",
+                screenCanvas::framesDropped);
+        metrics.registerMBean("rdv:type=ClientMetrics");
+        try {
+            MetricsServer.fromSystemProperties(metrics, System.out::println);
+        } catch (IOException e) {
+            System.err.println("Metrics endpoint not started: " + e.getMessage());
+        }
+        new Timer(STATS_INTERVAL_MS, e -> showStreamStatistics()).start();
+
+        chatArea = new JTextArea();
+        chatArea.setEditable(false);
+        chatInput = new JTextField();
+        JButton sendButton = new JButton("Send");
+        sendButton.addActionListener(e -> sendChat());
+
+        JPanel chatPanel = new JPanel(new BorderLayout());
+        chatPanel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
+        JPanel inputPanel = new JPanel(new BorderLayout());
+        inputPanel.add(chatInput, BorderLayout.CENTER);
+        inputPanel.add(sendButton, BorderLayout.EAST);
+        chatPanel.add(inputPanel, BorderLayout.SOUTH);
+        chatPanel.setPreferredSize(new Dimension(250, 0));
+        add(chatPanel, BorderLayout.EAST);
+
+        JButton connectButton = new JButton("Connect");
+        JButton screenshotButton = new JButton("Get Screen"); // Changed button text
+        JButton fileButton = new JButton("Send File");
+        JButton playbackButton = new JButton("Play Recording");
+        JComboBox<String> zoomBox = new JComboBox<>();
+        for (int percent : ZOOM_PERCENTS) {
+            zoomBox.addItem(percent + "%");
+        }
+        zoomBox.setSelectedItem("100%");
+        zoomBox.setFocusable(false);
+        JCheckBox statsBox = new JCheckBox("Stats", true);
+        statsBox.setFocusable(false);
+
+        JPanel bottomPanel = new JPanel();
+        bottomPanel.add(connectButton);
+        bottomPanel.add(screenshotButton);
+        bottomPanel.add(fileButton);
+        bottomPanel.add(playbackButton);
+        bottomPanel.add(zoomBox);
+        bottomPanel.add(statsBox);
+        add(bottomPanel, BorderLayout.SOUTH);
+
+        connectButton.addActionListener(e -> connect());
+        screenshotButton.addActionListener(e -> toggleScreenUpdates()); // Changed action
+        fileButton.addActionListener(e -> sendFile());
+        playbackButton.addActionListener(e -> openRecording());
+        zoomBox.addActionListener(e -> screenCanvas.setZoom(ZOOM_PERCENTS[zoomBox.getSelectedIndex()] / 100.0));
+        statsBox.addActionListener(e -> statsOverlay.setShown(statsBox.isSelected()));
+
+        addKeyListener(this);
+        setFocusable(true);
+        requestFocusInWindow();
+        setVisible(true);
+    }
+
+    public static void main(String[] args) {
+        new RemoteDesktopClient();
+    }
+
+    private void connect() {
+        try {
+            String serverIP = JOptionPane.showInputDialog("Enter Server IP:");
+            String password = JOptionPane.showInputDialog("Enter Password:");
+
+            socket = new Socket(serverIP, Protocol.PORT);
+            socket.setTcpNoDelay(true);
+            socket.setSendBufferSize(OutboundQueue.SEND_BUFFER_SIZE);
+            // One writer thread sends input, chat, acknowledgements and file chunks in priority order.
+            OutboundQueue outbound = new OutboundQueue();
+            outbound.start(new BufferedOutputStream(socket.getOutputStream()), "socket-writer");
+            writer = new MessageWriter(outbound);
+            reader = new MessageReader(new BufferedInputStream(socket.getInputStream()));
+
+            writer.send(Protocol.AUTH, out -> {
+                out.writeByte(Protocol.VERSION);
+                out.writeUTF(password);
+                int[] codecs = FrameCodec.configured();
+                out.writeByte(codecs.length);
+                for (int codec : codecs) {
+                    out.writeByte(codec);
+                }
+            });
+            byte reply = reader.next();
+
+            if (reply == Protocol.AUTH_SUCCESS) {
+                int codec = reader.payloadLength() > 0 ? reader.payload().readUnsignedByte() : Protocol.CODEC_JPEG;
+                frameDecoder.setCodec(codec);
+                JOptionPane.showMessageDialog(this, "Connected! (" + FrameCodec.name(codec) + " codec)");
+                announceTileCache();
+                inputBatcher = new InputBatcher(writer);
+                inputFlush = inputFlusher.scheduleAtFixedRate(this::flushInput,
+                        INPUT_FLUSH_INTERVAL_MS, INPUT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                new Thread(this::receiveResponses).start();
+            } else {
+                String reason = reply == Protocol.AUTH_FAILED ? reader.payload().readUTF() : "Authentication Failed!";
+                JOptionPane.showMessageDialog(this, reason);
+                closeConnection();
+            }
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "Connection Error: " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    // Tells the server which tiles are cached here, so it can send references to them instead.
+    private void announceTileCache() throws IOException {
+        if (tileCache == null && !TILE_CACHE_DIR.equals("off")) {
+            try {
+                tileCache = TileCache.load(tileCacheFile(), TILE_CACHE_BYTES);
+                Runtime.getRuntime().addShutdownHook(new Thread(this::saveTileCache, "tile-cache-saver"));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Tile cache not available: " + e.getMessage());
+                return;
+            }
+        }
+        if (tileCache != null) {
+            tileCacheMissReported = false;
+            writer.send(Protocol.TILE_CACHE, tileCache::writeIndex);
+        }
+    }
+
+    // A referenced tile was not in the cache. The server resets both caches; report it once until then.
+    private void reportTileCacheMiss(int missing) {
+        if (tileCacheMissReported) {
+            return;
+        }
+        tileCacheMissReported = true;
+        System.err.println(missing + " tiles missing from the tile cache, asking the server for a reset");
+        try {
+            writer.send(Protocol.TILE_CACHE_MISS);
+        } catch (IOException e) {
+            // The receive loop notices the broken connection
+        }
+    }
+
+    private void saveTileCache() {
+        TileCache cache = tileCache;
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.save(tileCacheFile());
+        } catch (IOException e) {
+            System.err.println("Could not save the tile cache: " + e.getMessage());
+        }
+    }
+
+    private static Path tileCacheFile() {
+        return Paths.get(TILE_CACHE_DIR, "tiles.bin");
+    }
+
+    private void toggleScreenUpdates() {
+        receivingScreen = !receivingScreen;
+        try {
+            writer.send(receivingScreen ? Protocol.START_SCREEN_STREAM : Protocol.STOP_SCREEN_STREAM);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (receivingScreen) {
+            setTitle("Remote Desktop Client - Streaming");
+            reportedViewport = null;
+            reportViewport();
+        } else {
+            setTitle("Remote Desktop Client");
+            screenCanvas.clear(); // Clear the screen when stopping
+        }
+    }
+
+    private void getScreen() { // This method is no longer directly used by a button
+        try {
+            writer.send(Protocol.GET_SCREEN);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Tells the server which part of the remote screen is visible, so it only streams that part.
+    private void reportViewport() {
+        MessageWriter out = writer;
+        if (out == null || !receivingScreen) {
+            return;
+        }
+        Rectangle visible = screenCanvas.visibleRemoteRect();
+        double zoom = screenCanvas.zoom();
+        if (visible.isEmpty() || (visible.equals(reportedViewport) && zoom == reportedZoom)) {
+            return;
+        }
+        reportedViewport = visible;
+        reportedZoom = zoom;
+        try {
+            out.send(Protocol.VIEWPORT, payload -> {
+                payload.writeInt(visible.x);
+                payload.writeInt(visible.y);
+                payload.writeInt(visible.width);
+                payload.writeInt(visible.height);
+                payload.writeFloat((float) zoom);
+            });
+        } catch (IOException e) {
+            // The receive loop notices the broken connection
+        }
+    }
+
+    private void sendChat() {
+        try {
+            String msg = chatInput.getText().trim();
+            if (!msg.isEmpty()) {
+                writer.send(Protocol.CHAT_MESSAGE, msg);
+                chatArea.append("You: " + msg + "\n");
+                chatInput.setText("");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sendFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (writer == null || chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        FileSender sender = new FileSender(writer, file.toPath());
+        chatArea.append("Sending file: " + file.getName() + "\n");
+        // Stream the file off the EDT; chunks interleave with input and chat on the same connection.
+        fileTransfers.submit(() -> {
+            try {
+                long resumedFrom = sender.send();
+                String sent = "File sent: " + file.getName()
+                        + (resumedFrom > 0 ? " (resumed at " + resumedFrom + " bytes)" : "") + "\n";
+                SwingUtilities.invokeLater(() -> chatArea.append(sent));
+            } catch (IOException e) {
+                String failed = "File transfer failed: " + file.getName() + ": " + e.getMessage() + "\n";
+                SwingUtilities.invokeLater(() -> chatArea.append(failed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void openRecording() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Open session recording");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File directory = chooser.getSelectedFile();
+        try {
+            new SessionPlayer(SessionRecording.open(directory.toPath()), directory.getName());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Cannot open recording: " + e.getMessage());
+        }
+    }
+
+    private void receiveResponses() {
+        try {
+            while (true) {
+                byte opcode = reader.next();
+                DataInputStream payload = reader.payload();
+                switch (opcode) {
+                    case Protocol.SCREEN_TILES:
+                        // The tiles are read even when the screen isn't shown, to keep the tile cache in step
+                        // with the server's copy.
+                        FrameDecoder.EncodedFrame frame = frameDecoder.acquire();
+                        frame.seq = payload.readLong();
+                        frame.sentAt = payload.readLong();
+                        frame.screenWidth = payload.readInt();
+                        frame.screenHeight = payload.readInt();
+                        frame.region.setBounds(payload.readInt(), payload.readInt(),
+                                payload.readInt(), payload.readInt());
+                        frame.width = payload.readInt();
+                        frame.height = payload.readInt();
+                        int flags = payload.readUnsignedByte();
+                        frame.keyframe = (flags & Protocol.FRAME_KEYFRAME) != 0;
+                        if ((flags & Protocol.FRAME_CACHE_RESET) != 0 && tileCache != null) {
+                            tileCache.clear();
+                            tileCacheMissReported = false;
+                        }
+                        frame.readTiles(payload, tileCache);
+                        if (frame.missingTiles > 0) {
+                            reportTileCacheMiss(frame.missingTiles);
+                        }
+                        if (!receivingScreen) {
+                            acknowledgeFrame(frame.seq, frame.sentAt, 0);
+                            frameDecoder.release(frame);
+                            break;
+                        }
+                        frameBytes.record(reader.payloadLength());
+                        frameDecoder.submit(frame);
+                        break;
+
+                    case Protocol.CURSOR_SHAPE:
+                        CursorShape shape = CursorShape.read(payload);
+                        cursorShapes.put(shape.id, shape);
+                        break;
+
+                    case Protocol.CURSOR_POSITION:
+                        int cursorX = payload.readInt();
+                        int cursorY = payload.readInt();
+                        showRemoteCursor(cursorX, cursorY, payload.readInt());
+                        break;
+
+                    case Protocol.CHAT_MESSAGE:
+                        String chatMsg = payload.readUTF();
+                        chatArea.append(chatMsg + "\n");
+                        break;
+
+                    case Protocol.FILE_ACK:
+                        int transferId = payload.readInt();
+                        long offset = payload.readLong();
+                        FileSender.acknowledge(transferId, offset, payload.readBoolean());
+                        break;
+
+                    case Protocol.FILE_RECEIVED:
+                        chatArea.append("Server confirmed file received: " + payload.readUTF() + "\n");
+                        break;
+
+                    case Protocol.SERVER_CLOSED:
+                        chatArea.append("Server has closed the connection.\n");
+                        closeConnection();
+                        return;
+                }
+            }
+        } catch (IOException e) {
+            chatArea.append("Disconnected from server: " + e.getMessage() + "\n");
+            e.printStackTrace();
+            closeConnection();
+        } catch (InterruptedException e) {
+            closeConnection();
+        }
+    }
+
+    // The server reports where its pointer is. Right after the user moved the mouse here the pointer
+    // stays where the local events put it and only takes the shape from the server, so it doesn't
+    // jump back to positions from before input that is still on its way.
+    private void showRemoteCursor(int x, int y, int shapeId) {
+        if (!receivingScreen) {
+            return;
+        }
+        CursorShape shape = shapeId != 0 ? cursorShapes.get(shapeId) : null;
+        Point local = localPointer;
+        if (shape != null && local != null && System.nanoTime() - localPointerNanos < LOCAL_POINTER_NANOS) {
+            screenCanvas.setRemoteCursor(shape, local.x, local.y);
+        } else {
+            screenCanvas.setRemoteCursor(shape, x, y);
+        }
+    }
+
+    // Called by the decoder once a frame is on screen (or skipped), with its decode time.
+    private void acknowledgeFrame(long seq, long sentAt, int decodeMicros) {
+        MessageWriter out = writer;
+        if (out == null) {
+            return;
+        }
+        try {
+            out.send(Protocol.FRAME_ACK, payload -> {
+                payload.writeLong(seq);
+                payload.writeLong(sentAt);
+                payload.writeInt(decodeMicros);
+            });
+        } catch (IOException e) {
+            // The receive loop notices the broken connection
+        }
+    }
+
+    // Called by the decoder when a frame could not be decoded. The TILE_CACHE_MISS reset brings the keyframe
+    // the canvas now waits for, and also empties the tile cache in case a cached tile was what failed.
+    private void requestKeyframe(long seq) {
+        MessageWriter out = writer;
+        if (out == null) {
+            return;
+        }
+        System.err.println("Frame " + seq + " could not be decoded, asking the server for a keyframe");
+        try {
+            out.send(Protocol.TILE_CACHE_MISS);
+        } catch (IOException e) {
+            // The receive loop notices the broken connection
+        }
+    }
+
+    private void showStreamStatistics() {
+        String statistics = frameDecoder.statistics();
+        if (receivingScreen) {
+            setTitle("Remote Desktop Client - Streaming | " + statistics);
+        }
+        updateOverlay();
+    }
+
+    private void updateOverlay() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastStatsNanos) / 1e9);
+        Metrics.Snapshot bytes = frameBytes.snapshot();
+        Metrics.Snapshot decode = decodeTime.snapshot();
+        Metrics.Snapshot bytesDelta = bytes.minus(lastFrameBytes);
+        Metrics.Snapshot decodeDelta = decode.minus(lastDecodeTime);
+        long inputEvents = InputBatcher.EVENTS_OBSERVED.sum();
+        long fileBytes = FileSender.BYTES_SENT.sum();
+        if (receivingScreen) {
+            statsOverlay.setLines(
+                    String.format("%.0f fps  decode p50 %.1f ms  p99 %.1f ms", decodeDelta.count() / seconds,
+                            decodeDelta.quantile(0.5) * 1000, decodeDelta.quantile(0.99) * 1000),
+                    String.format("in %.2f MB/s  %.1f KB/frame", bytesDelta.sum() / seconds / 1e6,
+                            bytesDelta.mean() / 1024),
+                    String.format("input %.0f events/s  files out %.2f MB/s",
+                            (inputEvents - lastInputEvents) / seconds, (fileBytes - lastFileBytes) / seconds / 1e6));
+        } else {
+            statsOverlay.setLines();
+        }
+        lastFrameBytes = bytes;
+        lastDecodeTime = decode;
+        lastInputEvents = inputEvents;
+        lastFileBytes = fileBytes;
+        lastStatsNanos = now;
+    }
+
+    private void flushInput() {
+        InputBatcher batcher = inputBatcher;
+        if (batcher != null) {
+            try {
+                batcher.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeConnection();
+            }
+        }
+    }
+
+    private void closeConnection() {
+        receivingScreen = false;
+        inputBatcher = null;
+        if (inputFlush != null) {
+            inputFlush.cancel(false);
+            inputFlush = null;
+        }
+        if (writer != null) {
+            try {
+                writer.send(Protocol.DISCONNECT);
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (socket != null && socket.isConnected()) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        writer = null;
+        reader = null;
+        socket = null;
+        setTitle("Remote Desktop Client - Disconnected");
+        screenCanvas.clear();
+        saveTileCache();
+    }
+
+    @Override public void mouseClicked(MouseEvent e) {}
+    @Override public void mousePressed(MouseEvent e) {
+        InputBatcher batcher = inputBatcher;
+        if (batcher != null) {
+            Point remote = screenCanvas.toRemote(e.getX(), e.getY());
+            batcher.mouseMoved(remote.x, remote.y);
+            batcher.mousePressed(e.getButton());
+        }
+    }
+    @Override public void mouseReleased(MouseEvent e) {
+        InputBatcher batcher = inputBatcher;
+        if (batcher != null) {
+            Point remote = screenCanvas.toRemote(e.getX(), e.getY());
+            batcher.mouseMoved(remote.x, remote.y);
+            batcher.mouseReleased(e.getButton());
+        }
+    }
+    @Override public void mouseEntered(MouseEvent e) {}
+    @Override public void mouseExited(MouseEvent e) {}
+
+    @Override public void mouseDragged(MouseEvent e) {
+        mouseMoved(e);
+    }
+    @Override public void mouseMoved(MouseEvent e) {
+        InputBatcher batcher = inputBatcher;
+        if (batcher != null) {
+            Point remote = screenCanvas.toRemote(e.getX(), e.getY());
+            // Draw the pointer at once instead of waiting for the server to report the move
+            localPointer = remote;
+            localPointerNanos = System.nanoTime();
+            screenCanvas.moveRemoteCursor(remote.x, remote.y);
+            batcher.mouseMoved(remote.x, remote.y);
+        }
+    }
+
+    @Override public void keyTyped(KeyEvent e) {}
+    @Override public void keyPressed(KeyEvent e) {
+        InputBatcher batcher = inputBatcher;
+        if (batcher != null) {
+            batcher.keyPressed(e.getKeyCode());
+        }
+    }
+    @Override public void keyReleased(KeyEvent e) {}
+}
\ No newline at end of file
@@ -0,0 +1,680 @@
+package rdv;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.*;
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RemoteDesktopServer {
+    private static final int PORT = Protocol.PORT;
+    private static final String AUTH_PASSWORD = "admin123";
+    private static final int KEYFRAME_INTERVAL = 50;
+    private static final long FRAME_INTERVAL_MS = 100;
+    private static final long STATUS_INTERVAL_MS = 5000;
+    private static final long PUMP_INTERVAL_MS = 10;
+    private static final long CURSOR_INTERVAL_MS = 10;
+    private static final int[] SUPPORTED_CODECS = FrameCodec.configured();
+    private static SessionLog sessionLog;
+    private static JTextArea serverChatArea;
+    private static JTextField serverChatInput;
+    private static final Set<ClientHandler> connectedClients = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger nextClientId = new AtomicInteger(1);
+    private static final Metrics metrics = Metrics.global();
+    private static final Metrics.Histogram frameBytes = metrics.histogram("rdv_frame_bytes",
+            "Encoded tile bytes per frame sent", Metrics.SIZE_BYTES, 1);
+    private static final Metrics.Counter tilesMoved = metrics.counter("rdv_tiles_moved_total",
+            "Changed tiles a client rebuilt from a copy-rectangle instead of receiving them");
+    private static final Metrics.Counter moveSavedBytes = metrics.counter("rdv_move_saved_bytes_total",
+            "Encoded tile bytes not sent because a copy-rectangle reproduced the tiles");
+    private static final Metrics.Counter tilesCached = metrics.counter("rdv_tiles_cached_total",
+            "Tiles sent as a reference to the client's tile cache");
+    private static final Metrics.Counter cacheSavedBytes = metrics.counter("rdv_tile_cache_saved_bytes_total",
+            "Encoded tile bytes not sent because the client had the tile cached");
+    private static final ScreenBroadcaster broadcaster = new ScreenBroadcaster(FRAME_INTERVAL_MS, RemoteDesktopServer::log);
+    private static final CursorTracker cursorTracker = new CursorTracker(broadcaster, CURSOR_INTERVAL_MS);
+    private static final Metrics.Counter cursorUpdates = metrics.counter("rdv_cursor_updates_total",
+            "Pointer positions sent to clients");
+    private static final ScheduledExecutorService streamScheduler = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "screen-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void main(String[] args) throws Exception {
+        sessionLog = SessionLog.fromSystemProperties();
+        metrics.gauge("rdv_clients", "Connected clients", connectedClients::size);
+        metrics.registerMBean("rdv:type=ServerMetrics");
+        MetricsServer metricsServer = MetricsServer.fromSystemProperties(metrics, RemoteDesktopServer::log);
+        SessionRecorder recorder = SessionRecorder.fromSystemProperties(RemoteDesktopServer::log);
+        // Closing the window exits the VM; write out whatever is still queued first.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (recorder != null) {
+                recorder.close();
+            }
+            sessionLog.close();
+        }));
+        if (recorder != null) {
+            broadcaster.setRecorder(recorder);
+            audit("Recording shared screen to " + recorder.directory()
+                    + " (" + FrameCodec.name(recorder.codec()) + " codec)");
+        }
+
+        if (!GraphicsEnvironment.isHeadless()) {
+            createWindow();
+        }
+
+        String engineName = System.getProperty("rdv.engine", "blocking");
+        try (ServerEngine engine = createEngine(engineName, PORT)) {
+            audit("Server started on port " + PORT + " (" + engineName + " engine)");
+            engine.serve();
+        } catch (IOException e) {
+            log("Server error: " + e.getMessage());
+        } finally {
+            audit("Server shutdown.");
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+            sessionLog.close();
+        }
+    }
+
+    private static void createWindow() {
+        JFrame serverFrame = new JFrame("Remote Desktop Server");
+        serverFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        serverFrame.setSize(600, 400);
+        serverFrame.setLayout(new BorderLayout());
+
+        serverChatArea = new JTextArea();
+        serverChatArea.setEditable(false);
+        JScrollPane chatScrollPane = new JScrollPane(serverChatArea);
+        chatScrollPane.setBorder(new EmptyBorder(5, 5, 5, 5));
+        serverFrame.add(chatScrollPane, BorderLayout.CENTER);
+
+        JPanel inputPanel = new JPanel(new BorderLayout());
+        serverChatInput = new JTextField();
+        inputPanel.add(serverChatInput, BorderLayout.CENTER);
+        JButton sendButton = new JButton("Send");
+        sendButton.addActionListener(e -> sendMessageToAllClients(serverChatInput.getText()));
+        inputPanel.add(sendButton, BorderLayout.EAST);
+        inputPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
+        serverFrame.add(inputPanel, BorderLayout.SOUTH);
+
+        serverFrame.setVisible(true);
+    }
+
+    static ServerEngine createEngine(String name, int port) {
+        ServerEngine.SessionFactory sessions = connection -> {
+            audit("Client connected: " + connection.address().getHostAddress());
+            ClientHandler clientHandler = new ClientHandler(connection);
+            connectedClients.add(clientHandler);
+            return clientHandler;
+        };
+        switch (name) {
+            case "blocking":
+                return new BlockingServer(port, sessions);
+            case "nio":
+                return new NioServer(port, sessions);
+            default:
+                throw new IllegalArgumentException("Unknown server engine: " + name);
+        }
+    }
+
+    private static void sendMessageToAllClients(String message) {
+        if (!message.trim().isEmpty()) {
+            broadcastChat(message);
+            showChat("Server (You): " + message);
+            serverChatInput.setText("");
+            log("Sent chat message to all clients: " + message);
+        }
+    }
+
+    // Sends a chat line from the server to every connected client. Never waits for a client, so the event
+    // dispatch thread may call it.
+    static void broadcastChat(String message) {
+        for (ClientHandler client : connectedClients) {
+            client.sendMessage("Server: " + message);
+        }
+    }
+
+    private static void showChat(String line) {
+        if (serverChatArea != null) {
+            SwingUtilities.invokeLater(() -> serverChatArea.append(line + "\n"));
+        }
+    }
+
+    static void log(String msg) {
+        SessionLog log = sessionLog;
+        if (log != null) {
+            log.log(msg);
+        } else {
+            System.out.println(new Date() + ": " + msg);
+        }
+    }
+
+    // Security-relevant events; never dropped when the log queue overflows.
+    static void audit(String msg) {
+        SessionLog log = sessionLog;
+        if (log != null) {
+            log.audit(msg);
+        } else {
+            System.out.println(new Date() + ": " + msg);
+        }
+    }
+
+    static void count(String counter) {
+        SessionLog log = sessionLog;
+        if (log != null) {
+            log.count(counter);
+        }
+    }
+
+    private static class ClientHandler implements ServerEngine.Session, CursorTracker.Listener {
+        private final ServerEngine.Connection connection;
+        private final InetAddress address;
+        private final MessageWriter writer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final FileReceiver fileReceiver;
+        private final String metricsLabel;
+        private final Metrics.Counter framesSent;
+        private final Metrics.Counter framesDropped;
+        private boolean authenticated;
+        private Robot robot;
+        private InputReplayer inputReplayer;
+        private int codec = Protocol.CODEC_JPEG;
+        private volatile StreamView view = StreamView.full(Protocol.CODEC_JPEG);
+        private volatile boolean streamingScreen = false;
+        private Thread senderThread;
+        private ScheduledFuture<?> streamTask;
+        private long lastStreamedSeq;
+        private long lastStatusMillis;
+        private final AdaptiveStreamController streamController = new AdaptiveStreamController(FRAME_INTERVAL_MS);
+        private volatile boolean keyframeRequested = true;
+        private long[] sentVersions;
+        private int sentWidth;
+        private int sentHeight;
+        private Rectangle sentRegion;
+        private long sentSeq;
+        private int framesSinceKeyframe;
+        private final Set<Integer> sentCursorShapes = new HashSet<>();
+        private TileCache tileCache; // Mirror of the client's tile cache, if it announced one
+        private boolean tileCacheReset;
+
+        public ClientHandler(ServerEngine.Connection connection) {
+            this.connection = connection;
+            this.address = connection.address();
+            this.writer = connection.writer();
+            this.fileReceiver = new FileReceiver(writer, RemoteDesktopServer::log, address.toString());
+            // Several clients may share an address, so the series are labelled with a connection number too.
+            metricsLabel = address.getHostAddress() + "-" + nextClientId.getAndIncrement();
+            framesSent = metrics.counter("rdv_frames_sent_total", "Screen frames sent", "client", metricsLabel);
+            framesDropped = metrics.counter("rdv_frames_dropped_total",
+                    "Captured frames a slow client skipped", "client", metricsLabel);
+            metrics.gauge("rdv_write_queue_depth", "Messages waiting for the socket", "client", metricsLabel,
+                    connection::pendingWrites);
+        }
+
+        // Called on the event dispatch thread and the engine's threads, neither of which may wait on one
+        // client's queue. A client whose chat queue is full has stopped reading; it is dropped off the
+        // scheduler, since closing waits for the writer to drain.
+        public void sendMessage(String message) {
+            try {
+                if (!writer.trySend(Protocol.CHAT_MESSAGE, message)) {
+                    log("Chat queue to " + address + " is full; disconnecting");
+                    streamScheduler.execute(this::closeConnection);
+                }
+            } catch (IOException e) {
+                log("Error sending message to client " + address + ": " + e.getMessage());
+               
+            }
+        }
+
+        // Replies from the engine's threads never wait for queue room; throwing makes the engine drop a
+        // peer that has let its queue fill up instead of stalling a thread other clients share.
+        private void reply(byte opcode, MessageWriter.Payload body) throws IOException {
+            if (!writer.trySend(opcode, body)) {
+                throw new IOException("Write queue to " + address + " is full");
+            }
+        }
+
+        @Override
+        public void onMessage(byte opcode, DataInputStream payload) throws IOException {
+            if (!authenticated) {
+                authenticate(opcode, payload);
+                return;
+            }
+
+            switch (opcode) {
+                case Protocol.START_SCREEN_STREAM:
+                    streamingScreen = true;
+                    keyframeRequested = true;
+                    if (startScreenStreaming()) {
+                        startCursorUpdates();
+                    }
+                    break;
+                case Protocol.STOP_SCREEN_STREAM:
+                    streamingScreen = false;
+                    cursorTracker.unsubscribe(this);
+                    break;
+                case Protocol.FRAME_ACK:
+                    payload.readLong();
+                    long sentAt = payload.readLong();
+                    streamController.frameAcked(sentAt, payload.readInt());
+                    break;
+                case Protocol.VIEWPORT:
+                    Rectangle visible = new Rectangle(payload.readInt(), payload.readInt(),
+                            payload.readInt(), payload.readInt());
+                    changeView(visible, payload.readFloat());
+                    break;
+                case Protocol.TILE_CACHE:
+                    announceTileCache(payload);
+                    break;
+                case Protocol.TILE_CACHE_MISS:
+                    resetTileCache();
+                    break;
+                case Protocol.GET_SCREEN:
+                    keyframeRequested = true;
+                    sendScreen();
+                    break;
+                case Protocol.CHAT_MESSAGE:
+                    String msg = payload.readUTF();
+                    showChat("Client " + address + ": " + msg);
+                    log("Chat from " + address + ": " + msg);
+                    break;
+                case Protocol.MOUSE_MOVE:
+                    int x = payload.readInt();
+                    int y = payload.readInt();
+                    if (robot != null) robot.mouseMove(x, y);
+                    cursorTracker.pointerMoved(x, y);
+                    InputReplayer.EVENTS_APPLIED.increment();
+                    count("mouse moves");
+                    break;
+                case Protocol.MOUSE_CLICK:
+                    int button = payload.readInt();
+                    int mask = InputEvent.getMaskForButton(button);
+                    if (robot != null) {
+                        robot.mousePress(mask);
+                        robot.mouseRelease(mask);
+                    }
+                    InputReplayer.EVENTS_APPLIED.increment();
+                    log("Mouse click (Button " + button + ") by " + address);
+                    break;
+                case Protocol.KEY_PRESS:
+                    int key = payload.readInt();
+                    if (robot != null) {
+                        robot.keyPress(key);
+                        robot.keyRelease(key);
+                    }
+                    InputReplayer.EVENTS_APPLIED.increment();
+                    log("Key press: " + KeyEvent.getKeyText(key) + " by " + address);
+                    break;
+                case Protocol.INPUT_BATCH:
+                    inputReplayer.replay(payload);
+                    break;
+                case Protocol.FILE_OFFER:
+                    fileReceiver.offer(payload);
+                    break;
+                case Protocol.FILE_CHUNK:
+                    fileReceiver.chunk(payload);
+                    break;
+                case Protocol.FILE_COMPLETE:
+                    String filename = fileReceiver.complete(payload);
+                    if (filename != null) {
+                        audit("File received: " + filename + " from " + address);
+                    }
+                    break;
+                case Protocol.PING:
+                    long timestamp = payload.readLong();
+                    reply(Protocol.PONG, out -> out.writeLong(timestamp));
+                    break;
+                case Protocol.DISCONNECT:
+                    audit("Client disconnected: " + address);
+                    showChat("Client disconnected: " + address);
+                    closeConnection();
+                    break;
+                default:
+                    // Unknown opcodes are skipped; the length prefix already consumed their payload.
+                    break;
+            }
+        }
+
+        private void authenticate(byte opcode, DataInputStream payload) throws IOException {
+            if (opcode != Protocol.AUTH) {
+                reply(Protocol.AUTH_FAILED, out -> out.writeUTF("Expected authentication"));
+                audit("Protocol error from " + address + ": expected AUTH");
+                closeConnection();
+                return;
+            }
+            int version = payload.readUnsignedByte();
+            String password = payload.readUTF();
+            int[] offered = new int[payload.available() > 0 ? payload.readUnsignedByte() : 0];
+            for (int i = 0; i < offered.length; i++) {
+                offered[i] = payload.readUnsignedByte();
+            }
+            if (version != Protocol.VERSION) {
+                reply(Protocol.AUTH_FAILED, out -> out.writeUTF("Unsupported protocol version " + version));
+                audit("Unsupported protocol version " + version + " from " + address);
+                closeConnection();
+                return;
+            }
+            if (!AUTH_PASSWORD.equals(password)) {
+                reply(Protocol.AUTH_FAILED, out -> out.writeUTF("Authentication failed"));
+                audit("Authentication failed from " + address);
+                closeConnection();
+                return;
+            }
+
+            authenticated = true;
+            connection.authenticated();
+            codec = FrameCodec.negotiate(offered, SUPPORTED_CODECS);
+            view = StreamView.full(codec);
+            reply(Protocol.AUTH_SUCCESS, out -> out.writeByte(codec));
+            audit("Authentication successful from " + address + " (" + FrameCodec.name(codec) + " codec)");
+            showChat("Client authenticated: " + address);
+
+            try {
+                robot = new Robot();
+            } catch (AWTException e) {
+                // Chat and file transfer still work without a Robot; input events are ignored.
+                log("Error creating Robot instance for " + address + ": " + e.getMessage());
+                sendMessage("Error: Remote control features are not available on this server.");
+            }
+            inputReplayer = new InputReplayer(robot, RemoteDesktopServer::log, address.toString()) {
+                @Override
+                protected void apply(int type, int first, int second) {
+                    super.apply(type, first, second);
+                    if (type == Protocol.INPUT_MOUSE_MOVE) {
+                        cursorTracker.pointerMoved(first, second);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void onDisconnect(IOException cause) {
+            if (cause != null && !closed.get()) {
+                log("Client error from " + address + ": " + cause.getMessage());
+                showChat("Client " + address + " connection error.");
+            }
+            closeConnection();
+        }
+
+        // Returns whether the stream is running, i.e. it was started or already ran.
+        private synchronized boolean startScreenStreaming() {
+            if ((senderThread != null && senderThread.isAlive()) || streamTask != null) {
+                return true;
+            }
+            try {
+                broadcaster.subscribe(streamController, view);
+            } catch (IOException e) {
+                log("Error starting screen capture for " + address + ": " + e.getMessage());
+                streamingScreen = false;
+                return false;
+            }
+            lastStreamedSeq = 0;
+            lastStatusMillis = System.currentTimeMillis();
+            if (connection.sharedEngineThreads()) {
+                // A shared scheduler pumps every stream, so frames are only offered to the queue: a viewer
+                // whose frame queue is full skips frames until it catches up, without waiting for it.
+                streamTask = streamScheduler.scheduleWithFixedDelay(this::pumpFrame, 0, PUMP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return true;
+            }
+            senderThread = new Thread(() -> {
+                try {
+                    while (!closed.get() && streamingScreen) {
+                        streamController.awaitSendWindow();
+                        TileEncoder.Frame frame = broadcaster.awaitFrame(view, lastStreamedSeq, 500);
+                        if (frame != null) {
+                            streamFrame(frame, true);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    log("Error sending screen to " + address + ": " + e.getMessage());
+                    closeConnection();
+                } finally {
+                    broadcaster.unsubscribe(streamController);
+                }
+            }, "screen-sender-" + address);
+            senderThread.start();
+            return true;
+        }
+
+        // The pointer is not part of the frames; streaming clients get it on its own channel.
+        private void startCursorUpdates() {
+            try {
+                cursorTracker.subscribe(this);
+            } catch (IOException e) {
+                log("Error tracking the pointer for " + address + ": " + e.getMessage());
+            }
+        }
+
+        // Sends the pointer position, preceded by its shape the first time this client sees it.
+        @Override
+        public void cursorChanged(Point location, CursorShape shape) {
+            // Called on the tracker thread shared by all viewers; a viewer that doesn't read its
+            // control messages misses positions rather than holding up the others.
+            try {
+                if (shape != null && !sentCursorShapes.contains(shape.id)) {
+                    if (!writer.trySend(Protocol.CURSOR_SHAPE, shape::writeTo)) {
+                        return;
+                    }
+                    sentCursorShapes.add(shape.id);
+                }
+                boolean sent = writer.trySend(Protocol.CURSOR_POSITION, out -> {
+                    out.writeInt(location != null ? location.x : 0);
+                    out.writeInt(location != null ? location.y : 0);
+                    out.writeInt(shape != null ? shape.id : 0);
+                });
+                if (sent) {
+                    cursorUpdates.increment();
+                }
+            } catch (IOException e) {
+                log("Error sending pointer to " + address + ": " + e.getMessage());
+                closeConnection();
+            }
+        }
+
+        private void pumpFrame() {
+            synchronized (this) {
+                if (!streamingScreen || closed.get()) {
+                    streamTask.cancel(false);
+                    streamTask = null;
+                    broadcaster.unsubscribe(streamController);
+                    return;
+                }
+            }
+            if (!streamController.readyToSend()) {
+                return;
+            }
+            TileEncoder.Frame frame = broadcaster.latestFrame(view);
+            if (frame == null || frame.seq <= lastStreamedSeq) {
+                return;
+            }
+            try {
+                streamFrame(frame, false);
+            } catch (IOException e) {
+                log("Error sending screen to " + address + ": " + e.getMessage());
+                closeConnection();
+            }
+        }
+
+        // Sends frame, or with wait false, leaves it for a later one if the frame queue is full.
+        private void streamFrame(TileEncoder.Frame frame, boolean wait) throws IOException {
+            if (!sendFrame(frame, wait)) {
+                return;
+            }
+            long skipped = lastStreamedSeq == 0 ? 0 : frame.seq - lastStreamedSeq - 1;
+            broadcaster.recordSent(skipped);
+            framesDropped.add(skipped);
+            lastStreamedSeq = frame.seq;
+            if (System.currentTimeMillis() - lastStatusMillis >= STATUS_INTERVAL_MS) {
+                log("Stream to " + address + ": " + streamController);
+                lastStatusMillis = System.currentTimeMillis();
+            }
+        }
+
+        private void sendScreen() {
+            try {
+                // Not worth waiting for on a shared engine thread; a stream sends the keyframe soon anyway.
+                sendFrame(broadcaster.currentFrame(view), !connection.sharedEngineThreads());
+            } catch (IOException e) {
+                log("Error sending screen to " + address + ": " + e.getMessage());
+                closeConnection();
+            }
+        }
+
+        // Streams only the part of the screen the client can see, at the scale it shows it at.
+        private void changeView(Rectangle visible, float zoom) throws IOException {
+            StreamView next = StreamView.of(codec, visible, zoom, broadcaster.screenSize());
+            if (!next.equals(view)) {
+                view = next;
+                broadcaster.changeView(streamController, next);
+                log("Viewport of " + address + ": " + next);
+            }
+        }
+
+        // The client holds these tiles; from now on they are sent to it as references. Only taken before
+        // the first frame, since the client's cache changes with every frame it receives.
+        private synchronized void announceTileCache(DataInputStream payload) throws IOException {
+            if (sentVersions != null) {
+                log("Ignoring tile cache announced mid-stream by " + address);
+                return;
+            }
+            tileCache = TileCache.readIndex(payload);
+            log("Tile cache of " + address + ": " + tileCache.size() + " tiles, "
+                    + tileCache.bytes() / 1024 + " KB of " + tileCache.capacity() / 1024 + " KB");
+        }
+
+        // The client and this mirror disagree, or the client could not decode a frame. Both start over
+        // empty from the next frame, which is a keyframe to replace whatever the client is missing.
+        private synchronized void resetTileCache() {
+            keyframeRequested = true;
+            if (tileCache == null) {
+                return;
+            }
+            log("Tile cache miss reported by " + address + ", resetting its cache");
+            tileCache.clear();
+            tileCacheReset = true;
+            keyframeRequested = true;
+        }
+
+        // Sends every tile this client has not seen at its current version, or all tiles for a keyframe.
+        // If the client holds exactly the previous capture and the frame has a move, the move is sent
+        // instead of the tiles it reproduces.
+        // Tiles the client's tile cache holds go as references; the mirror is updated in the same
+        // order as the client will update its cache.
+        // Without wait, a full frame queue leaves everything untouched and returns false. Only this
+        // method queues frames, so the queue can't fill up between the check and the send.
+        private synchronized boolean sendFrame(TileEncoder.Frame frame, boolean wait) throws IOException {
+            if (!wait && writer.isFull(Protocol.SCREEN_TILES)) {
+                return false;
+            }
+            boolean keyframe = keyframeRequested || sentVersions == null || sentWidth != frame.width
+                    || sentHeight != frame.height || !frame.region.equals(sentRegion)
+                    || framesSinceKeyframe >= KEYFRAME_INTERVAL;
+            if (keyframe) {
+                sentVersions = new long[frame.tileCount()];
+                sentWidth = frame.width;
+                sentHeight = frame.height;
+                sentRegion = frame.region;
+                keyframeRequested = false;
+                framesSinceKeyframe = 0;
+            } else {
+                framesSinceKeyframe++;
+            }
+
+            MoveDetector.Move move = !keyframe && sentSeq == frame.seq - 1 ? frame.move : null;
+            sentSeq = frame.seq;
+
+            int[] dirty = new int[frame.tileCount()];
+            boolean[] referenced = tileCache != null ? new boolean[dirty.length] : null;
+            int count = 0;
+            long bytes = 0;
+            long movedTiles = 0;
+            long movedBytes = 0;
+            long cachedTiles = 0;
+            long cachedBytes = 0;
+            for (int i = 0; i < dirty.length; i++) {
+                if (frame.versions[i] != sentVersions[i]) {
+                    sentVersions[i] = frame.versions[i];
+                    if (move != null && frame.movedOnly(i)) {
+                        movedTiles++;
+                        movedBytes += frame.tiles[i].length;
+                        continue;
+                    }
+                    int length = frame.tiles[i].length;
+                    if (referenced != null && tileCache.mirror(frame.hashes[i], length)) {
+                        referenced[count] = true;
+                        cachedTiles++;
+                        cachedBytes += length;
+                    } else {
+                        bytes += length;
+                    }
+                    dirty[count++] = i;
+                }
+            }
+            if (count == 0 && move == null) {
+                return true;
+            }
+
+            int flags = (keyframe ? Protocol.FRAME_KEYFRAME : 0) | (tileCacheReset ? Protocol.FRAME_CACHE_RESET : 0);
+            tileCacheReset = false;
+            int tileCount = count;
+            streamController.frameSent();
+            MessageWriter.Payload tiles = out -> frame.writeTiles(out, flags, move, dirty, referenced, tileCount,
+                    System.nanoTime());
+            if (wait) {
+                writer.send(Protocol.SCREEN_TILES, tiles);
+            } else if (!writer.trySend(Protocol.SCREEN_TILES, tiles)) {
+                throw new IOException("Frame queue filled up while sending a frame");
+            }
+            framesSent.increment();
+            frameBytes.record(bytes);
+            if (move != null) {
+                tilesMoved.add(movedTiles);
+                moveSavedBytes.add(movedBytes);
+            }
+            if (cachedTiles > 0) {
+                tilesCached.add(cachedTiles);
+                // A reference replaces the tile's bytes with its 8-byte hash
+                cacheSavedBytes.add(cachedBytes - cachedTiles * 8);
+            }
+            return true;
+        }
+
+        private void closeConnection() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            streamingScreen = false;
+            cursorTracker.unsubscribe(this);
+            connectedClients.remove(this);
+            metrics.remove("client", metricsLabel);
+            fileReceiver.close();
+            try {
+                writer.trySend(Protocol.SERVER_CLOSED);
+            } catch (IOException e) {
+
+            }
+            connection.close();
+            audit("Connection with " + address + " closed.");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package rdv;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Plays back a recorded frame sequence (a directory of images, in name order) at a target frame
+// rate, looping at the end. The position follows the wall clock, so the content rate stays the
+// same however often the broadcaster captures.
+public class ReplayFrameSource implements FrameSource {
+    private final List<BufferedImage> frames;
+    private final double framesPerSecond;
+    private final long start = System.nanoTime();
+
+    public ReplayFrameSource(List<BufferedImage> frames, double framesPerSecond) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("No frames to replay");
+        }
+        this.frames = frames;
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    public static ReplayFrameSource load(Path directory, double framesPerSecond) throws IOException {
+        return new ReplayFrameSource(loadFrames(directory), framesPerSecond);
+    }
+
+    // Every readable image in the directory, sorted by file name and converted to TYPE_INT_RGB.
+    public static List<BufferedImage> loadFrames(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        }
+        Collections.sort(files);
+        List<BufferedImage> frames = new ArrayList<>();
+        for (Path file : files) {
+            BufferedImage image = Files.isRegularFile(file) ? ImageIO.read(file.toFile()) : null;
+            if (image != null) {
+                frames.add(toIntRgb(image));
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("No images in " + directory);
+        }
+        return frames;
+    }
+
+    @Override
+    public BufferedImage capture() {
+        long index = (long) ((System.nanoTime() - start) / 1e9 * framesPerSecond);
+        return frames.get((int) (index % frames.size()));
+    }
+
+    @Override
+    public Dimension screenSize() {
+        return new Dimension(frames.get(0).getWidth(), frames.get(0).getHeight());
+    }
+
+    private static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+}
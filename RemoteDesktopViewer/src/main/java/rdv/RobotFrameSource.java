@@ -0,0 +1,55 @@
+package rdv;
+
+import java.awt.AWTException;
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+// The local screen, captured through java.awt.Robot. Robot captures leave the pointer out; its
+// position comes from MouseInfo. Java has no way to read the system's cursor image, so the shape is
+// always reported as the standard arrow.
+public class RobotFrameSource implements FrameSource {
+    private final Robot robot;
+    private final Rectangle screenRect;
+
+    public RobotFrameSource() throws IOException {
+        try {
+            robot = new Robot();
+        } catch (AWTException | SecurityException e) {
+            throw new IOException("Screen capture is not available: " + e.getMessage(), e);
+        }
+        screenRect = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
+    }
+
+    @Override
+    public BufferedImage capture() {
+        return robot.createScreenCapture(screenRect);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle region) {
+        return robot.createScreenCapture(region);
+    }
+
+    @Override
+    public Dimension screenSize() {
+        return screenRect.getSize();
+    }
+
+    @Override
+    public Point pointerLocation() {
+        try {
+            PointerInfo pointer = MouseInfo.getPointerInfo();
+            return pointer != null ? pointer.getLocation() : null;
+        } catch (HeadlessException | SecurityException e) {
+            return null;
+        }
+    }
+}
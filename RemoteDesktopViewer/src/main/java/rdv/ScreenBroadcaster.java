@@ -0,0 +1,265 @@
+package rdv;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Single capture-and-encode stage shared by every streaming viewer. One thread grabs the screen
+// from the FrameSource selected with -Drdv.source (the real screen by default), runs it through the
+// TileEncoder and publishes the resulting frame into a latest-frame slot.
+// Each viewer's sender pulls the newest frame when it is ready for one, so a slow viewer simply
+// skips intermediate frames instead of holding up capture or the other viewers.
+//
+// Each viewer subscribes with a StreamView (codec, visible region and resolution layer). Only the
+// bounding box of all subscribed regions is captured; it is scaled down once per capture into the
+// layers the views need (LayerPyramid), and encoded once per distinct view, with its own
+// latest-frame slot. Encoding settings are shared within a view, so its quality and scale follow the
+// most constrained of its subscribers' AdaptiveStreamControllers; frame pacing stays per viewer.
+// Frame sequence numbers count captures, so they are comparable across views and a viewer can switch
+// views, and with them layers, mid-stream.
+//
+// An optional SessionRecorder is handed every capture of the full screen in its own codec, so a
+// recording covers exactly the periods in which the screen was being shared.
+public class ScreenBroadcaster {
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final long frameIntervalMillis;
+    private final Consumer<String> log;
+    private final Map<StreamView, TileEncoder> encoders = new HashMap<>();
+    private final Map<AdaptiveStreamController, StreamView> viewers = new ConcurrentHashMap<>();
+    private final Map<StreamView, TileEncoder.Frame> latest = new ConcurrentHashMap<>();
+    private final LayerPyramid pyramid = new LayerPyramid();
+
+    private FrameSource source;
+    private volatile SessionRecorder recorder;
+    private Thread captureThread;
+    private long captures;
+
+    private final LongAdder framesCaptured = new LongAdder();
+    private final LongAdder captureNanos = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder tilesEncoded = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesSkipped = new LongAdder();
+    private final Metrics.Histogram captureTime = Metrics.global().histogram("rdv_capture_seconds",
+            "Time to capture the screen", Metrics.LATENCY_SECONDS, Metrics.NANOS);
+    private final Metrics.Histogram encodeTime = Metrics.global().histogram("rdv_encode_seconds",
+            "Time to encode one capture for every subscribed view", Metrics.LATENCY_SECONDS, Metrics.NANOS);
+
+    public ScreenBroadcaster(long frameIntervalMillis, Consumer<String> log) {
+        this.frameIntervalMillis = frameIntervalMillis;
+        this.log = log;
+        Metrics.global().gauge("rdv_stream_viewers", "Viewers subscribed to the screen stream", viewers::size);
+        Metrics.global().gauge("rdv_stream_views", "Distinct views encoded from each capture", latest::size);
+    }
+
+    public synchronized void subscribe(AdaptiveStreamController viewer, StreamView view) throws IOException {
+        ensureSource();
+        viewers.put(viewer, view);
+        if (captureThread == null) {
+            captureThread = new Thread(this::captureLoop, "screen-capture");
+            captureThread.setDaemon(true);
+            captureThread.start();
+        }
+    }
+
+    public synchronized void unsubscribe(AdaptiveStreamController viewer) {
+        viewers.remove(viewer);
+        if (viewers.isEmpty() && captureThread != null) {
+            captureThread.interrupt();
+            captureThread = null;
+        }
+    }
+
+    // Moves a subscribed viewer to another view; its frames come from the new view from the next capture.
+    public void changeView(AdaptiveStreamController viewer, StreamView view) {
+        viewers.replace(viewer, view);
+    }
+
+    public synchronized Dimension screenSize() throws IOException {
+        ensureSource();
+        return source.screenSize();
+    }
+
+    // The source frames are captured from, created on first use.
+    public synchronized FrameSource source() throws IOException {
+        ensureSource();
+        return source;
+    }
+
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public int viewerCount() {
+        return viewers.size();
+    }
+
+    // Blocks until a frame newer than afterSeq is published, returning the newest one or null on timeout.
+    public TileEncoder.Frame awaitFrame(StreamView view, long afterSeq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            TileEncoder.Frame frame = latest.get(view);
+            while (frame == null || frame.seq <= afterSeq) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(remaining);
+                frame = latest.get(view);
+            }
+            return frame;
+        }
+    }
+
+    public TileEncoder.Frame latestFrame(StreamView view) {
+        return latest.get(view);
+    }
+
+    // Returns the latest frame, capturing one on the caller's thread if nothing recent is published.
+    public synchronized TileEncoder.Frame currentFrame(StreamView view) throws IOException {
+        ensureSource();
+        if (captureThread == null || latest.get(view) == null) {
+            captureFrame(view);
+        }
+        return latest.get(view);
+    }
+
+    public void recordSent(long skipped) {
+        framesSent.increment();
+        if (skipped > 0) {
+            framesSkipped.add(skipped);
+        }
+    }
+
+    private void ensureSource() throws IOException {
+        if (source == null) {
+            String spec = System.getProperty("rdv.source", "robot");
+            try {
+                source = FrameSource.create(spec);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid rdv.source " + spec + ": " + e.getMessage(), e);
+            }
+            log.accept("Capturing frames from " + spec);
+        }
+    }
+
+    private void captureLoop() {
+        long statsStart = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long start = System.currentTimeMillis();
+                captureFrame(null);
+                if (System.nanoTime() - statsStart >= STATS_INTERVAL_NANOS) {
+                    logStats();
+                    statsStart = System.nanoTime();
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                Thread.sleep(Math.max(0, frameIntervalMillis - elapsed));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.accept("Screen capture stopped: " + e.getMessage());
+        }
+    }
+
+    // Captures the screen and encodes it for every subscribed view, plus the requested one if any.
+    private synchronized void captureFrame(StreamView requested) throws IOException {
+        Set<StreamView> views = new HashSet<>(viewers.values());
+        if (requested != null) {
+            views.add(requested);
+        }
+        SessionRecorder recorder = this.recorder;
+        StreamView recorded = recorder != null ? StreamView.full(recorder.codec()) : null;
+        if (recorded != null) {
+            views.add(recorded);
+        }
+        // Views nobody watches any more are dropped; a viewer that comes back starts a fresh encoder.
+        encoders.keySet().retainAll(views);
+        latest.keySet().retainAll(views);
+
+        Dimension screenSize = source.screenSize();
+        Rectangle bounds = null;
+        for (StreamView view : views) {
+            Rectangle region = view.region(screenSize);
+            bounds = bounds == null ? region : bounds.union(region);
+        }
+        if (bounds == null) {
+            bounds = new Rectangle(screenSize);
+        }
+
+        int depth = 0;
+        for (StreamView view : views) {
+            depth = Math.max(depth, view.layer());
+        }
+
+        long start = System.nanoTime();
+        BufferedImage screen = source.capture(bounds);
+        long captured = System.nanoTime();
+        long seq = ++captures;
+        BufferedImage[] layers = pyramid.build(screen, depth);
+        for (StreamView view : views) {
+            TileEncoder encoder = encoders.get(view);
+            if (encoder == null) {
+                encoder = new TileEncoder(view.codec());
+                encoders.put(view, encoder);
+            }
+            float quality = AdaptiveStreamController.MAX_QUALITY;
+            double scale = AdaptiveStreamController.MAX_SCALE;
+            boolean watched = false;
+            for (Map.Entry<AdaptiveStreamController, StreamView> viewer : viewers.entrySet()) {
+                if (viewer.getValue().equals(view)) {
+                    quality = Math.min(quality, viewer.getKey().quality());
+                    scale = Math.min(scale, viewer.getKey().scale());
+                    watched = true;
+                }
+            }
+            if (!watched) {
+                quality = AdaptiveStreamController.DEFAULT_QUALITY;
+            }
+            TileEncoder.Frame frame = encoder.encode(seq, layers[view.layer()], view.layer(), bounds,
+                    view.region(screenSize), screenSize, quality, scale);
+            tilesEncoded.add(frame.changedTiles);
+            latest.put(view, frame);
+            if (view.equals(recorded)) {
+                recorder.record(frame);
+            }
+        }
+        long encoded = System.nanoTime();
+        for (AdaptiveStreamController viewer : viewers.keySet()) {
+            viewer.encodeTime((encoded - captured) / 1e6);
+        }
+
+        framesCaptured.increment();
+        captureNanos.add(captured - start);
+        encodeNanos.add(encoded - captured);
+        captureTime.record(captured - start);
+        encodeTime.record(encoded - captured);
+
+        notifyAll();
+    }
+
+    private void logStats() {
+        long frames = framesCaptured.sumThenReset();
+        if (frames == 0) {
+            return;
+        }
+        log.accept(String.format("Screen broadcast: %d viewers, %d frames, capture %.1f ms/frame, "
+                        + "encode %.1f ms/frame (%d tiles/frame), %d frames sent, %d skipped by slow viewers",
+                viewers.size(), frames,
+                captureNanos.sumThenReset() / 1e6 / frames,
+                encodeNanos.sumThenReset() / 1e6 / frames,
+                tilesEncoded.sumThenReset() / frames,
+                framesSent.sumThenReset(), framesSkipped.sumThenReset()));
+    }
+}
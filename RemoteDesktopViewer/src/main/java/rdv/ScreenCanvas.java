@@ -0,0 +1,327 @@
+package rdv;
+
+import javax.swing.JComponent;
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+// Rendering surface for the remote screen. The decoder writes into a back buffer while the EDT
+// paints the front buffer; publishing a frame swaps the two under the paint lock, so the EDT never
+// sees a half-decoded frame. The buffer that just went to the back is then brought up to date by
+// copying only the regions the published frame changed, instead of redrawing the whole screen.
+//
+// Buffers are recycled through a small pool so streaming at a steady resolution allocates nothing.
+// If the decoder publishes faster than the EDT paints, only the newest frame is painted and the
+// ones in between are counted as dropped.
+//
+// The component stands for the whole remote screen at the current zoom, but a frame may cover only
+// a region of it, possibly at a lower resolution; it is drawn scaled into place and the rest of the
+// component stays blank until a frame covers it.
+//
+// The remote pointer is not part of the frames. It is drawn on top of them at its own size, and
+// moving it only repaints the area it leaves and the area it enters. While it is shown, the local
+// pointer is hidden over the canvas so the two don't sit on top of each other.
+public class ScreenCanvas extends JComponent {
+    private static final int POOL_SIZE = 4;
+
+    private final Deque<BufferedImage> pool = new ArrayDeque<>();
+    private final LongAdder framesRendered = new LongAdder();
+    private final LongAdder framesDropped = new LongAdder();
+
+    private BufferedImage front;
+    private BufferedImage back;
+    private Rectangle[] pendingDirty = new Rectangle[0];
+    private int pendingDirtyCount;
+    private boolean painted = true;
+    private final Rectangle region = new Rectangle();
+    private volatile int screenWidth;
+    private volatile int screenHeight;
+    private volatile double zoom = 1.0;
+    private CursorShape cursor;
+    private int cursorX;
+    private int cursorY;
+    private Cursor blankCursor;
+
+    public ScreenCanvas() {
+        setDoubleBuffered(true);
+        setOpaque(true);
+    }
+
+    // Returns the buffer to decode the next frame into, already holding the previous frame.
+    // Returns null if there is no previous frame of this size yet; only a keyframe may start one.
+    // Called from the decoder thread only.
+    public BufferedImage beginFrame(int width, int height, boolean keyframe) {
+        BufferedImage target;
+        BufferedImage source;
+        Rectangle[] dirty;
+        int dirtyCount;
+        synchronized (this) {
+            if (back == null || back.getWidth() != width || back.getHeight() != height) {
+                if (!keyframe) {
+                    return null;
+                }
+                release(back);
+                back = acquire(width, height);
+                pendingDirtyCount = 0;
+            }
+            target = back;
+            source = front;
+            dirty = pendingDirty;
+            dirtyCount = pendingDirtyCount;
+            pendingDirtyCount = 0;
+        }
+        if (source != null && source.getWidth() == width && source.getHeight() == height) {
+            // Catch up with the frame that was published from the other buffer.
+            int[] from = pixels(source);
+            int[] to = pixels(target);
+            for (int i = 0; i < dirtyCount; i++) {
+                Rectangle r = dirty[i];
+                for (int row = r.y; row < r.y + r.height; row++) {
+                    System.arraycopy(from, row * width + r.x, to, row * width + r.x, r.width);
+                }
+            }
+        }
+        return target;
+    }
+
+    // Drops the back buffer after a frame failed to decode into it. It holds part of that frame on top of
+    // the previous one, so nothing is published from it and beginFrame() waits for a keyframe again.
+    // Called from the decoder thread only.
+    public synchronized void abortFrame() {
+        release(back);
+        back = null;
+        pendingDirtyCount = 0;
+    }
+
+    // Makes the back buffer visible and remembers which regions changed in it. The buffer shows
+    // region of a screenWidth x screenHeight screen. The rectangles are copied, so the caller may
+    // reuse them.
+    public void publish(Rectangle[] dirty, int dirtyCount, int screenWidth, int screenHeight, Rectangle region) {
+        boolean screenResized;
+        synchronized (this) {
+            if (back == null) {
+                return;
+            }
+            if (!painted) {
+                framesDropped.increment();
+            }
+            screenResized = screenWidth != this.screenWidth || screenHeight != this.screenHeight;
+            boolean resized = front == null || front.getWidth() != back.getWidth() || front.getHeight() != back.getHeight();
+            BufferedImage previous = front;
+            front = back;
+            if (resized) {
+                // The old front has a different size; start the next back buffer from scratch.
+                release(previous);
+                back = acquire(front.getWidth(), front.getHeight());
+                pixelsCopy(front, back);
+                dirtyCount = 0;
+            } else {
+                back = previous;
+            }
+            if (pendingDirty.length < dirtyCount) {
+                pendingDirty = new Rectangle[dirtyCount];
+                for (int i = 0; i < dirtyCount; i++) {
+                    pendingDirty[i] = new Rectangle();
+                }
+            }
+            for (int i = 0; i < dirtyCount; i++) {
+                pendingDirty[i].setBounds(dirty[i]);
+            }
+            pendingDirtyCount = dirtyCount;
+            painted = false;
+            this.region.setBounds(region);
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+        }
+        if (screenResized) {
+            revalidate();
+        }
+        repaint();
+    }
+
+    // Drops the current image and the pointer; the next frame has to be a keyframe.
+    public void clear() {
+        synchronized (this) {
+            release(front);
+            release(back);
+            front = null;
+            back = null;
+            pendingDirtyCount = 0;
+            painted = true;
+        }
+        setRemoteCursor(null, 0, 0);
+        repaint();
+    }
+
+    // Shows the remote pointer with its hotspot at x, y in remote screen pixels, or hides it if shape
+    // is null. May be called from any thread.
+    public void setRemoteCursor(CursorShape shape, int x, int y) {
+        Rectangle before;
+        Rectangle after;
+        boolean shown;
+        synchronized (this) {
+            shown = cursor != null;
+            before = cursorBounds();
+            cursor = shape;
+            cursorX = x;
+            cursorY = y;
+            after = cursorBounds();
+        }
+        if (before != null) {
+            repaint(before);
+        }
+        if (after != null && !after.equals(before)) {
+            repaint(after);
+        }
+        if (shown != (shape != null) && !GraphicsEnvironment.isHeadless()) {
+            setCursor(shape != null ? blankCursor() : null);
+        }
+    }
+
+    // Moves the remote pointer, keeping its shape.
+    public void moveRemoteCursor(int x, int y) {
+        CursorShape shape;
+        synchronized (this) {
+            shape = cursor;
+        }
+        if (shape != null) {
+            setRemoteCursor(shape, x, y);
+        }
+    }
+
+    // Sets the scale the remote screen is shown at, e.g. 0.5 to show it at half size.
+    public void setZoom(double zoom) {
+        this.zoom = zoom;
+        revalidate();
+        repaint();
+    }
+
+    public double zoom() {
+        return zoom;
+    }
+
+    // The part of the remote screen currently visible in the scroll pane, in remote screen pixels.
+    public Rectangle visibleRemoteRect() {
+        Rectangle visible = getVisibleRect();
+        double z = zoom;
+        int x = (int) (visible.x / z);
+        int y = (int) (visible.y / z);
+        return new Rectangle(x, y, (int) Math.ceil((visible.x + visible.width) / z) - x,
+                (int) Math.ceil((visible.y + visible.height) / z) - y);
+    }
+
+    // Converts a point on this component to remote screen coordinates.
+    public Point toRemote(int x, int y) {
+        double z = zoom;
+        int remoteX = (int) (x / z);
+        int remoteY = (int) (y / z);
+        if (screenWidth > 0) {
+            remoteX = Math.max(0, Math.min(screenWidth - 1, remoteX));
+            remoteY = Math.max(0, Math.min(screenHeight - 1, remoteY));
+        }
+        return new Point(remoteX, remoteY);
+    }
+
+    public long framesRendered() {
+        return framesRendered.sum();
+    }
+
+    public long framesDropped() {
+        return framesDropped.sum();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension((int) Math.round(screenWidth * zoom), (int) Math.round(screenHeight * zoom));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        synchronized (this) {
+            g.setColor(getBackground());
+            if (clip != null) {
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            }
+            if (front != null) {
+                paintFront(g);
+            }
+            Rectangle pointer = cursorBounds();
+            if (pointer != null && (clip == null || clip.intersects(pointer))) {
+                g.drawImage(cursor.toImage(), pointer.x, pointer.y, null);
+            }
+        }
+    }
+
+    private void paintFront(Graphics g) {
+        double z = zoom;
+        int x = (int) Math.round(region.x * z);
+        int y = (int) Math.round(region.y * z);
+        int width = (int) Math.round((region.x + region.width) * z) - x;
+        int height = (int) Math.round((region.y + region.height) * z) - y;
+        if (width == front.getWidth() && height == front.getHeight()) {
+            g.drawImage(front, x, y, null);
+        } else {
+            g.drawImage(front, x, y, width, height, null);
+        }
+        if (!painted) {
+            painted = true;
+            framesRendered.increment();
+        }
+    }
+
+    // Where the pointer is drawn on this component, or null if it isn't.
+    private Rectangle cursorBounds() {
+        if (cursor == null) {
+            return null;
+        }
+        double z = zoom;
+        return new Rectangle((int) Math.round(cursorX * z) - cursor.hotspotX,
+                (int) Math.round(cursorY * z) - cursor.hotspotY, cursor.width, cursor.height);
+    }
+
+    private Cursor blankCursor() {
+        if (blankCursor == null) {
+            BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            blankCursor = getToolkit().createCustomCursor(image, new Point(), "remote pointer");
+        }
+        return blankCursor;
+    }
+
+    private BufferedImage acquire(int width, int height) {
+        for (BufferedImage image : pool) {
+            if (image.getWidth() == width && image.getHeight() == height) {
+                pool.remove(image);
+                return image;
+            }
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private void release(BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+        if (pool.size() == POOL_SIZE) {
+            pool.removeFirst();
+        }
+        pool.addLast(image);
+    }
+
+    private static void pixelsCopy(BufferedImage from, BufferedImage to) {
+        int[] source = pixels(from);
+        System.arraycopy(source, 0, pixels(to), 0, source.length);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
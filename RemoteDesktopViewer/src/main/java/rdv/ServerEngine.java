@@ -0,0 +1,48 @@
+package rdv;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+// Transport that accepts client connections and feeds their framed messages to a per-connection
+// Session. RemoteDesktopServer picks the implementation at startup with -Drdv.engine=blocking|nio.
+public interface ServerEngine extends Closeable {
+    // Accepts and serves connections until the engine is closed.
+    void serve() throws IOException;
+
+    interface Connection {
+        InetAddress address();
+
+        // Queues messages on the connection's OutboundQueue; any thread may send.
+        MessageWriter writer();
+
+        // True when the engine serves all connections from a few shared threads. Such a session must
+        // never wait for queue room: it pumps its stream from a shared scheduler and only offers frames,
+        // instead of parking a thread of its own on a full queue.
+        boolean sharedEngineThreads();
+
+        // Called by the session once the peer has authenticated. Until then the engine only accepts
+        // messages up to Protocol.MAX_AUTH_PAYLOAD and no FRAGMENTs, so an unauthenticated peer can't
+        // make the server allocate more than that.
+        default void authenticated() {
+        }
+
+        // Messages queued for the socket and not completely written yet.
+        int pendingWrites();
+
+        // Flushes anything already queued and closes the connection.
+        void close();
+    }
+
+    interface Session {
+        void onMessage(byte opcode, DataInputStream payload) throws IOException;
+
+        // Called once when the peer goes away or the connection fails; cause is null on a clean close.
+        void onDisconnect(IOException cause);
+    }
+
+    interface SessionFactory {
+        Session open(Connection connection);
+    }
+}
@@ -0,0 +1,256 @@
+package rdv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Asynchronous session log. Callers only append an entry to a lock-free queue; a single writer
+// thread formats the entries, writes them in batches with one flush per batch and rolls the file
+// over by size or age ("server_log.txt" is renamed to "server_log-<yyyyMMdd-HHmmss>.txt").
+//
+// Regular entries are bounded: when the queue is full they are either dropped (and the number of
+// drops reported later) or the caller waits for room, depending on the overflow policy. Audit
+// entries (authentication, connects, received files) bypass the bound and are never dropped.
+// High-rate events don't get a line each; count() aggregates them into per-second counters.
+//
+// Tunable with -Drdv.log.file=<path>, -Drdv.log.maxBytes=<n>, -Drdv.log.rollMinutes=<n>,
+// -Drdv.log.queue=<n>, -Drdv.log.overflow=drop|block and -Drdv.log.console=true|false.
+public class SessionLog implements AutoCloseable {
+    public enum Overflow { DROP, BLOCK }
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long COUNTER_INTERVAL_MILLIS = 1000;
+
+    private static class Entry {
+        final long time;
+        final String message;
+
+        Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    private final Path path;
+    private final long maxBytes;
+    private final long rollIntervalMillis;
+    private final int capacity;
+    private final Overflow overflow;
+    private final PrintStream console;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Thread writerThread;
+    private volatile boolean closing;
+
+    // Only touched by the writer thread
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private BufferedWriter out;
+    private long bytesWritten;
+    private long openedAt;
+    private long cachedSecond = -1;
+    private String cachedPrefix;
+    private long lastCounterFlush = System.currentTimeMillis();
+
+    public SessionLog(Path path, long maxBytes, long rollIntervalMillis, int capacity, Overflow overflow,
+                      PrintStream console) throws IOException {
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.rollIntervalMillis = rollIntervalMillis;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.console = console;
+        open();
+        writerThread = new Thread(this::writeLoop, "session-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public static SessionLog fromSystemProperties() throws IOException {
+        return new SessionLog(Paths.get(System.getProperty("rdv.log.file", "server_log.txt")),
+                Long.getLong("rdv.log.maxBytes", 10L * 1024 * 1024),
+                TimeUnit.MINUTES.toMillis(Long.getLong("rdv.log.rollMinutes", 24 * 60)),
+                Integer.getInteger("rdv.log.queue", 8192),
+                Overflow.valueOf(System.getProperty("rdv.log.overflow", "drop").toUpperCase()),
+                Boolean.parseBoolean(System.getProperty("rdv.log.console", "true")) ? System.out : null);
+    }
+
+    // Regular entry; subject to the overflow policy when the queue is full.
+    public void log(String message) {
+        long now = System.currentTimeMillis();
+        while (pending.get() >= capacity) {
+            if (overflow == Overflow.DROP || closing) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+        enqueue(new Entry(now, message));
+    }
+
+    // Audit entry; always queued regardless of the bound.
+    public void audit(String message) {
+        enqueue(new Entry(System.currentTimeMillis(), message));
+    }
+
+    // Adds one to a named counter that is written out, and reset, once per second.
+    public void count(String counter) {
+        LongAdder adder = counters.get(counter);
+        if (adder == null) {
+            adder = counters.computeIfAbsent(counter, name -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    private void enqueue(Entry entry) {
+        pending.incrementAndGet();
+        queue.offer(entry);
+    }
+
+    // Stops accepting regular entries, writes out everything queued so far and closes the file.
+    @Override
+    public void close() {
+        closing = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                boolean wrote = drainBatch();
+                long now = System.currentTimeMillis();
+                if (now - lastCounterFlush >= COUNTER_INTERVAL_MILLIS) {
+                    writeCounters(now);
+                    lastCounterFlush = now;
+                }
+                if (closing && queue.isEmpty()) {
+                    writeCounters(now);
+                    break;
+                }
+                if (!wrote) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            if (console != null) {
+                console.println("Session log failed: " + e.getMessage());
+            }
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing left to report it to
+            }
+        }
+    }
+
+    private boolean drainBatch() throws IOException {
+        batch.setLength(0);
+        Entry entry;
+        int count = 0;
+        while (count < MAX_BATCH && (entry = queue.poll()) != null) {
+            appendLine(entry.time, entry.message);
+            count++;
+        }
+        pending.addAndGet(-count);
+        long drops = dropped.sumThenReset();
+        if (drops > 0) {
+            appendLine(System.currentTimeMillis(), "Session log queue full, dropped " + drops + " entries");
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+        writeBatch();
+        return true;
+    }
+
+    private void writeCounters(long now) throws IOException {
+        batch.setLength(0);
+        StringBuilder line = null;
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            long value = counter.getValue().sumThenReset();
+            if (value == 0) {
+                continue;
+            }
+            line = line == null ? new StringBuilder("Per-second counters: ") : line.append(", ");
+            line.append(counter.getKey()).append('=').append(value);
+        }
+        if (line != null) {
+            appendLine(now, line.toString());
+            writeBatch();
+        }
+    }
+
+    private void appendLine(long time, String message) {
+        long second = time / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedPrefix = secondFormat.format(new Date(second * 1000));
+        }
+        int millis = (int) (time % 1000);
+        batch.append(cachedPrefix).append('.')
+                .append((char) ('0' + millis / 100))
+                .append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10))
+                .append(": ").append(message).append('\n');
+    }
+
+    private void writeBatch() throws IOException {
+        if (bytesWritten >= maxBytes || System.currentTimeMillis() - openedAt >= rollIntervalMillis) {
+            roll();
+        }
+        out.append(batch);
+        out.flush();
+        // Approximate for non-ASCII text, which only matters for the size-based rollover.
+        bytesWritten += batch.length();
+        if (console != null) {
+            console.print(batch);
+        }
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String extension = dot < 0 ? "" : name.substring(dot);
+        Path rolled = path.resolveSibling(base + "-" + stamp + extension);
+        for (int i = 1; Files.exists(rolled); i++) {
+            rolled = path.resolveSibling(base + "-" + stamp + "-" + i + extension);
+        }
+        Files.move(path, rolled);
+        open();
+    }
+
+    private void open() throws IOException {
+        out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        bytesWritten = Files.size(path);
+        openedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,218 @@
+package rdv;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays back a session recording made with -Drdv.record. Frames from the mapped segments go through
+// the same FrameDecoder and ScreenCanvas as a live stream, paced by a media clock that runs at the
+// selected speed. Seeking starts decoding at the nearest keyframe before the target and decodes the
+// frames up to it as fast as possible; if decoding falls behind the clock at high speeds, playback
+// jumps ahead to the next due keyframe instead of decoding every delta in between.
+//
+// Opened from the client's "Play Recording" button, or standalone with
+//   java -cp target/classes rdv.SessionPlayer <session directory>
+public class SessionPlayer extends JFrame {
+    private static final int[] SPEEDS = {1, 2, 4, 8, 16, 32};
+    private static final int UI_INTERVAL_MS = 200;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long SKIP_BEHIND_MILLIS = 1000;
+
+    private final SessionRecording recording;
+    private final String title;
+    private final ScreenCanvas screenCanvas = new ScreenCanvas();
+    private final FrameDecoder frameDecoder;
+    private final JSlider positionSlider;
+    private final JLabel positionLabel = new JLabel();
+    private final JButton playButton = new JButton("Pause");
+    private final Timer uiTimer;
+    private final Thread playbackThread;
+    private volatile boolean closed;
+    private boolean updatingSlider;
+
+    // Media clock, guarded by this
+    private long clockBase;
+    private long clockStartNanos = System.nanoTime();
+    private int speed = 1;
+    private boolean playing = true;
+    private long seekTarget = 0;
+
+    public SessionPlayer(SessionRecording recording, String title) {
+        this.recording = recording;
+        this.title = "Session Playback - " + title;
+        setTitle(this.title);
+        setSize(1000, 700);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setLayout(new BorderLayout());
+        add(new JScrollPane(screenCanvas), BorderLayout.CENTER);
+        frameDecoder = new FrameDecoder(screenCanvas, (seq, sentAt, decodeMicros) -> { });
+        frameDecoder.setCodec(recording.codec());
+
+        positionSlider = new JSlider(0, (int) Math.min(Integer.MAX_VALUE, recording.durationMillis()), 0);
+        positionSlider.addChangeListener(e -> {
+            if (!updatingSlider && !positionSlider.getValueIsAdjusting()) {
+                seek(positionSlider.getValue());
+            }
+        });
+        JComboBox<String> speedBox = new JComboBox<>();
+        for (int s : SPEEDS) {
+            speedBox.addItem(s + "x");
+        }
+        speedBox.addActionListener(e -> setSpeed(SPEEDS[speedBox.getSelectedIndex()]));
+        playButton.addActionListener(e -> togglePlaying());
+
+        JPanel controls = new JPanel(new BorderLayout(5, 0));
+        JPanel buttons = new JPanel();
+        buttons.add(playButton);
+        buttons.add(speedBox);
+        controls.add(buttons, BorderLayout.WEST);
+        controls.add(positionSlider, BorderLayout.CENTER);
+        controls.add(positionLabel, BorderLayout.EAST);
+        add(controls, BorderLayout.SOUTH);
+
+        uiTimer = new Timer(UI_INTERVAL_MS, e -> updatePosition());
+        uiTimer.start();
+        playbackThread = new Thread(this::playbackLoop, "session-player");
+        playbackThread.setDaemon(true);
+        playbackThread.start();
+        setVisible(true);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: SessionPlayer <session directory>");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        SessionRecording recording = SessionRecording.open(directory);
+        SwingUtilities.invokeLater(() -> new SessionPlayer(recording, directory.getFileName().toString()));
+    }
+
+    @Override
+    public void dispose() {
+        closed = true;
+        playbackThread.interrupt();
+        uiTimer.stop();
+        frameDecoder.close();
+        super.dispose();
+    }
+
+    // Moves playback to offsetMillis into the recording.
+    public synchronized void seek(long offsetMillis) {
+        seekTarget = Math.max(0, Math.min(offsetMillis, recording.durationMillis()));
+        LockSupport.unpark(playbackThread);
+    }
+
+    public synchronized void setSpeed(int speed) {
+        clockBase = clock();
+        clockStartNanos = System.nanoTime();
+        this.speed = speed;
+    }
+
+    private synchronized void togglePlaying() {
+        clockBase = clock();
+        clockStartNanos = System.nanoTime();
+        playing = !playing;
+        if (playing && clockBase >= recording.durationMillis()) {
+            seek(0);
+        }
+        playButton.setText(playing ? "Pause" : "Play");
+    }
+
+    // Current position of the media clock in milliseconds into the recording.
+    private synchronized long clock() {
+        if (!playing) {
+            return clockBase;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - clockStartNanos);
+        return Math.min(clockBase + elapsed * speed, recording.durationMillis());
+    }
+
+    private synchronized long takeSeekTarget() {
+        long target = seekTarget;
+        seekTarget = -1;
+        return target;
+    }
+
+    private void playbackLoop() {
+        SessionRecording.Cursor cursor = null;
+        try {
+            while (!closed) {
+                long target = takeSeekTarget();
+                if (target >= 0) {
+                    cursor = seekTo(target);
+                    continue;
+                }
+                long offset = recording.offsetAt(cursor);
+                long now = clock();
+                if (offset < 0 || offset > now) {
+                    if (offset < 0) {
+                        finished();
+                    }
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                if (now - offset > SKIP_BEHIND_MILLIS) {
+                    SessionRecording.Cursor keyframe = recording.seek(now);
+                    if (keyframe.compareTo(cursor) > 0) {
+                        cursor = keyframe;
+                    }
+                }
+                submitNext(cursor);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Rebuilds the screen at target from the nearest keyframe before it and restarts the clock there.
+    private SessionRecording.Cursor seekTo(long target) throws InterruptedException {
+        frameDecoder.discardQueued();
+        screenCanvas.clear();
+        SessionRecording.Cursor cursor = recording.seek(target);
+        long offset;
+        while ((offset = recording.offsetAt(cursor)) >= 0 && offset <= target) {
+            submitNext(cursor);
+        }
+        synchronized (this) {
+            clockBase = target;
+            clockStartNanos = System.nanoTime();
+        }
+        return cursor;
+    }
+
+    private void submitNext(SessionRecording.Cursor cursor) throws InterruptedException {
+        FrameDecoder.EncodedFrame frame = frameDecoder.acquire();
+        if (recording.read(cursor, frame)) {
+            frameDecoder.submit(frame);
+        }
+    }
+
+    private synchronized void finished() {
+        if (playing) {
+            clockBase = recording.durationMillis();
+            playing = false;
+            SwingUtilities.invokeLater(() -> playButton.setText("Play"));
+        }
+    }
+
+    private void updatePosition() {
+        long position = clock();
+        if (!positionSlider.getValueIsAdjusting()) {
+            updatingSlider = true;
+            positionSlider.setValue((int) Math.min(Integer.MAX_VALUE, position));
+            updatingSlider = false;
+        }
+        positionLabel.setText(format(position) + " / " + format(recording.durationMillis()));
+        setTitle(title + " | " + frameDecoder.statistics());
+    }
+
+    private static String format(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d.%03d", seconds / 3600, seconds / 60 % 60, seconds % 60, millis % 1000);
+    }
+}
@@ -0,0 +1,275 @@
+package rdv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Records the broadcast frame stream for later playback. The capture thread only hands each
+// encoded frame to a short queue; a single "session-recorder" thread works out which tiles changed
+// since the last recorded frame and appends them to the current segment through a FileChannel.
+// Frames that arrive while the queue is full are skipped without losing anything: the next recorded
+// frame carries every tile whose version moved, exactly like a viewer that skipped frames.
+//
+// A recording is a directory of append-only segments, rolled by size so each one can be mapped
+// whole by SessionRecording:
+//   segment-NNNNNN.rdvr  magic:i32, format:u8, codec:u8, startMillis:i64,
+//                        then {timestamp:i64, keyframe:bool, length:i32, SCREEN_TILES payload}*
+//   segment-NNNNNN.idx   {timestamp:i64, position:i64}* for every keyframe in the segment
+// Every segment starts with a keyframe and another one is written every few seconds, so playback
+// can seek anywhere by decoding at most one keyframe interval.
+//
+// Enabled with -Drdv.record=<dir>; each server run records into its own session-<timestamp>
+// subdirectory. -Drdv.record.codec=<name> picks the tile codec (default: the first of rdv.codecs)
+// and -Drdv.record.segmentMB=<n> the segment size.
+public class SessionRecorder implements AutoCloseable {
+    static final int MAGIC = 0x52445652; // "RDVR"
+    static final int FORMAT = 3;
+    static final int SEGMENT_HEADER_BYTES = 14;
+    static final int RECORD_HEADER_BYTES = 13;
+    static final int INDEX_ENTRY_BYTES = 16;
+    static final String SEGMENT_SUFFIX = ".rdvr";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int QUEUE_CAPACITY = 8;
+    private static final long KEYFRAME_INTERVAL_MILLIS = 5000;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private static class Pending {
+        final TileEncoder.Frame frame;
+        final long timestamp;
+
+        Pending(TileEncoder.Frame frame, long timestamp) {
+            this.frame = frame;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final Path directory;
+    private final int codec;
+    private final long maxSegmentBytes;
+    private final Consumer<String> log;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder skipped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean closing;
+
+    // Only touched by the writer thread
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream payload = new DataOutputStream(buffer);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+    private FileChannel segment;
+    private FileChannel index;
+    private int segmentNumber;
+    private long[] recordedVersions;
+    private int recordedWidth;
+    private int recordedHeight;
+    private long recordedSeq;
+    private int[] dirty = new int[0];
+    private long lastKeyframe;
+    private long framesRecorded;
+
+    public SessionRecorder(Path directory, int codec, long maxSegmentBytes, Consumer<String> log) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.log = log;
+        Files.createDirectories(directory);
+        writerThread = new Thread(this::writeLoop, "session-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Returns null unless -Drdv.record is set.
+    public static SessionRecorder fromSystemProperties(Consumer<String> log) throws IOException {
+        String root = System.getProperty("rdv.record");
+        if (root == null) {
+            return null;
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path directory = Paths.get(root).resolve("session-" + stamp);
+        for (int i = 1; Files.exists(directory); i++) {
+            directory = Paths.get(root).resolve("session-" + stamp + "-" + i);
+        }
+        String codec = System.getProperty("rdv.record.codec");
+        return new SessionRecorder(directory,
+                codec != null ? FrameCodec.idOf(codec) : FrameCodec.configured()[0],
+                Long.getLong("rdv.record.segmentMB", 256) * 1024 * 1024, log);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    public int codec() {
+        return codec;
+    }
+
+    // Queues a frame encoded with codec(); never blocks the capture thread.
+    public void record(TileEncoder.Frame frame) {
+        if (closing || !queue.offer(new Pending(frame, System.currentTimeMillis()))) {
+            skipped.increment();
+        }
+    }
+
+    // Writes out the queued frames and closes the current segment.
+    @Override
+    public void close() {
+        closing = true;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Pending next = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next != null) {
+                    write(next.frame, next.timestamp);
+                } else if (closing) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.accept("Session recording stopped: " + e.getMessage());
+        } finally {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                log.accept("Error closing session recording: " + e.getMessage());
+            }
+            log.accept("Session recording closed: " + framesRecorded + " frames in " + segmentNumber
+                    + " segments, " + skipped.sum() + " frames skipped");
+        }
+    }
+
+    private void write(TileEncoder.Frame frame, long timestamp) throws IOException {
+        boolean roll = segment == null || segment.position() >= maxSegmentBytes;
+        if (roll) {
+            closeSegment();
+            openSegment(timestamp);
+        }
+        boolean keyframe = roll || recordedVersions == null || recordedWidth != frame.width
+                || recordedHeight != frame.height || timestamp - lastKeyframe >= KEYFRAME_INTERVAL_MILLIS;
+        if (keyframe) {
+            recordedVersions = new long[frame.tileCount()];
+            recordedWidth = frame.width;
+            recordedHeight = frame.height;
+            lastKeyframe = timestamp;
+        }
+        if (dirty.length < frame.tileCount()) {
+            dirty = new int[frame.tileCount()];
+        }
+        int count = 0;
+        for (int i = 0; i < frame.tileCount(); i++) {
+            if (frame.versions[i] != recordedVersions[i]) {
+                dirty[count++] = i;
+                recordedVersions[i] = frame.versions[i];
+            }
+        }
+        MoveDetector.Move move = !keyframe && recordedSeq == frame.seq - 1 ? frame.move : null;
+        recordedSeq = frame.seq;
+        if (move != null) {
+            // Moved tiles are rebuilt from the previous frame on playback
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (!frame.movedOnly(dirty[i])) {
+                    dirty[kept++] = dirty[i];
+                }
+            }
+            count = kept;
+        }
+        if (count == 0 && move == null) {
+            return;
+        }
+
+        // Reserve the record header, then patch it in once the payload length is known.
+        buffer.reset();
+        payload.write(new byte[RECORD_HEADER_BYTES]);
+        frame.writeTiles(payload, keyframe ? Protocol.FRAME_KEYFRAME : 0, move, dirty, null, count, timestamp);
+        payload.flush();
+        ByteBuffer record = buffer.view();
+        record.putLong(0, timestamp);
+        record.put(8, (byte) (keyframe ? 1 : 0));
+        record.putInt(9, buffer.size() - RECORD_HEADER_BYTES);
+
+        long position = segment.position();
+        writeFully(segment, record);
+        if (keyframe) {
+            indexEntry.clear();
+            indexEntry.putLong(timestamp).putLong(position).flip();
+            writeFully(index, indexEntry);
+        }
+        framesRecorded++;
+        buffer.trim();
+    }
+
+    private void openSegment(long startMillis) throws IOException {
+        segmentNumber++;
+        String name = String.format("segment-%06d", segmentNumber);
+        segment = FileChannel.open(directory.resolve(name + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(directory.resolve(name + INDEX_SUFFIX),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(MAGIC).put((byte) FORMAT).put((byte) codec).putLong(startMillis).flip();
+        writeFully(segment, header);
+        recordedVersions = null;
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.force(false);
+            index.force(false);
+        } finally {
+            segment.close();
+            index.close();
+            segment = null;
+            index = null;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        private static final int RETAINED_CAPACITY = 4 << 20;
+
+        RecordBuffer() {
+            super(64 * 1024);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        void trim() {
+            if (buf.length > RETAINED_CAPACITY) {
+                buf = new byte[64 * 1024];
+            }
+        }
+    }
+}
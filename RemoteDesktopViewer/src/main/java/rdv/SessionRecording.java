@@ -0,0 +1,222 @@
+package rdv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Read side of a SessionRecorder directory. Every segment and its keyframe index are memory-mapped,
+// so seeking is a binary search over the segment start times followed by one over the index, and
+// reading a frame is a copy out of the page cache without any read() calls.
+//
+// A segment that was still being written when the server died may end in a partial record, and its
+// index may be missing or lag behind; reading stops at the last complete record and a missing
+// index is rebuilt by scanning the record headers.
+public class SessionRecording {
+    // Read position within the recording; positions are only compared within one recording.
+    public static class Cursor implements Comparable<Cursor> {
+        int segment;
+        int position;
+
+        Cursor(int segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return segment != other.segment ? Integer.compare(segment, other.segment)
+                    : Integer.compare(position, other.position);
+        }
+    }
+
+    private static class Segment {
+        final MappedByteBuffer data;
+        final long startMillis;
+        final int end;
+        final long[] keyframeTimes;
+        final int[] keyframePositions;
+
+        Segment(MappedByteBuffer data, long startMillis, int end, long[] keyframeTimes, int[] keyframePositions) {
+            this.data = data;
+            this.startMillis = startMillis;
+            this.end = end;
+            this.keyframeTimes = keyframeTimes;
+            this.keyframePositions = keyframePositions;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final int codec;
+    private final long startMillis;
+    private final long endMillis;
+
+    private SessionRecording(List<Segment> segments, int codec, long endMillis) {
+        this.segments.addAll(segments);
+        this.codec = codec;
+        this.startMillis = segments.get(0).startMillis;
+        this.endMillis = endMillis;
+    }
+
+    public static SessionRecording open(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*" + SessionRecorder.SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        List<Segment> segments = new ArrayList<>();
+        int codec = 0;
+        long endMillis = 0;
+        for (Path file : files) {
+            MappedByteBuffer data = map(file);
+            if (data.limit() < SessionRecorder.SEGMENT_HEADER_BYTES || data.getInt(0) != SessionRecorder.MAGIC) {
+                throw new IOException("Not a session recording segment: " + file);
+            }
+            if (data.get(4) != SessionRecorder.FORMAT) {
+                throw new IOException("Unsupported recording format " + data.get(4) + " in " + file);
+            }
+            int segmentCodec = data.get(5);
+            if (codec != 0 && segmentCodec != codec) {
+                throw new IOException("Segment " + file + " uses a different codec");
+            }
+            codec = segmentCodec;
+            long start = data.getLong(6);
+
+            // Find the end of the last complete record, remembering its timestamp.
+            int end = SessionRecorder.SEGMENT_HEADER_BYTES;
+            long last = start;
+            while (end + SessionRecorder.RECORD_HEADER_BYTES <= data.limit()) {
+                int next = end + SessionRecorder.RECORD_HEADER_BYTES + data.getInt(end + 9);
+                if (next > data.limit() || next < end) {
+                    break;
+                }
+                last = data.getLong(end);
+                end = next;
+            }
+            if (end == SessionRecorder.SEGMENT_HEADER_BYTES) {
+                continue; // No complete frame; nothing to play
+            }
+            endMillis = Math.max(endMillis, last);
+            segments.add(readIndex(file, data, start, end));
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("No recorded frames in " + directory);
+        }
+        return new SessionRecording(segments, codec, endMillis);
+    }
+
+    public int codec() {
+        return codec;
+    }
+
+    // Wall-clock time of the first frame.
+    public long startMillis() {
+        return startMillis;
+    }
+
+    public long durationMillis() {
+        return endMillis - startMillis;
+    }
+
+    // Positions a cursor on the last keyframe at or before offsetMillis into the recording, or the
+    // first frame if offsetMillis is before it. Decoding from there up to offsetMillis rebuilds the
+    // screen as it was at that moment.
+    public Cursor seek(long offsetMillis) {
+        long time = startMillis + offsetMillis;
+        int segment = segments.size() - 1;
+        while (segment > 0 && segments.get(segment).startMillis > time) {
+            segment--;
+        }
+        Segment s = segments.get(segment);
+        int low = 0;
+        int high = s.keyframeTimes.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (s.keyframeTimes[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return new Cursor(segment, s.keyframePositions[low]);
+    }
+
+    // Offset in milliseconds of the frame at cursor, or -1 at the end of the recording.
+    public long offsetAt(Cursor cursor) {
+        if (!normalize(cursor)) {
+            return -1;
+        }
+        return segments.get(cursor.segment).data.getLong(cursor.position) - startMillis;
+    }
+
+    // Reads the frame at cursor into frame and advances the cursor. Returns false at the end.
+    public boolean read(Cursor cursor, FrameDecoder.EncodedFrame frame) {
+        if (!normalize(cursor)) {
+            return false;
+        }
+        ByteBuffer data = segments.get(cursor.segment).data.duplicate();
+        data.position(cursor.position + SessionRecorder.RECORD_HEADER_BYTES - 4);
+        int length = data.getInt();
+        frame.read(data);
+        cursor.position += SessionRecorder.RECORD_HEADER_BYTES + length;
+        return true;
+    }
+
+    private boolean normalize(Cursor cursor) {
+        while (cursor.position >= segments.get(cursor.segment).end) {
+            if (cursor.segment == segments.size() - 1) {
+                return false;
+            }
+            cursor.segment++;
+            cursor.position = SessionRecorder.SEGMENT_HEADER_BYTES;
+        }
+        return true;
+    }
+
+    private static Segment readIndex(Path file, MappedByteBuffer data, long start, int end) throws IOException {
+        String name = file.getFileName().toString();
+        Path indexFile = file.resolveSibling(name.substring(0, name.length() - SessionRecorder.SEGMENT_SUFFIX.length())
+                + SessionRecorder.INDEX_SUFFIX);
+        List<long[]> entries = new ArrayList<>();
+        if (Files.exists(indexFile)) {
+            MappedByteBuffer index = map(indexFile);
+            for (int i = 0; i + SessionRecorder.INDEX_ENTRY_BYTES <= index.limit(); i += SessionRecorder.INDEX_ENTRY_BYTES) {
+                long position = index.getLong(i + 8);
+                if (position < end) {
+                    entries.add(new long[]{index.getLong(i), position});
+                }
+            }
+        }
+        if (entries.isEmpty()) {
+            for (int position = SessionRecorder.SEGMENT_HEADER_BYTES; position < end;
+                 position += SessionRecorder.RECORD_HEADER_BYTES + data.getInt(position + 9)) {
+                if (data.get(position + 8) != 0) {
+                    entries.add(new long[]{data.getLong(position), position});
+                }
+            }
+        }
+        long[] times = new long[entries.size()];
+        int[] positions = new int[entries.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = entries.get(i)[0];
+            positions[i] = (int) entries.get(i)[1];
+        }
+        return new Segment(data, start, end, times, positions);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large to map: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package rdv;
+
+import javax.swing.JComponent;
+import javax.swing.JLayer;
+import javax.swing.plaf.LayerUI;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.beans.PropertyChangeEvent;
+
+// Compact statistics drawn over the top-left corner of the remote screen. It is a JLayer decoration
+// rather than part of ScreenCanvas, so it stays put while the screen scrolls underneath it and the
+// canvas' dirty-region bookkeeping never has to account for it.
+public class StatsOverlay extends LayerUI<JComponent> {
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+    private static final int MARGIN = 6;
+    private static final int PADDING = 4;
+
+    private volatile String[] lines = new String[0];
+    private volatile boolean shown = true;
+
+    public void setLines(String... lines) {
+        this.lines = lines.clone();
+        firePropertyChange("lines", null, this.lines);
+    }
+
+    public void setShown(boolean shown) {
+        this.shown = shown;
+        firePropertyChange("shown", !shown, shown);
+    }
+
+    @Override
+    public void paint(Graphics g, JComponent c) {
+        super.paint(g, c);
+        String[] text = lines;
+        if (!shown || text.length == 0) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setFont(FONT);
+            FontMetrics metrics = g2.getFontMetrics();
+            int width = 0;
+            for (String line : text) {
+                width = Math.max(width, metrics.stringWidth(line));
+            }
+            int lineHeight = metrics.getHeight();
+            g2.setColor(BACKGROUND);
+            g2.fillRect(MARGIN, MARGIN, width + 2 * PADDING, text.length * lineHeight + 2 * PADDING);
+            g2.setColor(Color.WHITE);
+            int y = MARGIN + PADDING + metrics.getAscent();
+            for (String line : text) {
+                g2.drawString(line, MARGIN + PADDING, y);
+                y += lineHeight;
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    @Override
+    public void applyPropertyChange(PropertyChangeEvent event, JLayer<? extends JComponent> layer) {
+        layer.repaint();
+    }
+}
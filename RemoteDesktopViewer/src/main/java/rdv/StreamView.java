@@ -0,0 +1,100 @@
+package rdv;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+// What one encoded stream covers: a codec, a region of the screen (null for the whole screen) and
+// the resolution layer the region is encoded from before adaptive scaling. Viewers whose views are
+// equal share one TileEncoder, so the region a client reports is widened by a margin and snapped
+// outward to a coarse grid: small scrolls then stay inside the same view instead of re-encoding
+// every tile, and clients looking at the same part of the screen end up sharing a view.
+//
+// For the same reason the client's zoom is not used as is but picks one of LAYERS fixed
+// resolutions, full, 1/2 and 1/4: the smallest one that still has a pixel for every pixel the
+// client shows. A wall of thumbnails at slightly different sizes then shares one quarter-size
+// stream. The grid is a multiple of every layer's step, so regions map onto whole layer pixels.
+public final class StreamView {
+    static final int MARGIN = 64;
+    static final int GRID = 256;
+    public static final int LAYERS = 3;
+
+    private final int codec;
+    private final Rectangle region;
+    private final int layer;
+
+    private StreamView(int codec, Rectangle region, int layer) {
+        this.codec = codec;
+        this.region = region;
+        this.layer = layer;
+    }
+
+    public static StreamView full(int codec) {
+        return new StreamView(codec, null, 0);
+    }
+
+    // The view for a client showing visible (in screen pixels) at the given zoom. Zooming in is left to
+    // the client; the server never encodes above the screen's own resolution.
+    public static StreamView of(int codec, Rectangle visible, double zoom, Dimension screenSize) {
+        int layer = 0;
+        while (layer < LAYERS - 1 && zoom <= 1.0 / (2 << layer)) {
+            layer++;
+        }
+        int x0 = Math.max(0, floor(visible.x - MARGIN));
+        int y0 = Math.max(0, floor(visible.y - MARGIN));
+        int x1 = Math.min(screenSize.width, ceil(visible.x + visible.width + MARGIN));
+        int y1 = Math.min(screenSize.height, ceil(visible.y + visible.height + MARGIN));
+        if (x1 <= x0 || y1 <= y0 || (x0 == 0 && y0 == 0 && x1 == screenSize.width && y1 == screenSize.height)) {
+            return new StreamView(codec, null, layer);
+        }
+        return new StreamView(codec, new Rectangle(x0, y0, x1 - x0, y1 - y0), layer);
+    }
+
+    public int codec() {
+        return codec;
+    }
+
+    // Layer 0 is the screen's own resolution; every further layer halves it.
+    public int layer() {
+        return layer;
+    }
+
+    public double scale() {
+        return 1.0 / (1 << layer);
+    }
+
+    // The region within a screen of the given size.
+    public Rectangle region(Dimension screenSize) {
+        Rectangle screen = new Rectangle(screenSize);
+        return region == null ? screen : region.intersection(screen);
+    }
+
+    private static int floor(int value) {
+        return Math.floorDiv(value, GRID) * GRID;
+    }
+
+    private static int ceil(int value) {
+        return -Math.floorDiv(-value, GRID) * GRID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StreamView)) {
+            return false;
+        }
+        StreamView other = (StreamView) o;
+        return codec == other.codec && layer == other.layer
+                && (region == null ? other.region == null : region.equals(other.region));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * codec + layer) + (region == null ? 0 : region.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return FrameCodec.name(codec) + (region == null ? " full screen"
+                : String.format(" %dx%d+%d+%d", region.width, region.height, region.x, region.y))
+                + (layer == 0 ? "" : " at 1/" + (1 << layer));
+    }
+}
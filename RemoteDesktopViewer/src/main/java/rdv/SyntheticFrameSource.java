@@ -0,0 +1,244 @@
+package rdv;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+// Deterministic generated frames for headless benchmarks and load tests. Every frame is a pure
+// function of the profile and the frame number, so runs are reproducible:
+//   desktop  a mostly static desktop: a window of text with one line being typed, a ticking clock
+//            and a pointer wandering across it, so only a few tiles change per frame
+//   text     a terminal scrolling by one line per frame, so most tiles change but stay text-like
+//   editor   a code window scrolling smoothly inside a static desktop, with a scrollbar and a clock,
+//            and dragged sideways and back every 200 frames; the pointer rests over the text while
+//            it scrolls and holds the title bar during the drag
+//   noise    video-like content: a moving gradient with per-pixel noise, every tile changes
+// Frames are drawn into two alternating buffers. Like a real screen capture they don't contain the
+// pointer; it is reported through pointerLocation() and, once a viewer moves it, stays where the
+// viewer put it.
+public class SyntheticFrameSource implements FrameSource {
+    private static final int LINE_HEIGHT = 16;
+
+    private final String profile;
+    private final BufferedImage[] buffers = new BufferedImage[2];
+    private final Font sansFont = new Font(Font.SANS_SERIF, Font.PLAIN, 13);
+    private final Font monoFont = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+    private volatile long frame;
+    private volatile Point movedPointer;
+
+    public SyntheticFrameSource(String profile, int width, int height) {
+        if (!profile.equals("desktop") && !profile.equals("text") && !profile.equals("editor")
+                && !profile.equals("noise")) {
+            throw new IllegalArgumentException("Unknown synthetic profile: " + profile);
+        }
+        this.profile = profile;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    @Override
+    public BufferedImage capture() {
+        BufferedImage image = buffers[(int) (frame & 1)];
+        switch (profile) {
+            case "desktop":
+                drawDesktop(image, frame);
+                break;
+            case "text":
+                drawTerminal(image, frame);
+                break;
+            case "editor":
+                drawEditor(image, frame);
+                break;
+            default:
+                drawNoise(image, frame);
+                break;
+        }
+        frame++;
+        return image;
+    }
+
+    @Override
+    public Dimension screenSize() {
+        return new Dimension(buffers[0].getWidth(), buffers[0].getHeight());
+    }
+
+    @Override
+    public Point pointerLocation() {
+        Point moved = movedPointer;
+        if (moved != null) {
+            return new Point(moved);
+        }
+        long f = frame;
+        int width = buffers[0].getWidth();
+        int height = buffers[0].getHeight();
+        switch (profile) {
+            case "desktop":
+                return new Point((int) (f * 7 % Math.max(1, width - 12)),
+                        (int) (height / 2 + Math.sin(f / 10.0) * height / 4));
+            case "editor":
+                Rectangle window = editorWindow(f, width, height);
+                return f % 200 < 160 ? new Point(window.x + window.width / 2, window.y + window.height / 2)
+                        : new Point(window.x + 200, window.y + 14);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public CursorShape pointerShape() {
+        if (!profile.equals("editor")) {
+            return CursorShape.ARROW;
+        }
+        Point pointer = pointerLocation();
+        Rectangle text = editorWindow(frame, buffers[0].getWidth(), buffers[0].getHeight());
+        text.y += 28;
+        text.height -= 28;
+        text.width -= 12;
+        return pointer != null && text.contains(pointer) ? CursorShape.TEXT : CursorShape.ARROW;
+    }
+
+    @Override
+    public void pointerMoved(int x, int y) {
+        movedPointer = new Point(x, y);
+    }
+
+    private void drawDesktop(BufferedImage image, long f) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0x2D5F8A));
+        g.fillRect(0, 0, width, height);
+        g.setColor(new Color(0x202020));
+        g.fillRect(0, height - 32, width, 32);
+        g.setColor(Color.WHITE);
+        g.setFont(sansFont);
+        long seconds = f / 10;
+        g.drawString(String.format("%02d:%02d:%02d", seconds / 3600 % 24, seconds / 60 % 60, seconds % 60),
+                width - 80, height - 11);
+
+        int windowWidth = Math.min(800, width - 40);
+        int windowHeight = Math.min(500, height - 80);
+        g.setColor(new Color(0xF0F0F0));
+        g.fillRect(20, 20, windowWidth, windowHeight);
+        g.setColor(new Color(0x3C3C3C));
+        g.fillRect(20, 20, windowWidth, 28);
+        g.setColor(Color.BLACK);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        String typed = "The quick brown fox jumps over the lazy dog. ";
+        int lines = (windowHeight - 40) / 18;
+        int typingLine = (int) (f / typed.length() % lines);
+        for (int line = 0; line < lines; line++) {
+            String text = "Document line " + line + ": ";
+            if (line < typingLine) {
+                text += typed;
+            } else if (line == typingLine) {
+                text += typed.substring(0, (int) (f % typed.length()));
+            }
+            g.drawString(text, 30, 66 + line * 18);
+        }
+        g.dispose();
+    }
+
+    private void drawTerminal(BufferedImage image, long f) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(new Color(0xC0C0C0));
+        g.setFont(monoFont);
+        for (int line = 0; line < image.getHeight() / LINE_HEIGHT; line++) {
+            long n = line + f;
+            g.drawString("[" + n + "] INFO build step " + (n * 7919 % 1000)
+                    + " completed in " + (n * 31 % 97) + " ms", 4, 14 + line * LINE_HEIGHT);
+        }
+        g.dispose();
+    }
+
+    private void drawEditor(BufferedImage image, long f) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0x2D5F8A));
+        g.fillRect(0, 0, width, height);
+        g.setColor(new Color(0x202020));
+        g.fillRect(0, height - 32, width, 32);
+        g.setColor(Color.WHITE);
+        g.setFont(sansFont);
+        long seconds = f / 10;
+        g.drawString(String.format("%02d:%02d:%02d", seconds / 3600 % 24, seconds / 60 % 60, seconds % 60),
+                width - 80, height - 11);
+
+        // Scrolls 6 pixels a frame for 160 frames, then the window is dragged right and back for 40
+        int phase = (int) (f % 200);
+        long scroll = (f / 200 * 160 + Math.min(phase, 160)) * 6;
+        Rectangle window = editorWindow(f, width, height);
+        int windowX = window.x;
+        int windowY = window.y;
+        int windowWidth = window.width;
+        int windowHeight = window.height;
+        g.setColor(new Color(0x3C3C3C));
+        g.fillRect(windowX, windowY, windowWidth, 28);
+        g.setColor(Color.WHITE);
+        g.drawString("Editor.java", windowX + 10, windowY + 19);
+
+        int top = windowY + 28;
+        int textHeight = windowHeight - 28;
+        int textWidth = windowWidth - 12;
+        g.setColor(new Color(0x1E1E1E));
+        g.fillRect(windowX, top, textWidth, textHeight);
+        g.setColor(new Color(0x2A2A2A));
+        g.fillRect(windowX + textWidth, top, 12, textHeight);
+        int thumb = (int) (scroll / LINE_HEIGHT % Math.max(1, textHeight - 40));
+        g.setColor(new Color(0x6A6A6A));
+        g.fillRect(windowX + textWidth + 2, top + thumb, 8, 40);
+
+        g.setClip(windowX, top, textWidth, textHeight);
+        g.setFont(monoFont);
+        long firstLine = scroll / LINE_HEIGHT;
+        int y = top - (int) (scroll % LINE_HEIGHT);
+        for (long line = firstLine; y < top + textHeight; line++, y += LINE_HEIGHT) {
+            g.setColor(new Color(0x858585));
+            g.drawString(String.format("%5d", line + 1), windowX + 4, y + 13);
+            g.setColor(line % 7 == 0 ? new Color(0x569CD6) : new Color(0xD4D4D4));
+            String code = line % 7 == 0 ? "public void step" + line + "() {"
+                    : spaces((int) (line * 5 % 4) * 4) + "value = compute(" + (line * 7919 % 1000) + ", "
+                    + (line * 31 % 97) + ");";
+            g.drawString(code, windowX + 56, y + 13);
+        }
+        g.dispose();
+    }
+
+    private static Rectangle editorWindow(long f, int width, int height) {
+        int phase = (int) (f % 200);
+        int drag = phase < 160 ? 0 : (phase < 180 ? phase - 160 : 200 - phase) * 8;
+        return new Rectangle(40 + drag, 40, Math.max(200, Math.min(900, width - 240)), Math.max(100, height - 120));
+    }
+
+    private static String spaces(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+
+    private static void drawNoise(BufferedImage image, long f) {
+        int width = image.getWidth();
+        int[] pixels = FrameCodec.pixels(image);
+        int seed = (int) (f * 0x9E3779B9L) | 1;
+        for (int i = 0; i < pixels.length; i++) {
+            // xorshift: cheap, and deterministic per frame
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int base = (int) ((i % width + f * 5) & 0xFF);
+            int noise = seed & 0x1F;
+            pixels[i] = Math.min(255, base + noise) << 16 | (base / 2 + noise) << 8 | (seed >>> 8 & 0x3F);
+        }
+    }
+}
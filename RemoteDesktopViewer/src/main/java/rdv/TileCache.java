@@ -0,0 +1,197 @@
+package rdv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Content-addressed cache of encoded tiles, keyed by a 64-bit hash of the tile's bytes and bounded
+// by total bytes and entry count with least-recently-used eviction.
+//
+// The client keeps the tiles themselves, in memory and, between sessions, in a file. The server
+// keeps one index per client, without the data, and replays exactly the operations the client
+// will perform on its cache: a tile sent in full is put, a tile sent as a reference is touched.
+// Both sides evict the same entries, so the server always knows which tiles the client holds and
+// can send an 8-byte hash instead of a tile the client already has. When a session starts, the
+// client announces what it holds (TILE_CACHE); if the two ever disagree, the client reports a miss
+// and the next frame tells it to start over with an empty cache.
+public class TileCache {
+    public static final int MAX_CAPACITY = 64 << 20;
+    public static final int MAX_ENTRIES = 32 * 1024;
+
+    private static final int FILE_MAGIC = 0x52445654; // "RDVT"
+    private static final int FILE_VERSION = 1;
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    private static final long HASH_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    private static final class Entry {
+        final int length;
+        final byte[] data;
+
+        Entry(int length, byte[] data) {
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    public TileCache(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Tile cache capacity must be 1.." + MAX_CAPACITY
+                    + " bytes: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public static long hash(byte[] data, int offset, int length) {
+        long h = HASH_SEED ^ length;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long k = (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8 | (data[i + 2] & 0xFFL) << 16
+                    | (data[i + 3] & 0xFFL) << 24 | (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40
+                    | (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+            h = Long.rotateLeft(h ^ k * HASH_MULTIPLIER, 31) * HASH_SEED;
+        }
+        for (; i < end; i++) {
+            h = (h ^ (data[i] & 0xFF)) * HASH_MULTIPLIER;
+        }
+        h ^= h >>> 33;
+        h *= HASH_MULTIPLIER;
+        return h ^ h >>> 29;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    // Server side: whether the client's cache holds hash, so the tile can go as a reference. Either way
+    // the index then matches the client's cache after it reads the tile: touched, or put if it was sent.
+    public synchronized boolean mirror(long hash, int length) {
+        if (entries.get(hash) != null) {
+            return true;
+        }
+        put(hash, length, null);
+        return false;
+    }
+
+    // The tile stored under hash, marking it as just used, or null if it isn't cached or this is an
+    // index without data.
+    public synchronized byte[] get(long hash) {
+        Entry entry = entries.get(hash);
+        return entry != null ? entry.data : null;
+    }
+
+    // Stores a tile of length bytes; data is null in an index. Evicts the least recently used tiles
+    // until the cache is within its bounds again.
+    public synchronized void put(long hash, int length, byte[] data) {
+        Entry previous = entries.put(hash, new Entry(length, data));
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((bytes > capacity || entries.size() > MAX_ENTRIES) && eldest.hasNext()) {
+            bytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    // Writes the TILE_CACHE payload announcing the cache's contents, least recently used first.
+    public synchronized void writeIndex(DataOutputStream out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(entries.size());
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeInt(entry.getValue().length);
+        }
+    }
+
+    // Reads a TILE_CACHE payload into an index that mirrors the client's cache.
+    public static TileCache readIndex(DataInputStream in) throws IOException {
+        int capacity = in.readInt();
+        int count = in.readInt();
+        if (capacity <= 0 || capacity > MAX_CAPACITY || count < 0 || count > MAX_ENTRIES) {
+            throw new IOException("Invalid tile cache: " + count + " tiles, " + capacity + " bytes");
+        }
+        TileCache index = new TileCache(capacity);
+        for (int i = 0; i < count; i++) {
+            long hash = in.readLong();
+            index.put(hash, in.readInt(), null);
+        }
+        return index;
+    }
+
+    // Saves the tiles to file, least recently used first, replacing it atomically.
+    public synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+                byte[] data = entry.getValue().data;
+                out.writeLong(entry.getKey());
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads a cache saved by save(). A missing file gives an empty cache; a truncated or damaged file
+    // gives whatever was readable before the damage.
+    public static TileCache load(Path file, int capacity) throws IOException {
+        TileCache cache = new TileCache(capacity);
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long hash = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > capacity) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (hash(data, 0, length) != hash) {
+                    break;
+                }
+                cache.put(hash, length, data);
+            }
+        } catch (EOFException e) {
+            // Keep what was read
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,224 @@
+package rdv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures what the TileCache saves when a viewer reconnects over a slow link. An in-process NIO server
+// streams a synthetic 1920x1080 screen, and the given number of sessions connect one after another, each
+// for the given time, through a link throttled to the given bytes per second (e.g. 2500000 for 20 Mbit/s).
+// This runs once without the cache and once with it, where every session starts from the cache file the
+// previous one saved, like the client. Reported per session: the tiles the cache started with and the size
+// of their TILE_CACHE announcement, the first frame's size, when it was received and when it was shown,
+// the stream's bandwidth and how many referenced tiles were missing from the cache.
+//
+//   java -Djava.awt.headless=true -cp target/classes rdv.TileCacheBenchmark [profile] [seconds] [bytesPerSecond]
+//        [sessions]
+public class TileCacheBenchmark {
+    private static final int PORT = 5098;
+    private static final String PASSWORD = "admin123";
+
+    public static void main(String[] args) throws Exception {
+        String profile = args.length > 0 ? args[0] : "desktop";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double bytesPerSecond = args.length > 2 ? Double.parseDouble(args[2]) : 2_500_000;
+        int sessions = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        System.setProperty("rdv.source", "synthetic:" + profile + ":1920x1080");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        ServerEngine engine = RemoteDesktopServer.createEngine("nio", PORT);
+        Thread serverThread = new Thread(() -> {
+            try {
+                engine.serve();
+            } catch (IOException e) {
+                console.println("Server stopped: " + e.getMessage());
+            }
+        }, "tile-cache-benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        console.printf("%-8s %-5s %7s %8s %9s %12s %12s %9s %7s %9s %7s%n", "profile", "cache", "session",
+                "seeded", "index KB", "1st frame KB", "received ms", "shown ms", "frames", "KB/s", "misses");
+        Path file = Files.createTempFile("tile-cache-benchmark", ".bin");
+        try {
+            for (boolean cached : new boolean[]{false, true}) {
+                Files.deleteIfExists(file);
+                for (int session = 1; session <= sessions; session++) {
+                    TileCache cache = cached ? TileCache.load(file, TileCache.MAX_CAPACITY / 2) : null;
+                    console.println(String.format("%-8s %-5s %7d ", profile, cached ? "on" : "off", session)
+                            + runSession(cache, seconds, bytesPerSecond));
+                    if (cache != null) {
+                        cache.save(file);
+                    }
+                    Thread.sleep(500);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            engine.close();
+        }
+        System.exit(0);
+    }
+
+    private static String runSession(TileCache cache, int seconds, double bytesPerSecond) throws Exception {
+        int seeded = cache != null ? cache.size() : 0;
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(1000);
+            OutboundQueue queue = new OutboundQueue();
+            queue.start(new BufferedOutputStream(socket.getOutputStream()), "tile-cache-benchmark-writer");
+            MessageWriter writer = new MessageWriter(queue);
+            MessageReader reader = new MessageReader(new BufferedInputStream(
+                    new ThrottledInputStream(socket.getInputStream(), bytesPerSecond)));
+
+            writer.send(Protocol.AUTH, out -> {
+                out.writeByte(Protocol.VERSION);
+                out.writeUTF(PASSWORD);
+                out.writeByte(1);
+                out.writeByte(Protocol.CODEC_JPEG);
+            });
+            if (reader.next() != Protocol.AUTH_SUCCESS) {
+                throw new IOException("Authentication failed");
+            }
+            long indexBytes = 0;
+            if (cache != null) {
+                ByteArrayOutputStream index = new ByteArrayOutputStream();
+                cache.writeIndex(new DataOutputStream(index));
+                indexBytes = index.size();
+                writer.send(Protocol.TILE_CACHE, cache::writeIndex);
+            }
+
+            AtomicLong firstShown = new AtomicLong();
+            FrameDecoder decoder = new FrameDecoder(new ScreenCanvas(), (seq, sentAt, decodeMicros) -> {
+                firstShown.compareAndSet(0, System.nanoTime());
+                try {
+                    writer.send(Protocol.FRAME_ACK, out -> {
+                        out.writeLong(seq);
+                        out.writeLong(sentAt);
+                        out.writeInt(decodeMicros);
+                    });
+                } catch (IOException e) {
+                    // The session ends on its own time
+                }
+            });
+            decoder.setCodec(Protocol.CODEC_JPEG);
+
+            long started = System.nanoTime();
+            writer.send(Protocol.START_SCREEN_STREAM);
+            long end = started + seconds * 1_000_000_000L;
+            long firstReceived = 0;
+            long firstBytes = 0;
+            long bytes = 0;
+            long frames = 0;
+            long misses = 0;
+            while (System.nanoTime() < end) {
+                byte opcode;
+                try {
+                    opcode = reader.next();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                if (opcode != Protocol.SCREEN_TILES) {
+                    continue;
+                }
+                DataInputStream payload = reader.payload();
+                FrameDecoder.EncodedFrame frame = decoder.acquire();
+                frame.seq = payload.readLong();
+                frame.sentAt = payload.readLong();
+                frame.screenWidth = payload.readInt();
+                frame.screenHeight = payload.readInt();
+                frame.region.setBounds(payload.readInt(), payload.readInt(), payload.readInt(), payload.readInt());
+                frame.width = payload.readInt();
+                frame.height = payload.readInt();
+                int flags = payload.readUnsignedByte();
+                frame.keyframe = (flags & Protocol.FRAME_KEYFRAME) != 0;
+                if ((flags & Protocol.FRAME_CACHE_RESET) != 0 && cache != null) {
+                    cache.clear();
+                }
+                frame.readTiles(payload, cache);
+                if (frame.missingTiles > 0) {
+                    misses += frame.missingTiles;
+                    writer.send(Protocol.TILE_CACHE_MISS);
+                }
+                int length = OutboundQueue.HEADER + reader.payloadLength();
+                if (firstReceived == 0) {
+                    firstReceived = System.nanoTime();
+                    firstBytes = length;
+                }
+                bytes += length;
+                frames++;
+                decoder.submit(frame);
+            }
+            writer.send(Protocol.DISCONNECT);
+            writer.close();
+            decoder.close();
+
+            double elapsed = (System.nanoTime() - started) / 1e9;
+            return String.format("%8d %9.1f %12.1f %12.0f %9.0f %7d %9.1f %7d", seeded, indexBytes / 1024.0,
+                    firstBytes / 1024.0, (firstReceived - started) / 1e6, (firstShown.get() - started) / 1e6,
+                    frames, bytes / elapsed / 1024, misses);
+        }
+    }
+
+    // Paces reads to a fixed rate, like a slow link in front of the client.
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private static final int MAX_READ = 4096;
+
+        private final double bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long total;
+
+        ThrottledInputStream(InputStream in, double bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                pace(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, Math.min(len, MAX_READ));
+            if (count > 0) {
+                pace(count);
+            }
+            return count;
+        }
+
+        private void pace(int count) throws IOException {
+            total += count;
+            long wait = start + (long) (total / bytesPerSecond * 1e9) - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted", e);
+                }
+            }
+        }
+    }
+}
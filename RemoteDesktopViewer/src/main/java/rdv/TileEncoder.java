@@ -0,0 +1,303 @@
+package rdv;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Splits each captured screen into fixed tiles and re-encodes only the tiles whose pixels changed
+// since the previous capture. Every tile carries the sequence number of the frame that last changed
+// it, so a viewer that skipped frames can still work out which tiles it is missing. Tiles are encoded
+// with the given codec; changing the quality, resolution scale or region re-encodes every tile
+// so the stream never mixes settings.
+//
+// An encoder may cover just a region of the screen, at one of the LayerPyramid's layers. The region
+// is cut out of the layer and scaled in one pass, so pixels outside it are never touched.
+//
+// Change detection and encoding run in parallel across tiles on TileWorkers. The encoder only holds
+// the codec id; each chunk of tiles borrows an instance of the codec from the workers.
+//
+// When enough tiles changed, the MoveDetector looks for a block that scrolled or was dragged since
+// the previous capture. The frame then carries the move and marks the changed tiles it reproduces
+// exactly, so a viewer that holds the previous frame can copy them instead of receiving them. Those
+// tiles are still encoded for everyone else, e.g. keyframes and viewers that skipped a frame.
+//
+// Every encoded tile also gets a content hash, so a viewer's TileCache can stand in for the tile.
+public class TileEncoder {
+    public static final int TILE_SIZE = 64;
+
+    private final int codec;
+    private final TileWorkers workers;
+
+    private float quality;
+    private double scale;
+    private final Rectangle region = new Rectangle();
+    private int[] previousPixels;
+    private int width;
+    private int height;
+    private int columns;
+    private long seq;
+    private long[] versions;
+    private byte[][] tiles;
+    private long[] hashes;
+    private final MoveDetector moveDetector = new MoveDetector();
+
+    // Immutable snapshot of the tile table after one capture. Encoded tiles are shared between
+    // snapshots until they change.
+    public static class Frame {
+        public final long seq;
+        public final int screenWidth;
+        public final int screenHeight;
+        public final Rectangle region;
+        public final int width;
+        public final int height;
+        public final int columns;
+        public final int rows;
+        public final long[] versions;
+        public final byte[][] tiles;
+        // TileCache hash of each encoded tile
+        public final long[] hashes;
+        public final int changedTiles;
+        // Block moved since the previous capture, or null, and the changed tiles it reproduces
+        public final MoveDetector.Move move;
+        private final boolean[] moved;
+
+        Frame(long seq, int screenWidth, int screenHeight, Rectangle region, int width, int height, int columns,
+              long[] versions, byte[][] tiles, long[] hashes, int changedTiles, MoveDetector.Move move,
+              boolean[] moved) {
+            this.seq = seq;
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+            this.region = region;
+            this.width = width;
+            this.height = height;
+            this.columns = columns;
+            this.rows = versions.length / columns;
+            this.versions = versions;
+            this.tiles = tiles;
+            this.hashes = hashes;
+            this.changedTiles = changedTiles;
+            this.move = move;
+            this.moved = moved;
+        }
+
+        public int tileCount() {
+            return versions.length;
+        }
+
+        public int tileX(int index) {
+            return (index % columns) * TILE_SIZE;
+        }
+
+        public int tileY(int index) {
+            return (index / columns) * TILE_SIZE;
+        }
+
+        // Whether the tile changed in this frame only by the move, so a viewer that applies the move
+        // to the previous frame needs nothing more for it.
+        public boolean movedOnly(int index) {
+            return moved != null && moved[index];
+        }
+
+        // Writes a SCREEN_TILES payload carrying the first count tiles listed in indexes, preceded by
+        // move if it isn't null. Where referenced is set for a tile (referenced may be null), only the
+        // tile's hash is written, for the viewer to take the tile from its TileCache.
+        public void writeTiles(DataOutputStream out, int flags, MoveDetector.Move move, int[] indexes,
+                               boolean[] referenced, int count, long sentAt) throws IOException {
+            out.writeLong(seq);
+            out.writeLong(sentAt);
+            out.writeInt(screenWidth);
+            out.writeInt(screenHeight);
+            out.writeInt(region.x);
+            out.writeInt(region.y);
+            out.writeInt(region.width);
+            out.writeInt(region.height);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeByte(flags);
+            if (move != null) {
+                out.writeByte(1);
+                move.writeTo(out);
+            } else {
+                out.writeByte(0);
+            }
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                int tile = indexes[i];
+                out.writeShort(tileX(tile));
+                out.writeShort(tileY(tile));
+                if (referenced != null && referenced[i]) {
+                    out.writeInt(-1);
+                    out.writeLong(hashes[tile]);
+                } else {
+                    out.writeInt(tiles[tile].length);
+                    out.write(tiles[tile]);
+                }
+            }
+        }
+    }
+
+    public TileEncoder(int codec) {
+        this(codec, TileWorkers.shared());
+    }
+
+    public TileEncoder(int codec, TileWorkers workers) {
+        this.codec = codec;
+        this.workers = workers;
+    }
+
+    public int codec() {
+        return codec;
+    }
+
+    // Encodes the whole capture as the screen, numbering frames on its own.
+    public Frame encode(BufferedImage capture, float quality, double scale) throws IOException {
+        Rectangle whole = new Rectangle(capture.getWidth(), capture.getHeight());
+        return encode(seq + 1, capture, 0, whole, whole, whole.getSize(), quality, scale);
+    }
+
+    // Encodes region of the screen as frame seq. image is the given LayerPyramid layer of the screen
+    // area bounds, which must contain region; region and bounds are in screen pixels and aligned to
+    // the layer's step, except where they end at the screen's edge. Encoders fed from the same
+    // captures should share the sequence numbers, so a tile version from one never repeats in another.
+    public Frame encode(long seq, BufferedImage image, int layer, Rectangle bounds, Rectangle region,
+                        Dimension screenSize, float quality, double scale) throws IOException {
+        int x = (region.x - bounds.x) >> layer;
+        int y = (region.y - bounds.y) >> layer;
+        int right = Math.min(image.getWidth(), LayerPyramid.size(region.x + region.width - bounds.x, layer));
+        int bottom = Math.min(image.getHeight(), LayerPyramid.size(region.y + region.height - bounds.y, layer));
+        BufferedImage screen = toIntRgb(image, x, y, right - x, bottom - y, scale);
+        int[] pixels = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+        int w = screen.getWidth();
+        int h = screen.getHeight();
+
+        boolean resized = previousPixels == null || w != width || h != height
+                || quality != this.quality || scale != this.scale || !region.equals(this.region);
+        if (resized) {
+            this.quality = quality;
+            this.scale = scale;
+            this.region.setBounds(region);
+            width = w;
+            height = h;
+            columns = (w + TILE_SIZE - 1) / TILE_SIZE;
+            int rows = (h + TILE_SIZE - 1) / TILE_SIZE;
+            versions = new long[columns * rows];
+            tiles = new byte[columns * rows][];
+            hashes = new long[columns * rows];
+        }
+
+        this.seq = seq;
+        long[] versions = this.versions;
+        byte[][] tiles = this.tiles;
+        long[] hashes = this.hashes;
+        int columns = this.columns;
+        workers.forEach(codec, versions.length, (tileCodec, i) -> {
+            int tx = (i % columns) * TILE_SIZE;
+            int ty = (i / columns) * TILE_SIZE;
+            int tw = Math.min(TILE_SIZE, w - tx);
+            int th = Math.min(TILE_SIZE, h - ty);
+            if (resized || tileChanged(pixels, w, tx, ty, tw, th)) {
+                byte[] tile = tileCodec.encode(screen, tx, ty, tw, th, quality);
+                tiles[i] = tile;
+                hashes[i] = TileCache.hash(tile, 0, tile.length);
+                versions[i] = seq;
+            }
+        });
+        int changed = 0;
+        for (long version : versions) {
+            if (version == seq) {
+                changed++;
+            }
+        }
+
+        MoveDetector.Move move = null;
+        boolean[] moved = null;
+        if (!resized && changed >= MoveDetector.MIN_CHANGED_TILES) {
+            boolean[] changedTiles = new boolean[versions.length];
+            for (int i = 0; i < versions.length; i++) {
+                changedTiles[i] = versions[i] == seq;
+            }
+            move = moveDetector.detect(previousPixels, pixels, w, h, changedTiles, columns);
+            if (move != null) {
+                moved = new boolean[versions.length];
+                int reproduced = 0;
+                for (int i = 0; i < versions.length; i++) {
+                    int tx = (i % columns) * TILE_SIZE;
+                    int ty = (i / columns) * TILE_SIZE;
+                    if (versions[i] == seq && movedOnly(pixels, w, tx, ty,
+                            Math.min(TILE_SIZE, w - tx), Math.min(TILE_SIZE, h - ty), move)) {
+                        moved[i] = true;
+                        reproduced++;
+                    }
+                }
+                if (reproduced == 0) {
+                    move = null;
+                    moved = null;
+                }
+            }
+        }
+
+        previousPixels = pixels;
+        return new Frame(seq, screenSize.width, screenSize.height, new Rectangle(region), w, h, columns,
+                versions.clone(), tiles.clone(), hashes.clone(), changed, move, moved);
+    }
+
+    private boolean tileChanged(int[] pixels, int stride, int tx, int ty, int tw, int th) {
+        for (int row = ty; row < ty + th; row++) {
+            int offset = row * stride + tx;
+            for (int i = offset; i < offset + tw; i++) {
+                if (pixels[i] != previousPixels[i]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether every pixel of the tile is either inside the move, which the detector has checked, or
+    // unchanged since the previous capture.
+    private boolean movedOnly(int[] pixels, int stride, int tx, int ty, int tw, int th, MoveDetector.Move move) {
+        int left = Math.max(tx, Math.min(tx + tw, move.x));
+        int right = Math.max(left, Math.min(tx + tw, move.x + move.width));
+        for (int row = ty; row < ty + th; row++) {
+            int offset = row * stride;
+            if (row >= move.y && row < move.y + move.height) {
+                if (rowChanged(pixels, offset + tx, offset + left)
+                        || rowChanged(pixels, offset + right, offset + tx + tw)) {
+                    return false;
+                }
+            } else if (rowChanged(pixels, offset + tx, offset + tx + tw)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean rowChanged(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (pixels[i] != previousPixels[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BufferedImage toIntRgb(BufferedImage image, int x, int y, int width, int height, double scale) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB && scale == 1.0 && x == 0 && y == 0
+                && width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+        int w = Math.max(1, (int) Math.round(width * scale));
+        int h = Math.max(1, (int) Math.round(height * scale));
+        BufferedImage copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, w, h, x, y, x + width, y + height, null);
+        g.dispose();
+        return copy;
+    }
+}
@@ -0,0 +1,146 @@
+package rdv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+// Fork-join pool that spreads the tiles of one frame over several cores. Tiles are independent, so
+// TileEncoder and FrameDecoder hand a frame's tile indexes to forEach(), which splits them into
+// chunks that workers pick up and steal from each other. Codecs keep scratch state and are not
+// thread-safe, so every chunk borrows an instance of its own from a free list and returns it when
+// done; there are never more instances than chunks running at once, and shutdown() closes them.
+//
+// Every stream in the process shares one pool, sized with -Drdv.tileThreads=<n> (default: one
+// thread per core), so a server with many viewers never runs more encoding threads than cores.
+// With one thread, tiles are processed on the caller's thread without touching a pool.
+public final class TileWorkers {
+    // Chunks per thread; more chunks balance uneven tiles better at a little more overhead.
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public interface TileTask {
+        void run(FrameCodec codec, int index) throws IOException;
+    }
+
+    private static TileWorkers shared;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final List<Queue<FrameCodec>> idleCodecs = new ArrayList<>(FrameCodec.NAMES.length);
+    private volatile boolean shutdown;
+
+    public TileWorkers(int parallelism) {
+        for (int i = 0; i < FrameCodec.NAMES.length; i++) {
+            idleCodecs.add(new ConcurrentLinkedQueue<>());
+        }
+        this.parallelism = Math.max(1, parallelism);
+        pool = this.parallelism == 1 ? null : new ForkJoinPool(this.parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("tile-worker-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    public static synchronized TileWorkers shared() {
+        if (shared == null) {
+            shared = new TileWorkers(Integer.getInteger("rdv.tileThreads", Runtime.getRuntime().availableProcessors()));
+        }
+        return shared;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    // Runs task for every index in [0, count), passing the calling worker's instance of the codec,
+    // and returns once all of them are done. The first IOException thrown by a task is rethrown.
+    public void forEach(int codecId, int count, TileTask task) throws IOException {
+        if (pool == null || count < 2) {
+            FrameCodec codec = borrow(codecId);
+            try {
+                for (int i = 0; i < count; i++) {
+                    task.run(codec, i);
+                }
+            } finally {
+                giveBack(codec);
+            }
+            return;
+        }
+        int grain = Math.max(1, count / (parallelism * CHUNKS_PER_THREAD));
+        try {
+            pool.invoke(new Chunk(codecId, 0, count, grain, task));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Stops the pool and closes the codecs; ones still in use are closed when they are given back.
+    public void shutdown() {
+        shutdown = true;
+        if (pool != null) {
+            pool.shutdown();
+        }
+        closeIdleCodecs();
+    }
+
+    private FrameCodec borrow(int id) {
+        FrameCodec codec = idleCodecs.get(id).poll();
+        return codec != null ? codec : FrameCodec.create(id);
+    }
+
+    private void giveBack(FrameCodec codec) {
+        idleCodecs.get(codec.id()).add(codec);
+        if (shutdown) {
+            closeIdleCodecs();
+        }
+    }
+
+    private void closeIdleCodecs() {
+        for (Queue<FrameCodec> idle : idleCodecs) {
+            FrameCodec codec;
+            while ((codec = idle.poll()) != null) {
+                codec.close();
+            }
+        }
+    }
+
+    private class Chunk extends RecursiveAction {
+        private final int codecId;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final TileTask task;
+
+        Chunk(int codecId, int from, int to, int grain, TileTask task) {
+            this.codecId = codecId;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                FrameCodec codec = borrow(codecId);
+                try {
+                    for (int i = from; i < to; i++) {
+                        task.run(codec, i);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    giveBack(codec);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Chunk(codecId, from, middle, grain, task), new Chunk(codecId, middle, to, grain, task));
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package rdv;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs FileSender against FileReceiver over a loopback that hands every message to the other side as
+// soon as it is flushed, so a whole transfer happens on the test's thread.
+class FileTransferTest {
+    private static final String NAME = "report.bin";
+
+    @TempDir
+    Path directory;
+
+    private Path source;
+    private Path received;
+    private final Random random = new Random(3);
+    private final List<String> completed = new ArrayList<>();
+    private FileReceiver receiver;
+    private FileSender sender;
+    // Runs once, after the receiver has taken the first chunk
+    private Runnable afterFirstChunk;
+
+    @BeforeEach
+    void connect() throws IOException {
+        Files.createDirectories(directory.resolve("out"));
+        Files.createDirectories(directory.resolve("in"));
+        source = directory.resolve("out").resolve(NAME);
+        received = directory.resolve("in").resolve("Received_" + NAME);
+
+        MessageWriter toClient = new MessageWriter(new Loopback(this::clientReceived));
+        receiver = new FileReceiver(toClient, line -> { }, "test", directory.resolve("in"));
+        MessageWriter toServer = new MessageWriter(new Loopback(this::serverReceived));
+        sender = new FileSender(toServer, source);
+    }
+
+    @Test
+    void sendsWholeFile() throws Exception {
+        byte[] content = write(source, 300_000);
+
+        assertEquals(0, sender.send());
+
+        assertArrayEquals(content, Files.readAllBytes(received));
+        assertEquals(Arrays.asList(NAME), completed);
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    void resumesFromPartialFile() throws Exception {
+        byte[] content = write(source, 300_000);
+        Files.write(partPath(content), Arrays.copyOf(content, 100_000));
+
+        assertEquals(100_000, sender.send());
+
+        assertArrayEquals(content, Files.readAllBytes(received));
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    void doesNotResumeFromPartOfAnotherFileWithTheSameName() throws Exception {
+        byte[] earlier = random(300_000);
+        Files.write(partPath(earlier), Arrays.copyOf(earlier, 200_000));
+        byte[] content = write(source, 250_000);
+
+        assertEquals(0, sender.send());
+
+        assertArrayEquals(content, Files.readAllBytes(received));
+        // The other file's part is left alone for its own resume.
+        assertEquals(Arrays.asList(partPath(earlier)), partFiles());
+    }
+
+    @Test
+    void startsOverWhenResumedDataDoesNotMatchTheDigest() throws Exception {
+        byte[] content = write(source, 300_000);
+        byte[] damaged = Arrays.copyOf(content, 100_000);
+        damaged[5_000] ^= 1;
+        Files.write(partPath(content), damaged);
+
+        assertEquals(100_000, sender.send());
+
+        assertArrayEquals(content, Files.readAllBytes(received));
+        assertTrue(partFiles().isEmpty());
+    }
+
+    @Test
+    void startsOverWhenCompletePartDoesNotMatchTheDigest() throws Exception {
+        byte[] content = write(source, 200_000);
+        byte[] damaged = content.clone();
+        damaged[199_999] ^= 1;
+        Files.write(partPath(content), damaged);
+
+        assertEquals(0, sender.send());
+
+        assertArrayEquals(content, Files.readAllBytes(received));
+    }
+
+    @Test
+    void discardsFileThatChangedWhileBeingSent() throws Exception {
+        byte[] content = write(source, 300_000);
+        afterFirstChunk = () -> {
+            try {
+                Files.write(source, random(300_000));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        };
+
+        sender.send();
+
+        assertFalse(Files.exists(received));
+        assertTrue(completed.isEmpty());
+        assertTrue(partFiles().isEmpty());
+        assertFalse(Arrays.equals(content, Files.readAllBytes(source)));
+    }
+
+    private void serverReceived(byte opcode, DataInputStream payload) throws IOException {
+        switch (opcode) {
+            case Protocol.FILE_OFFER:
+                receiver.offer(payload);
+                break;
+            case Protocol.FILE_CHUNK:
+                receiver.chunk(payload);
+                if (afterFirstChunk != null) {
+                    Runnable action = afterFirstChunk;
+                    afterFirstChunk = null;
+                    action.run();
+                }
+                break;
+            case Protocol.FILE_COMPLETE:
+                receiver.complete(payload);
+                break;
+            default:
+                throw new IOException("Unexpected opcode " + opcode);
+        }
+    }
+
+    private void clientReceived(byte opcode, DataInputStream payload) throws IOException {
+        switch (opcode) {
+            case Protocol.FILE_ACK:
+                FileSender.acknowledge(payload.readInt(), payload.readLong(), payload.readBoolean());
+                break;
+            case Protocol.FILE_RECEIVED:
+                completed.add(payload.readUTF());
+                break;
+            default:
+                throw new IOException("Unexpected opcode " + opcode);
+        }
+    }
+
+    private Path partPath(byte[] content) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            prefix.append(String.format("%02x", digest[i]));
+        }
+        return directory.resolve("in").resolve("Received_" + NAME + "." + prefix + ".part");
+    }
+
+    private List<Path> partFiles() throws IOException {
+        List<Path> parts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory.resolve("in"))) {
+            files.filter(path -> path.toString().endsWith(".part")).forEach(parts::add);
+        }
+        return parts;
+    }
+
+    private byte[] write(Path path, int length) throws IOException {
+        byte[] content = random(length);
+        Files.write(path, content);
+        return content;
+    }
+
+    private byte[] random(int length) {
+        byte[] content = new byte[length];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private interface Handler {
+        void handle(byte opcode, DataInputStream payload) throws IOException;
+    }
+
+    // Collects what a MessageWriter writes and, on every flush, hands the complete messages to handler.
+    private static final class Loopback extends OutputStream {
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private final Handler handler;
+
+        Loopback(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void write(int b) {
+            pending.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            pending.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(pending.toByteArray()));
+            pending.reset();
+            while (in.available() > 0) {
+                byte opcode = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                handler.handle(opcode, new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package rdv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentAssemblerTest {
+    private static final int CHUNK = OutboundQueue.FRAGMENT_SIZE;
+
+    private final FragmentAssembler assembler = new FragmentAssembler();
+
+    @Test
+    void joinsFragmentsOfOneMessage() throws IOException {
+        byte[] data = new byte[2 * CHUNK + 5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        int cls = OutboundQueue.BULK;
+        assertFalse(add(cls, Protocol.FILE_CHUNK, false, Arrays.copyOfRange(data, 0, CHUNK)));
+        assertFalse(add(cls, Protocol.FILE_CHUNK, false, Arrays.copyOfRange(data, CHUNK, 2 * CHUNK)));
+        assertTrue(add(cls, Protocol.FILE_CHUNK, true, Arrays.copyOfRange(data, 2 * CHUNK, data.length)));
+
+        assertEquals(Protocol.FILE_CHUNK, assembler.opcode());
+        assertArrayEquals(data, Arrays.copyOf(assembler.payload(), assembler.length()));
+    }
+
+    @Test
+    void rejectsControlMessageOverOneMegabyte() throws IOException {
+        assertRejectedAfter(OutboundQueue.CONTROL, Protocol.TILE_CACHE, 1 << 20);
+    }
+
+    @Test
+    void rejectsChatLineOver128Kilobytes() throws IOException {
+        assertRejectedAfter(OutboundQueue.CHAT, Protocol.CHAT_MESSAGE, 128 * 1024);
+    }
+
+    @Test
+    void rejectsFileChunkOverOneMegabyte() throws IOException {
+        assertRejectedAfter(OutboundQueue.BULK, Protocol.FILE_CHUNK, 1 << 20);
+    }
+
+    @Test
+    void acceptsFramesBeyondTheOtherClassesMaximum() throws IOException {
+        byte[] chunk = new byte[CHUNK];
+        for (int i = 0; i < (2 << 20) / CHUNK; i++) {
+            assertFalse(add(OutboundQueue.FRAMES, Protocol.SCREEN_TILES, false, chunk));
+        }
+        assertTrue(add(OutboundQueue.FRAMES, Protocol.SCREEN_TILES, true, chunk));
+        assertEquals((2 << 20) + CHUNK, assembler.length());
+    }
+
+    @Test
+    void rejectsOpcodeOutsideItsClass() {
+        assertThrows(IOException.class, () -> add(OutboundQueue.BULK, Protocol.CHAT_MESSAGE, true, new byte[4]));
+        assertThrows(IOException.class, () -> add(OutboundQueue.CHAT, Protocol.PING, true, new byte[4]));
+        assertThrows(IOException.class, () -> add(OutboundQueue.CONTROL, Protocol.SCREEN_TILES, true, new byte[4]));
+    }
+
+    @Test
+    void rejectsUnknownClass() {
+        assertThrows(IOException.class, () -> add(OutboundQueue.CLASSES, Protocol.PING, true, new byte[4]));
+    }
+
+    @Test
+    void rejectsTruncatedFragment() {
+        assertThrows(IOException.class, () -> assembler.add(new byte[] {OutboundQueue.CONTROL, Protocol.PING}, 2));
+    }
+
+    // Fills the class up to max exactly, then expects the next byte to be refused.
+    private void assertRejectedAfter(int cls, byte opcode, int max) throws IOException {
+        byte[] chunk = new byte[CHUNK];
+        for (int i = 0; i < max / CHUNK; i++) {
+            assertFalse(add(cls, opcode, false, chunk));
+        }
+        IOException e = assertThrows(IOException.class, () -> add(cls, opcode, true, new byte[1]));
+        assertTrue(e.getMessage().contains("too large"), e.getMessage());
+    }
+
+    private boolean add(int cls, byte opcode, boolean last, byte[] data) throws IOException {
+        byte[] fragment = new byte[3 + data.length];
+        fragment[0] = (byte) cls;
+        fragment[1] = opcode;
+        fragment[2] = (byte) (last ? 1 : 0);
+        System.arraycopy(data, 0, fragment, 3, data.length);
+        return assembler.add(fragment, fragment.length);
+    }
+}
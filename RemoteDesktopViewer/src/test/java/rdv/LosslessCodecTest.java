@@ -0,0 +1,123 @@
+package rdv;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The deflate and palette codecs must give back exactly the pixels they were given, whatever the tile's
+// size, colour count or the tiles the same instance coded before.
+class LosslessCodecTest {
+    private static final int TILE = TileEncoder.TILE_SIZE;
+
+    private final Random random = new Random(7);
+
+    @ParameterizedTest
+    @ValueSource(ints = {Protocol.CODEC_DEFLATE, Protocol.CODEC_PALETTE})
+    void roundTripsEdgeTilesNarrowerAndShorterThanATile(int id) throws IOException {
+        // 150 x 100 leaves a 22 pixel wide column and a 36 pixel tall row of edge tiles.
+        BufferedImage source = image(150, 100);
+        fill(source, 0, 0, 150, 100, 1 << 24);
+        fill(source, 0, 64, 150, 36, 5);
+
+        FrameCodec codec = FrameCodec.create(id);
+        try {
+            assertArrayEquals(FrameCodec.pixels(source), FrameCodec.pixels(roundTrip(codec, source)));
+        } finally {
+            codec.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {Protocol.CODEC_DEFLATE, Protocol.CODEC_PALETTE})
+    void roundTripsTilesOnEitherSideOfThePaletteLimit(int id) throws IOException {
+        FrameCodec codec = FrameCodec.create(id);
+        try {
+            for (int colours : new int[] {255, 256, 257}) {
+                BufferedImage source = image(TILE, TILE);
+                int[] pixels = FrameCodec.pixels(source);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = (i % colours) * 0x010305 & 0xFFFFFF;
+                }
+
+                byte[] data = codec.encode(source, 0, 0, TILE, TILE, 1f);
+                if (id == Protocol.CODEC_PALETTE) {
+                    assertEquals(colours <= 256 ? 0 : 1, data[0], "mode for " + colours + " colours");
+                }
+                BufferedImage target = image(TILE, TILE);
+                codec.decode(data, 0, data.length, target, 0, 0, TILE, TILE);
+                assertArrayEquals(pixels, FrameCodec.pixels(target), colours + " colours");
+            }
+        } finally {
+            codec.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {Protocol.CODEC_DEFLATE, Protocol.CODEC_PALETTE})
+    void reusesOneInstanceAcrossTileSizes(int id) throws IOException {
+        // Sizes go up and down again, so a buffer sized by an earlier tile is both too small and too large.
+        int[][] sizes = {{1, 1}, {TILE, TILE}, {5, 3}, {TILE, 17}, {22, TILE}, {TILE, TILE}, {2, 40}};
+        FrameCodec codec = FrameCodec.create(id);
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                int width = sizes[i][0];
+                int height = sizes[i][1];
+                // Alternate flat, few-colour and noisy content so the palette codec switches modes.
+                BufferedImage source = image(200, 120);
+                fill(source, 0, 0, 200, 120, i % 3 == 0 ? 1 : i % 3 == 1 ? 6 : 1 << 24);
+                int x = 200 - width;
+                int y = 120 - height;
+
+                byte[] data = codec.encode(source, x, y, width, height, 1f);
+                BufferedImage target = image(200, 120);
+                codec.decode(data, 0, data.length, target, x, y, width, height);
+                for (int row = y; row < y + height; row++) {
+                    for (int column = x; column < x + width; column++) {
+                        assertEquals(source.getRGB(column, row), target.getRGB(column, row),
+                                width + "x" + height + " tile, pixel " + column + "," + row);
+                    }
+                }
+            }
+        } finally {
+            codec.close();
+        }
+    }
+
+    private static BufferedImage roundTrip(FrameCodec codec, BufferedImage source) throws IOException {
+        BufferedImage target = image(source.getWidth(), source.getHeight());
+        for (int y = 0; y < source.getHeight(); y += TILE) {
+            for (int x = 0; x < source.getWidth(); x += TILE) {
+                int width = Math.min(TILE, source.getWidth() - x);
+                int height = Math.min(TILE, source.getHeight() - y);
+                byte[] data = codec.encode(source, x, y, width, height, 1f);
+                codec.decode(data, 0, data.length, target, x, y, width, height);
+            }
+        }
+        return target;
+    }
+
+    // Fills the area with random colours out of a palette of the given size.
+    private void fill(BufferedImage image, int x, int y, int width, int height, int colours) {
+        int[] palette = new int[Math.min(colours, 64)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = random.nextInt(1 << 24);
+        }
+        int[] pixels = FrameCodec.pixels(image);
+        for (int row = y; row < y + height; row++) {
+            for (int column = x; column < x + width; column++) {
+                pixels[row * image.getWidth() + column] = colours > palette.length
+                        ? random.nextInt(colours) : palette[random.nextInt(colours)];
+            }
+        }
+    }
+
+    private static BufferedImage image(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+}
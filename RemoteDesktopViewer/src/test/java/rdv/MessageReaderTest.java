@@ -0,0 +1,153 @@
+package rdv;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Feeds the reader hand-made byte streams, as a hostile peer could send them.
+class MessageReaderTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    @Test
+    void readsMessagesUpToTheAuthLimitBeforeAuthentication() throws IOException {
+        message(Protocol.AUTH, new byte[Protocol.MAX_AUTH_PAYLOAD]);
+
+        MessageReader reader = reader(false);
+
+        assertEquals(Protocol.AUTH, reader.next());
+        assertEquals(Protocol.MAX_AUTH_PAYLOAD, reader.payloadLength());
+    }
+
+    @Test
+    void rejectsMessageOverTheAuthLimitBeforeAuthentication() throws IOException {
+        message(Protocol.AUTH, new byte[Protocol.MAX_AUTH_PAYLOAD + 1]);
+
+        assertInvalidLength(reader(false));
+    }
+
+    @Test
+    void liftsTheAuthLimitOnceAuthenticated() throws IOException {
+        message(Protocol.PING, new byte[8]);
+        message(Protocol.FILE_CHUNK, new byte[Protocol.MAX_AUTH_PAYLOAD * 4]);
+        MessageReader reader = reader(false);
+
+        assertEquals(Protocol.PING, reader.next());
+        reader.authenticated();
+
+        assertEquals(Protocol.FILE_CHUNK, reader.next());
+        assertEquals(Protocol.MAX_AUTH_PAYLOAD * 4, reader.payloadLength());
+    }
+
+    @Test
+    void rejectsNegativeLength() throws IOException {
+        header(Protocol.CHAT_MESSAGE, -1);
+
+        assertInvalidLength(reader(true));
+    }
+
+    @Test
+    void rejectsLengthOverTheMaximumWithoutReadingIt() throws IOException {
+        // Only the header is there: the reader must fail on the length, not run out of input.
+        header(Protocol.SCREEN_TILES, Protocol.MAX_PAYLOAD + 1);
+
+        assertInvalidLength(reader(true));
+    }
+
+    @Test
+    void rejectsFragmentBeforeAuthentication() throws IOException {
+        fragment(OutboundQueue.CONTROL, Protocol.PING, true, new byte[8]);
+
+        IOException e = assertThrows(IOException.class, () -> reader(false).next());
+        assertTrue(e.getMessage().contains("before authentication"), e.getMessage());
+    }
+
+    @Test
+    void joinsFragmentsInterleavedAcrossClasses() throws IOException {
+        byte[] tiles = pattern(40_000);
+        byte[] chat = pattern(3_000);
+        fragment(OutboundQueue.FRAMES, Protocol.SCREEN_TILES, false, Arrays.copyOfRange(tiles, 0, 16_000));
+        fragment(OutboundQueue.CHAT, Protocol.CHAT_MESSAGE, false, Arrays.copyOfRange(chat, 0, 1_000));
+        fragment(OutboundQueue.FRAMES, Protocol.SCREEN_TILES, false, Arrays.copyOfRange(tiles, 16_000, 32_000));
+        fragment(OutboundQueue.CHAT, Protocol.CHAT_MESSAGE, true, Arrays.copyOfRange(chat, 1_000, 3_000));
+        message(Protocol.PING, new byte[8]);
+        fragment(OutboundQueue.FRAMES, Protocol.SCREEN_TILES, true, Arrays.copyOfRange(tiles, 32_000, 40_000));
+        MessageReader reader = reader(true);
+
+        assertEquals(Protocol.CHAT_MESSAGE, reader.next());
+        assertArrayEquals(chat, payload(reader));
+        assertEquals(Protocol.PING, reader.next());
+        assertEquals(Protocol.SCREEN_TILES, reader.next());
+        assertArrayEquals(tiles, payload(reader));
+    }
+
+    @Test
+    void rejectsFragmentUnderTheWrongClass() throws IOException {
+        fragment(OutboundQueue.CONTROL, Protocol.SCREEN_TILES, true, new byte[16]);
+
+        assertThrows(IOException.class, () -> reader(true).next());
+    }
+
+    @Test
+    void rejectsFragmentedChatOverItsClassMaximum() throws IOException {
+        // Chat lines are capped at 128 KB, far below what a frame may carry.
+        for (int i = 0; i < 8; i++) {
+            fragment(OutboundQueue.CHAT, Protocol.CHAT_MESSAGE, false, new byte[OutboundQueue.FRAGMENT_SIZE]);
+        }
+        fragment(OutboundQueue.CHAT, Protocol.CHAT_MESSAGE, true, new byte[1]);
+        MessageReader reader = reader(true);
+
+        IOException e = assertThrows(IOException.class, reader::next);
+        assertTrue(e.getMessage().contains("too large"), e.getMessage());
+    }
+
+    private MessageReader reader(boolean authenticated) {
+        return new MessageReader(new ByteArrayInputStream(bytes.toByteArray()), authenticated);
+    }
+
+    private void header(byte opcode, int length) throws IOException {
+        out.writeByte(opcode);
+        out.writeInt(length);
+    }
+
+    private void message(byte opcode, byte[] payload) throws IOException {
+        header(opcode, payload.length);
+        out.write(payload);
+    }
+
+    private void fragment(int cls, byte opcode, boolean last, byte[] data) throws IOException {
+        header(Protocol.FRAGMENT, 3 + data.length);
+        out.writeByte(cls);
+        out.writeByte(opcode);
+        out.writeBoolean(last);
+        out.write(data);
+    }
+
+    private static byte[] payload(MessageReader reader) throws IOException {
+        byte[] payload = new byte[reader.payloadLength()];
+        reader.payload().readFully(payload);
+        return payload;
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        return data;
+    }
+
+    private static void assertInvalidLength(MessageReader reader) {
+        IOException e = assertThrows(IOException.class, reader::next);
+        assertTrue(e.getMessage().startsWith("Invalid payload length"), e.getMessage());
+    }
+}
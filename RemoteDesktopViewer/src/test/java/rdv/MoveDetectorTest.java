@@ -0,0 +1,257 @@
+package rdv;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Moves are checked against synthetic captures of random pixels, where every row and column is unique,
+// so the detector has exactly one right answer.
+class MoveDetectorTest {
+    private static final int TILE = TileEncoder.TILE_SIZE;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void findsVerticalScroll() {
+        int width = 320;
+        int height = 256;
+        int[] previous = noise(width * height);
+        int[] current = previous.clone();
+        Rectangle document = new Rectangle(64, 64, 192, 128);
+        scroll(previous, current, width, document, -24);
+
+        MoveDetector.Move move = detect(previous, current, width, height);
+
+        assertMove(move, 64, 64, 192, 104, 0, -24);
+        assertReproduces(previous, current, width, move);
+    }
+
+    @Test
+    void findsHorizontalDrag() {
+        int width = 320;
+        int height = 256;
+        int[] background = noise(width * height);
+        int[] window = noise(128 * 128);
+        int[] previous = background.clone();
+        int[] current = background.clone();
+        draw(previous, width, window, new Rectangle(40, 64, 128, 128));
+        draw(current, width, window, new Rectangle(88, 64, 128, 128));
+
+        MoveDetector.Move move = detect(previous, current, width, height);
+
+        assertNotNull(move);
+        assertEquals(48, move.dx);
+        assertEquals(0, move.dy);
+        assertTrue(new Rectangle(88, 64, 128, 128).contains(new Rectangle(move.x, move.y, move.width, move.height)),
+                "move " + move + " is outside the window");
+        assertTrue(move.width * move.height >= 128 * 128 / 2, "move " + move + " covers too little of the window");
+        assertReproduces(previous, current, width, move);
+    }
+
+    @Test
+    void findsScrollOfWholeScreenWithPartialEdgeTiles() {
+        int width = 300;
+        int height = 200;
+        int[] previous = noise(width * height);
+        int[] current = previous.clone();
+        scroll(previous, current, width, new Rectangle(width, height), 17);
+
+        MoveDetector.Move move = detect(previous, current, width, height);
+
+        assertMove(move, 0, 17, 300, 183, 0, 17);
+        assertReproduces(previous, current, width, move);
+    }
+
+    @Test
+    void findsDragIntoBottomRightCorner() {
+        int width = 300;
+        int height = 200;
+        int[] background = noise(width * height);
+        int[] window = noise(140 * 136);
+        int[] previous = background.clone();
+        int[] current = background.clone();
+        draw(previous, width, window, new Rectangle(110, 64, 140, 136));
+        draw(current, width, window, new Rectangle(160, 64, 140, 136));
+
+        MoveDetector.Move move = detect(previous, current, width, height);
+
+        assertNotNull(move);
+        assertEquals(50, move.dx);
+        assertEquals(0, move.dy);
+        assertEquals(width, move.x + move.width, "move " + move + " stops short of the right edge");
+        assertEquals(height, move.y + move.height, "move " + move + " stops short of the bottom edge");
+        assertReproduces(previous, current, width, move);
+    }
+
+    @Test
+    void findsNothingWhenContentIsReplaced() {
+        int width = 320;
+        int height = 256;
+        int[] previous = noise(width * height);
+        int[] current = noise(width * height);
+
+        assertNull(detect(previous, current, width, height));
+    }
+
+    @Test
+    void findsNothingWhenNothingChanged() {
+        int width = 320;
+        int height = 256;
+        int[] previous = noise(width * height);
+
+        assertNull(detect(previous, previous.clone(), width, height));
+    }
+
+    @Test
+    void applyMatchesCopyFromPreviousCapture() {
+        int width = 100;
+        int height = 90;
+        int[][] offsets = {{0, 7}, {0, -7}, {9, 0}, {-9, 0}, {5, -3}, {-4, 6}};
+        for (int[] offset : offsets) {
+            int dx = offset[0];
+            int dy = offset[1];
+            int[] previous = noise(width * height);
+            int[] pixels = previous.clone();
+            Rectangle block = new Rectangle(10, 10, 70, 60);
+
+            MoveDetector.Move.apply(pixels, width, block.x, block.y, block.width, block.height, dx, dy);
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int expected = block.contains(x, y) ? previous[(y - dy) * width + x - dx] : previous[y * width + x];
+                    assertEquals(expected, pixels[y * width + x], "pixel " + x + "," + y + " for " + dx + "," + dy);
+                }
+            }
+        }
+    }
+
+    @Test
+    void decoderReproducesScrolledFrameFromMoveAndTiles() throws Exception {
+        int width = 300;
+        int height = 200;
+        int[] previous = noise(width * height);
+        int[] current = previous.clone();
+        scroll(previous, current, width, new Rectangle(width, height), -40);
+
+        TileEncoder encoder = new TileEncoder(Protocol.CODEC_DEFLATE);
+        TileEncoder.Frame keyframe = encoder.encode(image(previous, width, height), 0.9f, 1.0);
+        TileEncoder.Frame delta = encoder.encode(image(current, width, height), 0.9f, 1.0);
+        assertNotNull(delta.move);
+
+        int[] all = new int[keyframe.tileCount()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        int[] sent = new int[delta.tileCount()];
+        int count = 0;
+        for (int i = 0; i < delta.tileCount(); i++) {
+            if (delta.versions[i] == delta.seq && !delta.movedOnly(i)) {
+                sent[count++] = i;
+            }
+        }
+        assertTrue(count < delta.changedTiles, "the move should stand in for some tiles");
+
+        ScreenCanvas canvas = new ScreenCanvas();
+        BlockingQueue<Long> decoded = new LinkedBlockingQueue<>();
+        FrameDecoder decoder = new FrameDecoder(canvas, (seq, sentAt, decodeMicros) -> decoded.add(seq));
+        try {
+            decoder.setCodec(Protocol.CODEC_DEFLATE);
+            submit(decoder, keyframe, Protocol.FRAME_KEYFRAME, null, all, all.length);
+            assertEquals(Long.valueOf(keyframe.seq), decoded.poll(10, TimeUnit.SECONDS));
+            submit(decoder, delta, 0, delta.move, sent, count);
+            assertEquals(Long.valueOf(delta.seq), decoded.poll(10, TimeUnit.SECONDS));
+
+            // The next frame starts from a copy of the one just published.
+            BufferedImage result = canvas.beginFrame(width, height, false);
+            assertArrayEquals(current, FrameCodec.pixels(result));
+        } finally {
+            decoder.close();
+        }
+    }
+
+    private MoveDetector.Move detect(int[] previous, int[] current, int width, int height) {
+        int columns = (width + TILE - 1) / TILE;
+        int rows = (height + TILE - 1) / TILE;
+        boolean[] changed = new boolean[columns * rows];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (previous[y * width + x] != current[y * width + x]) {
+                    changed[(y / TILE) * columns + x / TILE] = true;
+                }
+            }
+        }
+        return new MoveDetector().detect(previous, current, width, height, changed, columns);
+    }
+
+    // Shifts the contents of area in current by dy rows, filling the rows scrolled in with new pixels.
+    private void scroll(int[] previous, int[] current, int width, Rectangle area, int dy) {
+        for (int y = area.y; y < area.y + area.height; y++) {
+            int from = y - dy;
+            for (int x = area.x; x < area.x + area.width; x++) {
+                current[y * width + x] = from >= area.y && from < area.y + area.height
+                        ? previous[from * width + x] : random.nextInt(0x1000000);
+            }
+        }
+    }
+
+    private static void draw(int[] pixels, int width, int[] block, Rectangle at) {
+        for (int y = 0; y < at.height; y++) {
+            System.arraycopy(block, y * at.width, pixels, (at.y + y) * width + at.x, at.width);
+        }
+    }
+
+    private int[] noise(int length) {
+        int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static BufferedImage image(int[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        System.arraycopy(pixels, 0, FrameCodec.pixels(image), 0, pixels.length);
+        return image;
+    }
+
+    private static void submit(FrameDecoder decoder, TileEncoder.Frame frame, int flags, MoveDetector.Move move,
+                               int[] indexes, int count) throws IOException, InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        frame.writeTiles(new DataOutputStream(bytes), flags, move, indexes, null, count, 0);
+        FrameDecoder.EncodedFrame encoded = decoder.acquire();
+        encoded.read(ByteBuffer.wrap(bytes.toByteArray()));
+        decoder.submit(encoded);
+    }
+
+    private static void assertMove(MoveDetector.Move move, int x, int y, int width, int height, int dx, int dy) {
+        assertNotNull(move);
+        assertEquals(new MoveDetector.Move(x, y, width, height, dx, dy).toString(), move.toString());
+    }
+
+    // Applying the move to the previous capture gives the current pixels inside the moved block.
+    private static void assertReproduces(int[] previous, int[] current, int width, MoveDetector.Move move) {
+        int[] pixels = previous.clone();
+        MoveDetector.Move.apply(pixels, width, move.x, move.y, move.width, move.height, move.dx, move.dy);
+        for (int y = move.y; y < move.y + move.height; y++) {
+            int from = y * width + move.x;
+            assertArrayEquals(Arrays.copyOfRange(current, from, from + move.width),
+                    Arrays.copyOfRange(pixels, from, from + move.width), "row " + y + " of " + move);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package rdv;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives a server-side index and a client cache through the same frame stream, the index choosing
+// which tiles go as references exactly like the server, and checks that the client always finds them.
+class TileCacheTest {
+    private static final int COLUMNS = 40;
+    private static final int ROWS = 30;
+
+    private final Random random = new Random(11);
+    private TileCache index;
+    private TileCache client;
+    private boolean resetPending;
+    private long seq;
+
+    @Test
+    void mirrorsDuplicatesWithinOneFrame() throws IOException {
+        connect(1 << 20);
+        byte[] tile = tile(100);
+        byte[][] tiles = new byte[COLUMNS * ROWS][];
+        Arrays.fill(tiles, tile);
+
+        FrameDecoder.EncodedFrame frame = send(tiles);
+
+        assertEquals(0, frame.missingTiles);
+        assertEquals(tiles.length, frame.tileCount);
+        assertEquals(1, client.size());
+        assertReceived(tiles, frame);
+    }
+
+    @Test
+    void mirrorsEvictionAtTheByteBound() throws IOException {
+        // Room for a few hundred tiles out of a working set of thousands
+        connect(256 * 1024);
+        byte[][] pool = new byte[4000][];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = tile(200 + random.nextInt(1800));
+        }
+        for (int i = 0; i < 40; i++) {
+            FrameDecoder.EncodedFrame frame = send(pick(pool, 300));
+            assertEquals(0, frame.missingTiles, "frame " + seq);
+            assertTrue(client.bytes() <= client.capacity());
+        }
+        assertMirrored();
+    }
+
+    @Test
+    void mirrorsEvictionAtTheEntryBound() throws IOException {
+        // Tiny tiles, so the entry count runs out long before the bytes
+        connect(TileCache.MAX_CAPACITY);
+        byte[][] pool = new byte[TileCache.MAX_ENTRIES * 2][];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = tile(8 + random.nextInt(24));
+        }
+        for (int i = 0; i < 80; i++) {
+            FrameDecoder.EncodedFrame frame = send(pick(pool, pool.length));
+            assertEquals(0, frame.missingTiles, "frame " + seq);
+            assertTrue(client.size() <= TileCache.MAX_ENTRIES);
+        }
+        assertEquals(TileCache.MAX_ENTRIES, client.size());
+        assertMirrored();
+    }
+
+    @Test
+    void startsOverAfterTheClientReportsAMiss() throws IOException {
+        connect(1 << 20);
+        byte[][] pool = new byte[500][];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = tile(300);
+        }
+        send(pick(pool, pool.length));
+
+        // The client lost its tiles, e.g. its cache file was damaged, while the index still lists them.
+        client = new TileCache(client.capacity());
+        FrameDecoder.EncodedFrame frame = send(pick(pool, pool.length));
+        assertTrue(frame.missingTiles > 0);
+
+        // TILE_CACHE_MISS: the server empties the index and flags the next frame, a keyframe with every tile.
+        index.clear();
+        resetPending = true;
+        for (int i = 0; i < 10; i++) {
+            byte[][] tiles = pick(pool, pool.length);
+            frame = send(tiles);
+            assertEquals(0, frame.missingTiles, "frame " + seq);
+            assertReceived(tiles, frame);
+        }
+        assertMirrored();
+    }
+
+    // The client announces its empty cache and the server builds the index from the announcement.
+    private void connect(int capacity) throws IOException {
+        client = new TileCache(capacity);
+        ByteArrayOutputStream announcement = new ByteArrayOutputStream();
+        client.writeIndex(new DataOutputStream(announcement));
+        index = TileCache.readIndex(new DataInputStream(new ByteArrayInputStream(announcement.toByteArray())));
+    }
+
+    // Sends every tile as changed, the way the server writes a frame, and reads it the way the client does.
+    private FrameDecoder.EncodedFrame send(byte[][] tiles) throws IOException {
+        seq++;
+        int count = tiles.length;
+        long[] versions = new long[count];
+        long[] hashes = new long[count];
+        int[] indexes = new int[count];
+        boolean[] referenced = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            versions[i] = seq;
+            hashes[i] = TileCache.hash(tiles[i], 0, tiles[i].length);
+            indexes[i] = i;
+            referenced[i] = index.mirror(hashes[i], tiles[i].length);
+        }
+        int size = COLUMNS * TileEncoder.TILE_SIZE;
+        TileEncoder.Frame frame = new TileEncoder.Frame(seq, size, size, new Rectangle(size, size), size, size,
+                COLUMNS, versions, tiles, hashes, count, null, null);
+        int flags = resetPending ? Protocol.FRAME_KEYFRAME | Protocol.FRAME_CACHE_RESET : 0;
+        resetPending = false;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        frame.writeTiles(new DataOutputStream(bytes), flags, null, indexes, referenced, count, 0);
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        // seq, sentAt, screen size, region, frame size
+        payload.skipBytes(8 + 8 + 2 * 4 + 4 * 4 + 2 * 4);
+        if ((payload.readUnsignedByte() & Protocol.FRAME_CACHE_RESET) != 0) {
+            client.clear();
+        }
+        FrameDecoder.EncodedFrame received = new FrameDecoder.EncodedFrame();
+        received.readTiles(payload, client);
+        return received;
+    }
+
+    private void assertMirrored() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        client.writeIndex(new DataOutputStream(expected));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        index.writeIndex(new DataOutputStream(actual));
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray(), "index and cache differ in content or order");
+    }
+
+    private static void assertReceived(byte[][] tiles, FrameDecoder.EncodedFrame frame) {
+        for (int i = 0; i < frame.tileCount; i++) {
+            int offset = frame.offsets[i];
+            assertArrayEquals(tiles[i], Arrays.copyOfRange(frame.data, offset, offset + frame.lengths[i]), "tile " + i);
+        }
+    }
+
+    // A frame's tiles, drawn from the first limit tiles of pool with a bias towards the start, so some
+    // tiles come back often while others drop out of the cache before they are seen again.
+    private byte[][] pick(byte[][] pool, int limit) {
+        byte[][] tiles = new byte[COLUMNS * ROWS][];
+        for (int i = 0; i < tiles.length; i++) {
+            double r = random.nextDouble();
+            tiles[i] = pool[(int) (r * r * limit)];
+        }
+        return tiles;
+    }
+
+    private byte[] tile(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,56 @@
+package rdv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Serialization cost of the input messages: the per-event MOUSE_MOVE and KEY_PRESS messages and
+// an INPUT_BATCH carrying a coalesced move followed by a key press.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlMessageBenchmark {
+    private MessageWriter writer;
+    private InputBatcher batcher;
+    private int position;
+
+    @Setup
+    public void setUp() {
+        writer = new MessageWriter(new DiscardingOutputStream());
+        batcher = new InputBatcher(writer);
+    }
+
+    @Benchmark
+    public void mouseMove() throws IOException {
+        position = (position + 1) & 0x3FF;
+        writer.send(Protocol.MOUSE_MOVE, position, position);
+    }
+
+    @Benchmark
+    public void keyPress() throws IOException {
+        writer.send(Protocol.KEY_PRESS, KeyEvent.VK_A);
+    }
+
+    @Benchmark
+    public void inputBatch() throws IOException {
+        position = (position + 1) & 0x3FF;
+        batcher.mouseMoved(position, position);
+        batcher.mouseMoved(position + 1, position);
+        batcher.keyPressed(KeyEvent.VK_A);
+        batcher.flush();
+    }
+}
@@ -0,0 +1,18 @@
+package rdv;
+
+import java.io.OutputStream;
+
+// Sink for benchmarks that only measure serialization; counts what was written.
+class DiscardingOutputStream extends OutputStream {
+    long written;
+
+    @Override
+    public void write(int b) {
+        written++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        written += len;
+    }
+}
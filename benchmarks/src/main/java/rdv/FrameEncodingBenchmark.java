@@ -0,0 +1,120 @@
+package rdv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The server's capture -> encode -> serialize path and the client's decode path, per codec, at
+// several resolutions, on synthetic content:
+//   encodeKeyframe          every tile of a frame through the codec
+//   captureEncodeSerialize  next synthetic frame through TileEncoder (changed tiles only, less
+//                           those a detected move reproduces) and written as a SCREEN_TILES
+//                           message, as sendFrame() does for a viewer that keeps up
+//   decodeKeyframe          every tile of an encoded frame decoded into a framebuffer, as the
+//                           client's FrameDecoder does
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FrameEncodingBenchmark {
+    private static final float QUALITY = AdaptiveStreamController.DEFAULT_QUALITY;
+
+    @Param({"1280x720", "1920x1080", "2560x1440"})
+    public String resolution;
+
+    @Param({"jpeg", "deflate", "palette"})
+    public String codec;
+
+    @Param({"desktop", "text", "editor"})
+    public String content;
+
+    private int width;
+    private int height;
+    private int columns;
+    private FrameCodec frameCodec;
+    private SyntheticFrameSource source;
+    private TileEncoder encoder;
+    private BufferedImage keyframe;
+    private byte[][] encodedTiles;
+    private BufferedImage framebuffer;
+    private MessageWriter writer;
+    private int[] dirty;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        columns = (width + TileEncoder.TILE_SIZE - 1) / TileEncoder.TILE_SIZE;
+        int rows = (height + TileEncoder.TILE_SIZE - 1) / TileEncoder.TILE_SIZE;
+
+        int id = FrameCodec.idOf(codec);
+        frameCodec = FrameCodec.create(id);
+        source = new SyntheticFrameSource(content, width, height);
+        encoder = new TileEncoder(id);
+        keyframe = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        keyframe.setData(source.capture().getRaster());
+        encodedTiles = new byte[columns * rows][];
+        encodeKeyframe();
+        framebuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        writer = new MessageWriter(new DiscardingOutputStream());
+        dirty = new int[columns * rows];
+    }
+
+    @TearDown
+    public void tearDown() {
+        frameCodec.close();
+    }
+
+    @Benchmark
+    public byte[][] encodeKeyframe() throws IOException {
+        for (int i = 0; i < encodedTiles.length; i++) {
+            int x = (i % columns) * TileEncoder.TILE_SIZE;
+            int y = (i / columns) * TileEncoder.TILE_SIZE;
+            encodedTiles[i] = frameCodec.encode(keyframe, x, y,
+                    Math.min(TileEncoder.TILE_SIZE, width - x), Math.min(TileEncoder.TILE_SIZE, height - y), QUALITY);
+        }
+        return encodedTiles;
+    }
+
+    @Benchmark
+    public TileEncoder.Frame captureEncodeSerialize() throws IOException {
+        TileEncoder.Frame frame = encoder.encode(source.capture(), QUALITY, 1.0);
+        int count = 0;
+        for (int i = 0; i < frame.tileCount(); i++) {
+            if (frame.versions[i] == frame.seq && !frame.movedOnly(i)) {
+                dirty[count++] = i;
+            }
+        }
+        int tileCount = count;
+        writer.send(Protocol.SCREEN_TILES,
+                out -> frame.writeTiles(out, 0, frame.move, dirty, null, tileCount, System.nanoTime()));
+        return frame;
+    }
+
+    @Benchmark
+    public BufferedImage decodeKeyframe() throws IOException {
+        for (int i = 0; i < encodedTiles.length; i++) {
+            int x = (i % columns) * TileEncoder.TILE_SIZE;
+            int y = (i / columns) * TileEncoder.TILE_SIZE;
+            frameCodec.decode(encodedTiles[i], 0, encodedTiles[i].length, framebuffer, x, y,
+                    Math.min(TileEncoder.TILE_SIZE, width - x), Math.min(TileEncoder.TILE_SIZE, height - y));
+        }
+        return framebuffer;
+    }
+}
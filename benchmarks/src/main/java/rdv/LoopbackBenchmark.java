@@ -0,0 +1,163 @@
+package rdv;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+// End to end over a loopback socket between an in-process server, fed by a synthetic frame source,
+// and a client in the benchmark thread:
+//   pingPong   PING/PONG round trip through the server's message dispatch
+//   getScreen  GET_SCREEN -> capture, encode, serialize, transfer, then decode every tile on the
+//              client and acknowledge; the "bytes" counter gives the transfer rate
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Drdv.source=synthetic:desktop:1920x1080"})
+public class LoopbackBenchmark {
+    private static final int PORT = 5199;
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"jpeg", "palette"})
+    public String codec;
+
+    private ServerEngine server;
+    private Socket socket;
+    private MessageWriter writer;
+    private MessageReader reader;
+    private FrameCodec frameCodec;
+    private BufferedImage framebuffer;
+    private byte[] tile = new byte[64 * 1024];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Transfer {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = RemoteDesktopServer.createEngine(engine, PORT);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                // Closed in tearDown
+            }
+        }, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        socket = connect();
+        socket.setTcpNoDelay(true);
+        writer = new MessageWriter(new BufferedOutputStream(socket.getOutputStream()));
+        reader = new MessageReader(new BufferedInputStream(socket.getInputStream()));
+        int codecId = FrameCodec.idOf(codec);
+        writer.send(Protocol.AUTH, out -> {
+            out.writeByte(Protocol.VERSION);
+            out.writeUTF("admin123");
+            out.writeByte(1);
+            out.writeByte(codecId);
+        });
+        if (reader.next() != Protocol.AUTH_SUCCESS) {
+            throw new IllegalStateException("Authentication failed");
+        }
+        frameCodec = FrameCodec.create(reader.payload().readUnsignedByte());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.send(Protocol.DISCONNECT);
+        socket.close();
+        server.close();
+        frameCodec.close();
+    }
+
+    @Benchmark
+    public long pingPong() throws IOException {
+        long timestamp = System.nanoTime();
+        writer.send(Protocol.PING, out -> out.writeLong(timestamp));
+        while (reader.next() != Protocol.PONG) {
+            // Skip anything unrelated
+        }
+        return reader.payload().readLong();
+    }
+
+    @Benchmark
+    public BufferedImage getScreen(Transfer transfer) throws IOException {
+        writer.send(Protocol.GET_SCREEN);
+        while (reader.next() != Protocol.SCREEN_TILES) {
+            // Skip anything unrelated
+        }
+        transfer.bytes += 5 + reader.payloadLength();
+        DataInputStream payload = reader.payload();
+        long seq = payload.readLong();
+        long sentAt = payload.readLong();
+        payload.readInt(); // screen width
+        payload.readInt(); // screen height
+        int width = payload.readInt();
+        int height = payload.readInt();
+        payload.readBoolean();
+        int count = payload.readInt();
+        if (framebuffer == null || framebuffer.getWidth() != width || framebuffer.getHeight() != height) {
+            framebuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        for (int i = 0; i < count; i++) {
+            int x = payload.readUnsignedShort();
+            int y = payload.readUnsignedShort();
+            int length = payload.readInt();
+            if (length > tile.length) {
+                tile = new byte[length];
+            }
+            payload.readFully(tile, 0, length);
+            frameCodec.decode(tile, 0, length, framebuffer, x, y,
+                    Math.min(TileEncoder.TILE_SIZE, width - x), Math.min(TileEncoder.TILE_SIZE, height - y));
+        }
+        writer.send(Protocol.FRAME_ACK, out -> {
+            out.writeLong(seq);
+            out.writeLong(sentAt);
+            out.writeInt(0);
+        });
+        return framebuffer;
+    }
+
+    private static Socket connect() throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket("localhost", PORT);
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
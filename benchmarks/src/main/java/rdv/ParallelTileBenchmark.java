@@ -0,0 +1,92 @@
+package rdv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Frames per second of the tile encode and decode stages as the TileWorkers pool grows; compare the
+// threads values against the number of cores the machine has.
+//   encode  the next frame of a scrolling terminal (most tiles change) through TileEncoder
+//   decode  every tile of an encoded frame decoded into a framebuffer, as FrameDecoder does
+// Frames are rendered up front, so drawing the synthetic content isn't measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParallelTileBenchmark {
+    private static final float QUALITY = AdaptiveStreamController.DEFAULT_QUALITY;
+    private static final int FRAMES = 8;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"jpeg", "palette"})
+    public String codec;
+
+    private TileWorkers workers;
+    private TileEncoder encoder;
+    private BufferedImage[] frames;
+    private int next;
+    private int codecId;
+    private TileEncoder.Frame keyframe;
+    private BufferedImage framebuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        SyntheticFrameSource source = new SyntheticFrameSource("text", width, height);
+        frames = new BufferedImage[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            frames[i].setData(source.capture().getRaster());
+        }
+        workers = new TileWorkers(threads);
+        codecId = FrameCodec.idOf(codec);
+        encoder = new TileEncoder(codecId, workers);
+        keyframe = new TileEncoder(codecId, workers).encode(frames[0], QUALITY, 1.0);
+        framebuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdown();
+    }
+
+    @Benchmark
+    public TileEncoder.Frame encode() throws IOException {
+        next = (next + 1) % FRAMES;
+        return encoder.encode(frames[next], QUALITY, 1.0);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        TileEncoder.Frame frame = keyframe;
+        workers.forEach(codecId, frame.tileCount(), (tileCodec, i) -> {
+            int x = frame.tileX(i);
+            int y = frame.tileY(i);
+            tileCodec.decode(frame.tiles[i], 0, frame.tiles[i].length, framebuffer, x, y,
+                    Math.min(TileEncoder.TILE_SIZE, frame.width - x), Math.min(TileEncoder.TILE_SIZE, frame.height - y));
+        });
+        return framebuffer;
+    }
+}